@@ -0,0 +1,74 @@
+package com.n26.yonatan.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.controller.TransactionValidator;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.json.TransactionRequestConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and validating a <code>PUT /transaction</code> body using Jackson's data binding and the bean
+ * validation (as Spring does by default) with the {@link TransactionRequestConverter} and the
+ * {@link TransactionValidator}.
+ * <br>
+ * Run using <code>gradle jmh -PjmhArgs="JsonRequestBenchmark -prof gc"</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRequestBenchmark {
+
+    @Param({"jackson", "fast"})
+    String reader;
+
+    private byte[] body;
+    private ObjectMapper objectMapper;
+    private Validator beanValidator;
+    private TransactionRequestConverter converter;
+    private TransactionValidator validator;
+
+    @Setup
+    public void setup() {
+        body = "{\"amount\":1234.5678,\"type\":\"shopping_cart_42\",\"parent_id\":987654321}"
+                .getBytes(StandardCharsets.UTF_8);
+        objectMapper = new ObjectMapper();
+        beanValidator = Validation.buildDefaultValidatorFactory().getValidator();
+        converter = new TransactionRequestConverter();
+        validator = new TransactionValidator();
+    }
+
+    @Benchmark
+    public Object readAndValidate() throws IOException {
+        if ("fast".equals(reader)) {
+            Transaction t = converter.read(new ByteArrayInputStream(body));
+            // the binding result is created by Spring in both cases
+            Errors errors = new BeanPropertyBindingResult(t, "transaction");
+            validator.validate(t, errors);
+            return errors;
+        }
+        Transaction t = objectMapper.readValue(new ByteArrayInputStream(body), Transaction.class);
+        return beanValidator.validate(t);
+    }
+}
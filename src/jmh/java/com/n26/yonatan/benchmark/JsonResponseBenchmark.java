@@ -0,0 +1,109 @@
+package com.n26.yonatan.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.Status;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.json.JsonResponseConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing the responses using Jackson's bean serialization (as Spring's default converter does) with the
+ * {@link JsonResponseConverter}, into a stream which discards the bytes, so only the writing is measured.
+ * <br>
+ * Run using <code>gradle jmh -PjmhArgs="JsonResponseBenchmark -prof gc"</code> - the allocation per response is
+ * reported as <code>gc.alloc.rate.norm</code> (bytes per operation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonResponseBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"jackson", "fast"})
+    String writer;
+
+    @Param({"1000"})
+    int ids;
+
+    private ObjectMapper objectMapper;
+    private JsonResponseConverter converter;
+
+    private Transaction transaction;
+    private Sum sum;
+    private Status status;
+    private List<Long> idList;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        converter = new JsonResponseConverter(new AmountScale(), objectMapper);
+        transaction = new Transaction();
+        transaction.setType("cars");
+        transaction.setAmount(1234.5678);
+        transaction.setParentId(987654321L);
+        transaction.setTimestamp(1445000000000L);
+        sum = new Sum(98765.4321);
+        idList = new ArrayList<>(ids);
+        for (long id = 0; id < ids; id++) {
+            idList.add(id * 7919);
+        }
+    }
+
+    @Benchmark
+    public void transaction() throws IOException {
+        write(transaction);
+    }
+
+    @Benchmark
+    public void sum() throws IOException {
+        write(sum);
+    }
+
+    @Benchmark
+    public void status() throws IOException {
+        // a new status per response, as the controller creates them
+        write(new Status("ok"));
+    }
+
+    @Benchmark
+    public void ids() throws IOException {
+        write(idList);
+    }
+
+    private void write(Object value) throws IOException {
+        if ("fast".equals(writer)) {
+            converter.write(value, DISCARD);
+        } else {
+            objectMapper.writeValue(DISCARD, value);
+        }
+    }
+}
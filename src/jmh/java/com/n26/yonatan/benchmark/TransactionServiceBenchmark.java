@@ -0,0 +1,156 @@
+package com.n26.yonatan.benchmark;
+
+import com.n26.yonatan.Main;
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.service.TransactionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the hot paths of the {@link TransactionService}, running within a full spring context
+ * (real repositories on the embedded H2 DB, or the in-memory graph).
+ * <br>
+ * Run using <code>gradle jmh</code>. Arguments are passed to JMH using <code>-PjmhArgs="..."</code>, e.g.
+ * <code>-PjmhArgs="sum -p shape=CHAIN -p size=1000000 -p storage=memory -prof gc"</code>.
+ * <br>
+ * Note that in the <code>jpa</code> storage (with the closure encoding) every transaction writes a descendants row per
+ * ancestor, so the <code>CHAIN</code> shape writes about size * chainDepth / 2 rows. The chain depth is therefore a
+ * separate parameter, which defaults to 100 in the <code>jpa</code> storage (5M rows for 100k transactions, where a
+ * depth of 1000 would be 50M) and to 1000 in the <code>memory</code> storage. The default grid stops at 100k
+ * transactions - sizes of millions are only practical with the <code>memory</code> storage, and are run explicitly,
+ * e.g. <code>-p size=10000000 -p storage=memory</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionServiceBenchmark {
+    private static final int TYPES = 16;
+    private static final int LOAD_BATCH_SIZE = 5000;
+    private static final int JPA_CHAIN_DEPTH = 100;
+    private static final int MEMORY_CHAIN_DEPTH = 1000;
+
+    @Param({"CHAIN", "STAR", "FOREST"})
+    TreeShape shape;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    /**
+     * 0 uses the default depth of the storage
+     */
+    @Param({"0"})
+    int chainDepth;
+
+    @Param({"jpa", "memory"})
+    String storage;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private AtomicLong nextId;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(Main.class)
+                .web(false)
+                .properties("transactionservice.storage=" + storage,
+                        "transactionservice.batch.max-size=" + LOAD_BATCH_SIZE,
+                        "logging.level.com.n26=WARN",
+                        "spring.jpa.show-sql=false")
+                .run();
+        transactionService = context.getBean(TransactionService.class);
+
+        int depth = chainDepth > 0 ? chainDepth : "jpa".equals(storage) ? JPA_CHAIN_DEPTH : MEMORY_CHAIN_DEPTH;
+        Random random = new Random(size);
+        List<BatchTransaction> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+        for (long id = 0; id < size; id++) {
+            BatchTransaction t = new BatchTransaction();
+            t.setId(id);
+            t.setAmount(random.nextInt(10000) / 100.0);
+            t.setType(type(id));
+            t.setParentId(shape.parentOf(id, depth, random));
+            batch.add(t);
+            if (batch.size() == LOAD_BATCH_SIZE) {
+                transactionService.createTransactions(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            transactionService.createTransactions(batch);
+        }
+        nextId = new AtomicLong(size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Adds a transaction under a random transaction of the initial tree
+     */
+    @Benchmark
+    public long createTransaction() {
+        long id = nextId.getAndIncrement();
+        Transaction t = new Transaction();
+        t.setAmount(1);
+        t.setType(type(id));
+        t.setParentId(randomId());
+        transactionService.createTransaction(id, t);
+        return id;
+    }
+
+    @Benchmark
+    public Transaction findTransaction() {
+        return transactionService.findTransaction(randomId());
+    }
+
+    @Benchmark
+    public List<Long> getTransactionIdsByType() {
+        return transactionService.getTransactionIdsByType(type(randomId()));
+    }
+
+    /**
+     * Sums the entire tree of the first root - the worst case for every shape
+     */
+    @Benchmark
+    public Sum sumRoot() {
+        return transactionService.sumTransactions(0);
+    }
+
+    @Benchmark
+    public Sum sumRandom() {
+        return transactionService.sumTransactions(randomId());
+    }
+
+    private long randomId() {
+        return ThreadLocalRandom.current().nextLong(size);
+    }
+
+    private static String type(long id) {
+        return "type" + (id % TYPES);
+    }
+}
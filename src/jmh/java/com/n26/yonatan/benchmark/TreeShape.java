@@ -0,0 +1,48 @@
+package com.n26.yonatan.benchmark;
+
+import java.util.Random;
+
+/**
+ * Shapes of the transaction trees used by the benchmarks.
+ * Transaction ids are 0..size-1, and every parent id is smaller than its children ids.
+ */
+public enum TreeShape {
+    /**
+     * Deep chains - every transaction is the parent of the next one, and every chain is chainDepth long
+     */
+    CHAIN {
+        @Override
+        public Long parentOf(long id, int chainDepth, Random random) {
+            return id % chainDepth == 0 ? null : id - 1;
+        }
+    },
+    /**
+     * A single root, with all other transactions as its direct children
+     */
+    STAR {
+        @Override
+        public Long parentOf(long id, int chainDepth, Random random) {
+            return id == 0 ? null : 0L;
+        }
+    },
+    /**
+     * Random recursive trees - each transaction picks a uniformly random earlier transaction as its parent,
+     * and 1% of them are roots. Depth grows logarithmically with the size.
+     */
+    FOREST {
+        @Override
+        public Long parentOf(long id, int chainDepth, Random random) {
+            return id == 0 || random.nextInt(100) == 0 ? null : (long) random.nextInt((int) id);
+        }
+    };
+
+    /**
+     * Returns the parent of the transaction with the id, or null for a root
+     *
+     * @param id
+     * @param chainDepth the length of the chains, for the {@link #CHAIN} shape
+     * @param random
+     * @return
+     */
+    public abstract Long parentOf(long id, int chainDepth, Random random);
+}
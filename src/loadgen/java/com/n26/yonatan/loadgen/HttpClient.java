@@ -0,0 +1,59 @@
+package com.n26.yonatan.loadgen;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal blocking HTTP client, over the keep-alive connections of {@link HttpURLConnection}.
+ * The responses are read fully, so the connections are reused.
+ */
+class HttpClient {
+    private final String baseUrl;
+    private final int timeoutMillis;
+
+    HttpClient(String baseUrl, int timeoutMillis) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sends a request
+     *
+     * @param method
+     * @param path   relative to the base URL, e.g. <code>/transactionservice/sum/1</code>
+     * @param body   the JSON body, or null
+     * @return the response status
+     * @throws IOException if the request failed without a response
+     */
+    int send(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestProperty("Accept", "application/json");
+        if (body != null) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(bytes.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(bytes);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (InputStream response = in) {
+                byte[] buffer = new byte[8192];
+                while (response.read(buffer) != -1) {
+                    // drain, so the connection is returned to the keep-alive cache
+                }
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,43 @@
+package com.n26.yonatan.loadgen;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An append-only list of ids, sampled by concurrent readers without locking
+ */
+class IdLog {
+    private volatile long[] ids = new long[1024];
+    private volatile int size;
+
+    synchronized void add(long id) {
+        long[] current = ids;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, current.length << 1);
+            ids = current;
+        }
+        current[size] = id;
+        // published by the volatile write - a reader which sees the size sees the ids below it
+        size = size + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a uniformly random id, or -1 if the list is empty
+     */
+    long random(Random random) {
+        int n = size;
+        return n == 0 ? -1 : ids[random.nextInt(n)];
+    }
+
+    /**
+     * Returns the last id, or -1 if the list is empty
+     */
+    long last() {
+        int n = size;
+        return n == 0 ? -1 : ids[n - 1];
+    }
+}
@@ -0,0 +1,327 @@
+package com.n26.yonatan.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the REST endpoints of a running service with a synthetic workload, and reports the throughput and the
+ * latency percentiles of each endpoint. Run with <code>gradle loadgen -PloadgenArgs="..."</code>, see
+ * {@link LoadOptions#USAGE} for the options.
+ * <br>
+ * In the default, open loop, mode requests are scheduled at a fixed rate regardless of how fast the service
+ * responds, and their latency is measured from the time they were scheduled - a stalled service delays the
+ * requests behind it, and the delay shows in the percentiles instead of being omitted. With <code>--rate=0</code>
+ * each of the <code>--concurrency</code> threads sends its next request as soon as the previous one completes,
+ * which measures the maximal throughput, but hides the stalls.
+ * <br>
+ * New transactions are attached to the transactions already created, in the chosen tree shape, so the parents
+ * always exist. Reads pick uniformly among the created transactions.
+ */
+public class LoadGenerator {
+    private static final String BASE = "/transactionservice";
+
+    private final LoadOptions options;
+    private final HttpClient client;
+    private final TreeShape.Trees trees;
+    private final AtomicLong nextId;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final PrintStream out;
+
+    private volatile boolean measuring;
+
+    LoadGenerator(LoadOptions options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+        client = new HttpClient(options.url, options.timeoutMillis);
+        trees = new TreeShape.Trees(options.chainDepth, options.roots);
+        nextId = new AtomicLong(options.firstId);
+        operations = options.mix.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += options.mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+        // one keep-alive connection per in-flight request
+        System.setProperty("http.maxConnections", String.valueOf(options.concurrency));
+        new LoadGenerator(options, System.out).run();
+    }
+
+    void run() throws Exception {
+        out.printf("Load %s: %s, %s, %s trees%n", options.url,
+                options.rate == 0 ? "closed loop" : options.rate + " requests/s open loop",
+                options.concurrency + " in flight", options.shape.name().toLowerCase());
+        preload();
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(options.warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(options.duration);
+        Thread reporter = new Thread(() -> report(measureStart, end), "loadgen-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        if (options.rate == 0) {
+            runClosedLoop(end);
+        } else {
+            runOpenLoop(start, end);
+        }
+        reporter.interrupt();
+        reporter.join();
+        for (OperationStats operationStats : stats.values()) {
+            operationStats.interval(measuring);
+        }
+        printSummary(System.nanoTime() - measureStart);
+    }
+
+    /**
+     * Sends a request every <code>1/rate</code> seconds, from a single scheduling thread. The requests are queued
+     * to the workers, so a slow response delays the requests behind it, but not their schedule.
+     */
+    private void runOpenLoop(long start, long end) throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(options.concurrency,
+                daemonThreads("loadgen-worker"));
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / options.rate;
+        for (long i = 0; ; i++) {
+            long intendedStart = start + i * periodNanos;
+            if (intendedStart >= end) {
+                break;
+            }
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            executor.execute(() -> execute(intendedStart));
+        }
+        int backlog = executor.getQueue().size();
+        // more than 100ms of requests
+        if (backlog > options.rate / 10) {
+            out.printf("%d requests were still queued at the end of the run - the service did not keep up%n",
+                    backlog);
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * Each worker sends its next request as soon as the previous one completes
+     */
+    private void runClosedLoop(long end) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.concurrency, daemonThreads("loadgen-worker"));
+        for (int i = 0; i < options.concurrency; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < end) {
+                    execute(System.nanoTime());
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private void execute(long intendedStart) {
+        Random random = ThreadLocalRandom.current();
+        Operation operation = nextOperation(random);
+        // reads need transactions to read
+        if (operation != Operation.PUT && trees.created.size() == 0) {
+            operation = Operation.PUT;
+        }
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = send(operation, random);
+        } catch (IOException e) {
+            ok = false;
+        }
+        stats.get(operation).record(intendedStart, start, System.nanoTime(), ok);
+    }
+
+    private Operation nextOperation(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private boolean send(Operation operation, Random random) throws IOException {
+        switch (operation) {
+            case PUT:
+                long id = nextId.getAndIncrement();
+                long parentId = options.shape.parentOf(id - options.firstId, trees, random);
+                boolean created = client.send("PUT", BASE + "/transaction/" + id,
+                        transactionJson(random, parentId)) == 200;
+                if (created) {
+                    trees.created(id, parentId);
+                }
+                return created;
+            case GET:
+                return client.send("GET", BASE + "/transaction/" + trees.created.random(random), null) == 200;
+            case SUM:
+                return client.send("GET", BASE + "/sum/" + trees.created.random(random), null) == 200;
+            case TYPES:
+                String path = BASE + "/types/" + type(random);
+                if (options.typesLimit > 0) {
+                    path += "?limit=" + options.typesLimit;
+                }
+                return client.send("GET", path, null) == 200;
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    private String type(Random random) {
+        return "load_" + random.nextInt(options.types);
+    }
+
+    private String transactionJson(Random random, long parentId) {
+        StringBuilder json = new StringBuilder(64)
+                .append("{\"amount\":").append(random.nextInt(100000) / 100.0)
+                .append(",\"type\":\"").append(type(random)).append('"');
+        if (parentId != -1) {
+            json.append(",\"parent_id\":").append(parentId);
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Creates the first transactions, in batches, so the reads have transactions to read from the start
+     */
+    private void preload() throws IOException {
+        if (options.preload == 0) {
+            return;
+        }
+        Random random = new Random();
+        long start = System.nanoTime();
+        int created = 0;
+        while (created < options.preload) {
+            int size = Math.min(options.preloadBatch, options.preload - created);
+            long[] ids = new long[size];
+            String[] jsons = new String[size];
+            StringBuilder batch = new StringBuilder("{\"transactions\":[");
+            for (int i = 0; i < size; i++) {
+                ids[i] = nextId.getAndIncrement();
+                // the parents of a batch are created with it, or before it
+                long parentId = options.shape.parentOf(ids[i] - options.firstId, trees, random);
+                trees.created(ids[i], parentId);
+                jsons[i] = transactionJson(random, parentId);
+                batch.append(i == 0 ? "" : ",").append("{\"id\":").append(ids[i]).append(',')
+                        .append(jsons[i], 1, jsons[i].length());
+            }
+            int status = size == 1
+                    ? client.send("PUT", BASE + "/transaction/" + ids[0], jsons[0])
+                    : client.send("PUT", BASE + "/transactions", batch.append("]}").toString());
+            if (status != 200) {
+                throw new IOException("Preloading failed with status " + status
+                        + " - is the service empty, and are batches supported?");
+            }
+            created += size;
+        }
+        out.printf("Preloaded %d transactions in %d ms%n", created,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Prints the progress every report interval, and starts measuring at the end of the warmup
+     */
+    private void report(long measureStart, long end) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(options.reportInterval);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long next = now + intervalNanos;
+                boolean warmupEnds = !measuring && measureStart <= next;
+                if (warmupEnds) {
+                    next = measureStart;
+                }
+                next = Math.min(next, end);
+                TimeUnit.NANOSECONDS.sleep(next - now);
+                long intervalTotal = 0;
+                StringBuilder line = new StringBuilder(measuring ? "" : "[warmup] ");
+                for (Operation operation : Operation.values()) {
+                    Histogram interval = stats.get(operation).interval(measuring);
+                    intervalTotal += interval.getTotalCount();
+                    if (interval.getTotalCount() > 0) {
+                        line.append(String.format(Locale.ROOT, "%s p99 %.2f ms  ", operation.name().toLowerCase(),
+                                interval.getValueAtPercentile(99) / 1000.0));
+                    }
+                }
+                out.printf(Locale.ROOT, "%.0f requests/s  %s%n",
+                        intervalTotal * 1e9 / (System.nanoTime() - now), line);
+                if (warmupEnds) {
+                    measuring = true;
+                }
+                if (next == end) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        out.println();
+        out.printf(Locale.ROOT, "%-22s %9s %7s %9s %9s %9s %9s %9s %9s %11s%n", "endpoint", "requests", "errors",
+                "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            OperationStats operationStats = stats.get(operation);
+            Histogram response = operationStats.responseTotal;
+            if (response.getTotalCount() == 0) {
+                continue;
+            }
+            total += response.getTotalCount();
+            out.printf(Locale.ROOT, "%-22s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %11.2f%n", operation.endpoint,
+                    response.getTotalCount(), operationStats.errorsTotal, response.getTotalCount() / seconds,
+                    millis(response, 50), millis(response, 90), millis(response, 99), millis(response, 99.9),
+                    response.getMaxValue() / 1000.0, millis(operationStats.serviceTotal, 99));
+        }
+        out.printf(Locale.ROOT, "%-22s %9d %7s %9.1f%n", "total", total, "", total / seconds);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
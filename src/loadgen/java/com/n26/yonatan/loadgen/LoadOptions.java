@@ -0,0 +1,120 @@
+package com.n26.yonatan.loadgen;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The options of the load generator, given as <code>--name=value</code> arguments
+ */
+class LoadOptions {
+    static final String USAGE = String.join("\n",
+            "Options (all optional):",
+            "  --url=http://localhost:8080   the base URL of the service",
+            "  --duration=60                 seconds to measure, after the warmup",
+            "  --warmup=10                   seconds to run before measuring",
+            "  --rate=1000                   requests per second, scheduled open loop; 0 runs closed loop",
+            "  --concurrency=64              requests in flight",
+            "  --mix=put:40,get:30,sum:25,types:5",
+            "                                the relative weights of the operations",
+            "  --shape=power_law             the shape of the trees - chain, star or power_law",
+            "  --chain-depth=1000            transactions per chain, for the chain shape",
+            "  --roots=10                    roots, for the star shape",
+            "  --types=16                    distinct transaction types",
+            "  --types-limit=100             the page size of GET /types; 0 reads all the ids",
+            "  --preload=10000               transactions to create before the warmup",
+            "  --preload-batch=1000          transactions per PUT /transactions when preloading; 1 for single PUTs",
+            "  --first-id=<time based>       the first transaction id, so runs do not conflict",
+            "  --timeout-ms=10000            the connect and read timeouts",
+            "  --report-interval=5           seconds between progress reports");
+
+    private static final Set<String> KNOWN = new HashSet<>(Arrays.asList(
+            "url", "duration", "warmup", "rate", "concurrency", "mix", "shape", "chain-depth", "roots", "types",
+            "types-limit", "preload", "preload-batch", "first-id", "timeout-ms", "report-interval"));
+
+    String url = "http://localhost:8080";
+    int duration = 60;
+    int warmup = 10;
+    int rate = 1000;
+    int concurrency = 64;
+    Map<Operation, Integer> mix = parseMix("put:40,get:30,sum:25,types:5");
+    TreeShape shape = TreeShape.POWER_LAW;
+    int chainDepth = 1000;
+    int roots = 10;
+    int types = 16;
+    int typesLimit = 100;
+    int preload = 10000;
+    int preloadBatch = 1000;
+    long firstId = System.currentTimeMillis() * 1000;
+    int timeoutMillis = 10000;
+    int reportInterval = 5;
+
+    static LoadOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid argument " + arg);
+            }
+            values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        LoadOptions options = new LoadOptions();
+        options.url = values.getOrDefault("url", options.url);
+        options.duration = intValue(values, "duration", options.duration);
+        options.warmup = intValue(values, "warmup", options.warmup);
+        options.rate = intValue(values, "rate", options.rate);
+        options.concurrency = intValue(values, "concurrency", options.concurrency);
+        if (values.containsKey("mix")) {
+            options.mix = parseMix(values.get("mix"));
+        }
+        if (values.containsKey("shape")) {
+            options.shape = TreeShape.valueOf(values.get("shape").toUpperCase());
+        }
+        options.chainDepth = intValue(values, "chain-depth", options.chainDepth);
+        options.roots = intValue(values, "roots", options.roots);
+        options.types = intValue(values, "types", options.types);
+        options.typesLimit = intValue(values, "types-limit", options.typesLimit);
+        options.preload = intValue(values, "preload", options.preload);
+        options.preloadBatch = intValue(values, "preload-batch", options.preloadBatch);
+        if (values.containsKey("first-id")) {
+            options.firstId = Long.parseLong(values.get("first-id"));
+        }
+        options.timeoutMillis = intValue(values, "timeout-ms", options.timeoutMillis);
+        options.reportInterval = intValue(values, "report-interval", options.reportInterval);
+        values.keySet().removeAll(KNOWN);
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + values.keySet());
+        }
+        if (options.concurrency < 1 || options.duration < 1 || options.rate < 0 || options.chainDepth < 1
+                || options.roots < 1 || options.types < 1 || options.preloadBatch < 1 || options.reportInterval < 1) {
+            throw new IllegalArgumentException("Invalid option values");
+        }
+        return options;
+    }
+
+    private static int intValue(Map<String, String> values, String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight " + entry);
+            }
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("The mix has no weights");
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,17 @@
+package com.n26.yonatan.loadgen;
+
+/**
+ * The operations of the workload, one per endpoint
+ */
+enum Operation {
+    PUT("PUT /transaction/{id}"),
+    GET("GET /transaction/{id}"),
+    TYPES("GET /types/{type}"),
+    SUM("GET /sum/{id}");
+
+    final String endpoint;
+
+    Operation(String endpoint) {
+        this.endpoint = endpoint;
+    }
+}
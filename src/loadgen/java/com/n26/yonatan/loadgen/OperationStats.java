@@ -0,0 +1,64 @@
+package com.n26.yonatan.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and errors of a single operation.
+ * <br>
+ * Two histograms are recorded, in microseconds - the response time, from the time the request was scheduled to
+ * start, and the service time, from the time it was actually sent. In an open loop run, a request which waits for
+ * a slow one to complete is late, and the wait is part of its response time - the response time is corrected for
+ * coordinated omission. In a closed loop run both are the same.
+ */
+class OperationStats {
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Recorder responseRecorder = new Recorder(MAX_MICROS, 3);
+    private final Recorder serviceRecorder = new Recorder(MAX_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+
+    final Histogram responseTotal = new Histogram(MAX_MICROS, 3);
+    final Histogram serviceTotal = new Histogram(MAX_MICROS, 3);
+    long errorsTotal;
+
+    private Histogram responseInterval;
+    private Histogram serviceInterval;
+
+    /**
+     * Records a completed request
+     *
+     * @param intendedStartNanos the {@link System#nanoTime()} the request was scheduled to start
+     * @param startNanos         the {@link System#nanoTime()} the request was sent
+     * @param endNanos           the {@link System#nanoTime()} the response was read
+     * @param ok                 whether the response was the expected one
+     */
+    void record(long intendedStartNanos, long startNanos, long endNanos, boolean ok) {
+        responseRecorder.recordValue(Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(endNanos - intendedStartNanos)));
+        serviceRecorder.recordValue(Math.min(MAX_MICROS, TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos)));
+        if (!ok) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Takes the requests recorded since the previous interval
+     *
+     * @param measured whether to add them to the totals, or to discard them (during the warmup)
+     * @return the response time histogram of the interval
+     */
+    Histogram interval(boolean measured) {
+        responseInterval = responseRecorder.getIntervalHistogram(responseInterval);
+        serviceInterval = serviceRecorder.getIntervalHistogram(serviceInterval);
+        long intervalErrors = errors.sumThenReset();
+        if (measured) {
+            responseTotal.add(responseInterval);
+            serviceTotal.add(serviceInterval);
+            errorsTotal += intervalErrors;
+        }
+        return responseInterval;
+    }
+}
@@ -0,0 +1,72 @@
+package com.n26.yonatan.loadgen;
+
+import java.util.Random;
+
+/**
+ * Shapes of the transaction trees created by the load generator. Parents are picked among the transactions
+ * which were already created, so a new transaction never waits for its parent.
+ */
+enum TreeShape {
+    /**
+     * Deep chains - every transaction is the child of the last created one, and a new chain is started every
+     * <code>chain-depth</code> transactions
+     */
+    CHAIN {
+        @Override
+        long parentOf(long id, Trees trees, Random random) {
+            return id % trees.chainDepth == 0 ? -1 : trees.created.last();
+        }
+    },
+    /**
+     * Wide stars - every transaction is a direct child of one of <code>roots</code> roots
+     */
+    STAR {
+        @Override
+        long parentOf(long id, Trees trees, Random random) {
+            return trees.roots.size() < trees.rootCount ? -1 : trees.roots.random(random);
+        }
+    },
+    /**
+     * Power-law forests, grown by preferential attachment - a transaction picks its parent with a probability
+     * proportional to the number of children the parent already has (plus one), so a few hubs get most of
+     * the children and the degrees follow a power-law. 1% of the transactions are new roots.
+     */
+    POWER_LAW {
+        @Override
+        long parentOf(long id, Trees trees, Random random) {
+            return trees.created.size() == 0 || random.nextInt(100) == 0 ? -1 : trees.attachments.random(random);
+        }
+    };
+
+    /**
+     * Returns the parent of the new transaction, or -1 for a root
+     */
+    abstract long parentOf(long id, Trees trees, Random random);
+
+    /**
+     * The transactions created so far
+     */
+    static class Trees {
+        final int chainDepth;
+        final int rootCount;
+        final IdLog created = new IdLog();
+        final IdLog roots = new IdLog();
+        // each transaction once, and each parent once more per child - a uniform sample is a preferential one
+        final IdLog attachments = new IdLog();
+
+        Trees(int chainDepth, int rootCount) {
+            this.chainDepth = chainDepth;
+            this.rootCount = rootCount;
+        }
+
+        void created(long id, long parentId) {
+            created.add(id);
+            attachments.add(id);
+            if (parentId == -1) {
+                roots.add(id);
+            } else {
+                attachments.add(parentId);
+            }
+        }
+    }
+}
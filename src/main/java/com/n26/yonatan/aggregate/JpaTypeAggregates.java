@@ -0,0 +1,72 @@
+package com.n26.yonatan.aggregate;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.repository.TransactionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * The running aggregates of each type, used by the jpa storage. Loaded from the DB on startup, with a single
+ * grouped scan, and then updated by the service as new transactions are committed.
+ * <br>
+ * Only the inserts of this node update the aggregates. When several nodes share the DB, the inserts of the other
+ * nodes are seen only once the aggregates are reloaded.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage", havingValue = "jpa", matchIfMissing = true)
+@Slf4j
+public class JpaTypeAggregates {
+    private final TransactionRepository transactionRepository;
+    private final TypeAggregates aggregates;
+
+    @Autowired
+    public JpaTypeAggregates(TransactionRepository transactionRepository, AmountScale amountScale) {
+        this.transactionRepository = transactionRepository;
+        this.aggregates = new TypeAggregates(amountScale);
+    }
+
+    /**
+     * Reloads the aggregates from the DB. Inserts committed concurrently may be counted twice, or not at all
+     */
+    @PostConstruct
+    public synchronized void reload() {
+        aggregates.clear();
+        int types = 0;
+        for (Object[] row : transactionRepository.aggregateByType()) {
+            String type = (String) row[0];
+            long sum = 0;
+            try {
+                sum = AmountScale.toLongExact((Number) row[2]);
+            } catch (ArithmeticException e) {
+                aggregates.overflow(type);
+            }
+            aggregates.add(type, ((Number) row[1]).longValue(), sum, ((Number) row[3]).longValue(),
+                    ((Number) row[4]).longValue());
+            types++;
+        }
+        log.info("Loaded the aggregates of {} types", types);
+    }
+
+    /**
+     * Adds the amount of a committed transaction
+     *
+     * @param type
+     * @param amount in units
+     */
+    public void add(String type, long amount) {
+        aggregates.add(type, amount);
+    }
+
+    public TypeStats stats(String type) {
+        return aggregates.stats(type);
+    }
+
+    public long count(String type) {
+        return aggregates.count(type);
+    }
+}
@@ -0,0 +1,143 @@
+package com.n26.yonatan.aggregate;
+
+import com.n26.yonatan.dto.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Statistics of the amounts of the transactions of the last <code>window-seconds</code> (60 by default), by their
+ * timestamps - or by the time they were created, if they have none.
+ * <br>
+ * The window is a ring of per-second buckets, indexed by the second modulo the window size. Each bucket is an
+ * immutable summary (the second it belongs to, count, sum, min and max), replaced using compare-and-set - a
+ * bucket of an older second is reset by the first transaction of the new second that maps to it. Both recording
+ * and reading are lock-free and take constant time and memory, regardless of the number of transactions.
+ * <br>
+ * Transactions older than the window, or with a timestamp in the future, are not counted.
+ */
+@Component
+public class TransactionStatistics {
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private final int windowSeconds;
+    private final LongSupplier clock;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    @Autowired
+    public TransactionStatistics(@Value("${transactionservice.statistics.window-seconds:60}") int windowSeconds) {
+        this(windowSeconds, System::currentTimeMillis);
+    }
+
+    TransactionStatistics(int windowSeconds, LongSupplier clock) {
+        if (windowSeconds < 1) {
+            throw new IllegalArgumentException("Invalid statistics window " + windowSeconds);
+        }
+        this.windowSeconds = windowSeconds;
+        this.clock = clock;
+        buckets = new AtomicReferenceArray<>(windowSeconds);
+        for (int i = 0; i < windowSeconds; i++) {
+            buckets.set(i, Bucket.EMPTY);
+        }
+    }
+
+    /**
+     * Records a new transaction
+     *
+     * @param amount
+     * @param timestamp the epoch millis of the transaction, or null for now
+     * @return whether the transaction is within the window
+     */
+    public boolean record(double amount, Long timestamp) {
+        long nowSecond = Math.floorDiv(clock.getAsLong(), MILLIS_PER_SECOND);
+        long second = timestamp == null ? nowSecond : Math.floorDiv(timestamp, MILLIS_PER_SECOND);
+        if (second > nowSecond || second <= nowSecond - windowSeconds) {
+            return false;
+        }
+        int index = (int) Math.floorMod(second, (long) windowSeconds);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            Bucket updated;
+            if (bucket.second == second) {
+                updated = new Bucket(second, bucket.count + 1, bucket.sum + amount, Math.min(bucket.min, amount),
+                        Math.max(bucket.max, amount));
+            } else if (bucket.second < second) {
+                updated = new Bucket(second, 1, amount, amount, amount);
+            } else {
+                // the bucket was already reset by a later second - the transaction has just left the window
+                return false;
+            }
+            if (buckets.compareAndSet(index, bucket, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the transactions within the window, in O(window)
+     *
+     * @return
+     */
+    public Statistics statistics() {
+        long nowSecond = Math.floorDiv(clock.getAsLong(), MILLIS_PER_SECOND);
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < windowSeconds; i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.second <= nowSecond && bucket.second > nowSecond - windowSeconds) {
+                count += bucket.count;
+                sum += bucket.sum;
+                min = Math.min(min, bucket.min);
+                max = Math.max(max, bucket.max);
+            }
+        }
+        if (count == 0) {
+            return new Statistics(0, null, null, null, 0);
+        }
+        return new Statistics(sum, sum / count, max, min, count);
+    }
+
+    /**
+     * Merges the statistics of disjoint sets of transactions
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public static Statistics merge(Statistics a, Statistics b) {
+        if (a.getCount() == 0) {
+            return b;
+        }
+        if (b.getCount() == 0) {
+            return a;
+        }
+        long count = a.getCount() + b.getCount();
+        double sum = a.getSum() + b.getSum();
+        return new Statistics(sum, sum / count, Math.max(a.getMax(), b.getMax()), Math.min(a.getMin(), b.getMin()),
+                count);
+    }
+
+    private static final class Bucket {
+        static final Bucket EMPTY = new Bucket(Long.MIN_VALUE, 0, 0, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY);
+
+        final long second;
+        final long count;
+        final double sum;
+        final double min;
+        final double max;
+
+        Bucket(long second, long count, double sum, double min, double max) {
+            this.second = second;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+    }
+}
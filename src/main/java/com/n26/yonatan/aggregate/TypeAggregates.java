@@ -0,0 +1,146 @@
+package com.n26.yonatan.aggregate;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.amount.ExactAdder;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.ServerErrorException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running aggregates of the amounts of each type - count, sum, min and max - updated as transactions are created,
+ * so the statistics of a type are read in O(1) instead of scanning its transactions.
+ * <br>
+ * The amounts are aggregated as fixed-point units (see {@link AmountScale}), so the sums are exact - a sum which
+ * overflows a long fails the statistics of its type, instead of wrapping.
+ * <br>
+ * Each aggregate is a striped accumulator, so concurrent inserts of the same type do not contend on a single
+ * value. The aggregates of a type are updated independently - a read concurrent with inserts may see an insert
+ * in some of them only, but every completed insert is seen in all of them.
+ */
+public class TypeAggregates {
+
+    private final ConcurrentMap<String, Aggregate> aggregates = new ConcurrentHashMap<>();
+    private final AmountScale amountScale;
+
+    public TypeAggregates(AmountScale amountScale) {
+        this.amountScale = amountScale;
+    }
+
+    /**
+     * Adds the amount of a new transaction
+     *
+     * @param type
+     * @param amount in units
+     */
+    public void add(String type, long amount) {
+        Aggregate aggregate = aggregate(type);
+        // counted last, so a counted transaction is already within the min and max
+        aggregate.sum.add(amount);
+        aggregate.min.accumulate(amount);
+        aggregate.max.accumulate(amount);
+        aggregate.count.increment();
+    }
+
+    /**
+     * Adds the aggregates of existing transactions, e.g. as loaded from the DB
+     *
+     * @param type
+     * @param count
+     * @param sum   in units
+     * @param min   in units
+     * @param max   in units
+     */
+    public void add(String type, long count, long sum, long min, long max) {
+        Aggregate aggregate = aggregate(type);
+        aggregate.sum.add(sum);
+        aggregate.min.accumulate(min);
+        aggregate.max.accumulate(max);
+        aggregate.count.add(count);
+    }
+
+    /**
+     * Marks the sum of the type as overflowed, e.g. when the DB could not return it as a long
+     *
+     * @param type
+     */
+    public void overflow(String type) {
+        aggregate(type).sum.overflow();
+    }
+
+    private Aggregate aggregate(String type) {
+        // get first, as computeIfAbsent locks even when the aggregate exists
+        Aggregate aggregate = aggregates.get(type);
+        if (aggregate == null) {
+            aggregate = aggregates.computeIfAbsent(type, t -> new Aggregate());
+        }
+        return aggregate;
+    }
+
+    /**
+     * Returns the statistics of the type, in O(1)
+     *
+     * @param type
+     * @return
+     */
+    public TypeStats stats(String type) {
+        Aggregate aggregate = aggregates.get(type);
+        long count = aggregate == null ? 0 : aggregate.count.sum();
+        if (count == 0) {
+            return new TypeStats(0, 0, null, null, null);
+        }
+        double sum;
+        try {
+            sum = amountScale.toAmount(aggregate.sum.sum());
+        } catch (ArithmeticException e) {
+            throw new ServerErrorException("sum overflow");
+        }
+        return new TypeStats(count, sum, amountScale.toAmount(aggregate.min.get()),
+                amountScale.toAmount(aggregate.max.get()), sum / count);
+    }
+
+    /**
+     * Counts the transactions of the type, in O(1). Unlike the stats, not affected by an overflowed sum
+     *
+     * @param type
+     * @return
+     */
+    public long count(String type) {
+        Aggregate aggregate = aggregates.get(type);
+        return aggregate == null ? 0 : aggregate.count.sum();
+    }
+
+    public void clear() {
+        aggregates.clear();
+    }
+
+    /**
+     * Merges the statistics of disjoint sets of transactions of the same type
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public static TypeStats merge(TypeStats a, TypeStats b) {
+        if (a.getCount() == 0) {
+            return b;
+        }
+        if (b.getCount() == 0) {
+            return a;
+        }
+        long count = a.getCount() + b.getCount();
+        double sum = a.getSum() + b.getSum();
+        return new TypeStats(count, sum, Math.min(a.getMin(), b.getMin()), Math.max(a.getMax(), b.getMax()),
+                sum / count);
+    }
+
+    private static class Aggregate {
+        final LongAdder count = new LongAdder();
+        final ExactAdder sum = new ExactAdder();
+        final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+}
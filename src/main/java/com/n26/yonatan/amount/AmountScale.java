@@ -0,0 +1,105 @@
+package com.n26.yonatan.amount;
+
+import com.n26.yonatan.exception.BadRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Converts amounts to and from fixed-point units - integer multiples of <code>10^-scale</code> (the scale is 4 by
+ * default, i.e. units of 0.0001). The amounts are stored and summed as units, so sums are exact and do not depend
+ * on the order of the additions, and are converted back to doubles only when returned.
+ * <br>
+ * Amounts are rounded to the nearest unit when converted, so amounts with more decimal places than the scale lose
+ * them. Any amount whose units fit in a long is accepted - at least {@link #MAX_AMOUNT_RANGE} at every allowed scale
+ * (about 9.2 * 10^14 at the default scale). Sums of units detect overflow instead of wrapping (see
+ * {@link ExactAdder}).
+ */
+@Component
+public class AmountScale {
+    public static final int DEFAULT_SCALE = 4;
+    /**
+     * The magnitude of the amounts every allowed scale accepts
+     */
+    public static final double MAX_AMOUNT_RANGE = 1e10;
+    /**
+     * The largest scale whose units still hold {@link #MAX_AMOUNT_RANGE}
+     */
+    public static final int MAX_SCALE = 8;
+
+    private final int scale;
+    private final long unitsPerAmount;
+    private final double maxAmount;
+
+    @Autowired
+    public AmountScale(@Value("${transactionservice.amount.scale:" + DEFAULT_SCALE + "}") int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Invalid amount scale " + scale + ", must be 0 to " + MAX_SCALE
+                    + " so amounts up to " + MAX_AMOUNT_RANGE + " are accepted");
+        }
+        this.scale = scale;
+        long unitsPerAmount = 1;
+        for (int i = 0; i < scale; i++) {
+            unitsPerAmount *= 10;
+        }
+        this.unitsPerAmount = unitsPerAmount;
+        this.maxAmount = (double) Long.MAX_VALUE / unitsPerAmount;
+    }
+
+    public AmountScale() {
+        this(DEFAULT_SCALE);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Returns whether the amount can be converted to units - it is a number, small enough for its units to fit in
+     * a long
+     *
+     * @param amount
+     * @return
+     */
+    public boolean isValid(double amount) {
+        return Math.abs(amount) <= maxAmount;
+    }
+
+    /**
+     * Converts an amount to units, rounding it to the nearest unit
+     *
+     * @param amount
+     * @return
+     * @throws BadRequestException if the amount is not valid
+     */
+    public long toUnits(double amount) {
+        if (!isValid(amount)) {
+            throw new BadRequestException("invalid amount");
+        }
+        return Math.round(amount * unitsPerAmount);
+    }
+
+    public double toAmount(long units) {
+        return units / (double) unitsPerAmount;
+    }
+
+    /**
+     * Returns a sum of units computed by the DB, which sums longs into a decimal
+     *
+     * @param sum
+     * @return
+     * @throws ArithmeticException if the sum does not fit in a long
+     */
+    public static long toLongExact(Number sum) {
+        if (sum instanceof BigDecimal) {
+            return ((BigDecimal) sum).longValueExact();
+        }
+        if (sum instanceof BigInteger) {
+            return ((BigInteger) sum).longValueExact();
+        }
+        return sum.longValue();
+    }
+}
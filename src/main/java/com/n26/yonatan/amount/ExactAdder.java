@@ -0,0 +1,63 @@
+package com.n26.yonatan.amount;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum of units which detects overflow instead of wrapping - like a {@link java.util.concurrent.atomic.LongAdder},
+ * the additions are striped over a few cells (by thread), so concurrent additions do not contend on a single value.
+ * <br>
+ * An addition which would overflow its cell marks the sum as overflowed, and so does a total of the cells which
+ * does not fit in a long - from then on {@link #sum()} throws, rather than return a wrapped sum.
+ */
+public class ExactAdder {
+    private static final int CELLS = cells(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(CELLS);
+    private volatile boolean overflowed;
+
+    private static int cells(int processors) {
+        return processors <= 1 ? 1 : Integer.highestOneBit(processors - 1) << 1;
+    }
+
+    /**
+     * @param units
+     */
+    public void add(long units) {
+        int cell = (int) Thread.currentThread().getId() & (CELLS - 1);
+        while (true) {
+            long value = cells.get(cell);
+            long sum = value + units;
+            if (((value ^ sum) & (units ^ sum)) < 0) {
+                overflowed = true;
+                return;
+            }
+            if (cells.compareAndSet(cell, value, sum)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the additions
+     *
+     * @return
+     * @throws ArithmeticException if the sum overflowed
+     */
+    public long sum() {
+        if (overflowed) {
+            throw new ArithmeticException("long overflow");
+        }
+        long sum = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            sum = Math.addExact(sum, cells.get(cell));
+        }
+        return sum;
+    }
+
+    /**
+     * Marks the sum as overflowed, e.g. when the additions were made elsewhere and overflowed there
+     */
+    public void overflow() {
+        overflowed = true;
+    }
+}
@@ -0,0 +1,153 @@
+package com.n26.yonatan.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.cache.CacheBuilder;
+import com.n26.yonatan.dto.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A size bounded, thread safe cache, with one of two eviction policies:
+ * <ul>
+ * <li><code>lru</code> - least recently used (per segment), backed by a guava cache</li>
+ * <li><code>tinylfu</code> - W-TinyLFU, backed by caffeine. A small LRU window admits new entries into the main
+ * space only if they are estimated to be more frequently used than the eviction victim. That keeps the hot keys
+ * cached while a scan of cold keys passes through</li>
+ * </ul>
+ * Hits, misses and evictions are counted.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public abstract class BoundedCache<K, V> {
+    public static final String LRU = "lru";
+    public static final String TINY_LFU = "tinylfu";
+
+    /**
+     * Creates a cache
+     *
+     * @param policy  either {@link #LRU} or {@link #TINY_LFU}
+     * @param maxSize the maximal number of entries
+     * @param <K>
+     * @param <V>
+     * @return
+     */
+    public static <K, V> BoundedCache<K, V> create(String policy, long maxSize) {
+        return create(policy, maxSize, 0);
+    }
+
+    /**
+     * Creates a cache whose entries expire a while after they were written
+     *
+     * @param policy                 either {@link #LRU} or {@link #TINY_LFU}
+     * @param maxSize                the maximal number of entries
+     * @param expireAfterWriteMillis the entries lifetime, or 0 if entries should not expire
+     * @param <K>
+     * @param <V>
+     * @return
+     */
+    public static <K, V> BoundedCache<K, V> create(String policy, long maxSize, long expireAfterWriteMillis) {
+        switch (policy) {
+            case LRU:
+                return new LruCache<>(maxSize, expireAfterWriteMillis);
+            case TINY_LFU:
+                return new TinyLfuCache<>(maxSize, expireAfterWriteMillis);
+            default:
+                throw new IllegalArgumentException("Unknown cache policy " + policy);
+        }
+    }
+
+    /**
+     * Returns the value cached for the key, or null if missing
+     *
+     * @param key
+     * @return
+     */
+    public abstract V getIfPresent(K key);
+
+    public abstract void put(K key, V value);
+
+    public abstract void invalidate(K key);
+
+    public abstract void invalidateAll();
+
+    public abstract CacheStats stats();
+
+    private static class LruCache<K, V> extends BoundedCache<K, V> {
+        private final com.google.common.cache.Cache<K, V> cache;
+
+        LruCache(long maxSize, long expireAfterWriteMillis) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats();
+            if (expireAfterWriteMillis > 0) {
+                builder.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS);
+            }
+            cache = builder.build();
+        }
+
+        @Override
+        public V getIfPresent(K key) {
+            return cache.getIfPresent(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public void invalidate(K key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void invalidateAll() {
+            cache.invalidateAll();
+        }
+
+        @Override
+        public CacheStats stats() {
+            com.google.common.cache.CacheStats stats = cache.stats();
+            return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.size());
+        }
+    }
+
+    private static class TinyLfuCache<K, V> extends BoundedCache<K, V> {
+        private final com.github.benmanes.caffeine.cache.Cache<K, V> cache;
+
+        TinyLfuCache(long maxSize, long expireAfterWriteMillis) {
+            // evict on the calling thread, so the size bound and the counters are exact when put returns
+            Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maxSize).recordStats()
+                    .executor(Runnable::run);
+            if (expireAfterWriteMillis > 0) {
+                builder.expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS);
+            }
+            cache = builder.build();
+        }
+
+        @Override
+        public V getIfPresent(K key) {
+            return cache.getIfPresent(key);
+        }
+
+        @Override
+        public void put(K key, V value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public void invalidate(K key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void invalidateAll() {
+            cache.invalidateAll();
+        }
+
+        @Override
+        public CacheStats stats() {
+            com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.stats();
+            return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.estimatedSize());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.dto.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache of the computed sums, used by the jpa storage.
+ * <br>
+ * Unlike the transactions, a sum changes whenever a descendant is added - so after a new transaction is committed,
+ * the sums of all its ancestors are invalidated. The rest of the cached sums are not affected.
+ * <br>
+ * A sum computed concurrently with an insert might have missed it, and must not be cached after the invalidation.
+ * Therefore, a sum is cached with the stamp of its id taken before it was computed, and is discarded if the id was
+ * invalidated since. The stamps are kept per stripe of ids rather than per id, so they take a fixed amount of
+ * memory - an insert only discards the concurrent sums of its ancestors, and of the few ids sharing their stripes.
+ * <br>
+ * Only the inserts of this node invalidate the cached sums. When several nodes share the DB, the staleness
+ * is bounded by expiring the sums (<code>transactionservice.cache.sum.expire-after-write-ms</code>).
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage", havingValue = "jpa", matchIfMissing = true)
+@Slf4j
+public class SumCache {
+    private final BoundedCache<Long, Double> cache;
+    private static final int STRIPES = 4096;
+
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    @Autowired
+    public SumCache(@Value("${transactionservice.cache.sum.policy:tinylfu}") String policy,
+                    @Value("${transactionservice.cache.sum.max-size:10000}") long maxSize,
+                    @Value("${transactionservice.cache.sum.expire-after-write-ms:0}") long expireAfterWriteMillis) {
+        log.info("Caching up to {} sums, using {} eviction", maxSize, policy);
+        cache = BoundedCache.create(policy, maxSize, expireAfterWriteMillis);
+    }
+
+    /**
+     * Returns the cached sum of the transaction, or null if not cached
+     *
+     * @param id
+     * @return
+     */
+    public Double get(long id) {
+        return cache.getIfPresent(id);
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #put(long, double, long)}. Must be taken before computing the sum
+     *
+     * @param id
+     * @return
+     */
+    public long stamp(long id) {
+        return invalidations.get(stripe(id));
+    }
+
+    /**
+     * Caches the sum, unless the id was invalidated since the stamp was taken
+     *
+     * @param id
+     * @param sum
+     * @param stamp
+     */
+    public void put(long id, double sum, long stamp) {
+        int stripe = stripe(id);
+        if (invalidations.get(stripe) != stamp) {
+            return;
+        }
+        cache.put(id, sum);
+        // an invalidation which started before the put might have missed it
+        if (invalidations.get(stripe) != stamp) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Invalidates the sums of the ancestors of a new transaction
+     *
+     * @param ancestors
+     */
+    public void invalidate(Collection<Long> ancestors) {
+        for (Long id : ancestors) {
+            invalidations.incrementAndGet(stripe(id));
+        }
+        for (Long id : ancestors) {
+            cache.invalidate(id);
+        }
+    }
+
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            invalidations.incrementAndGet(stripe);
+        }
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int stripe(long id) {
+        // spreads sequential ids over all the stripes
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,100 @@
+package com.n26.yonatan.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.n26.yonatan.dto.CacheStats;
+import com.n26.yonatan.dto.Transaction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read-through cache of transactions, used by the jpa storage.
+ * <br>
+ * Transactions are insert-only, so a cached transaction never becomes stale, and no invalidation is required -
+ * even when the DB is shared by several nodes. Only existing transactions are cached, as a missing transaction
+ * may be created later.
+ * <br>
+ * The transactions are kept as compact immutable records rather than entities, with the type names interned,
+ * so a cached transaction costs a few dozens of bytes.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage", havingValue = "jpa", matchIfMissing = true)
+@Slf4j
+public class TransactionCache {
+    private final BoundedCache<Long, Record> cache;
+    private final Interner<String> types = Interners.newWeakInterner();
+
+    @Autowired
+    public TransactionCache(@Value("${transactionservice.cache.transaction.policy:tinylfu}") String policy,
+                            @Value("${transactionservice.cache.transaction.max-size:100000}") long maxSize) {
+        log.info("Caching up to {} transactions, using {} eviction", maxSize, policy);
+        cache = BoundedCache.create(policy, maxSize);
+    }
+
+    /**
+     * Returns the cached transaction, or null if not cached
+     *
+     * @param id
+     * @return
+     */
+    public Transaction get(long id) {
+        Record record = cache.getIfPresent(id);
+        if (record == null) {
+            return null;
+        }
+        Transaction transaction = new Transaction();
+        transaction.setAmount(record.amount);
+        transaction.setType(record.type);
+        if (record.hasParent) {
+            transaction.setParentId(record.parentId);
+        }
+        if (record.hasTimestamp) {
+            transaction.setTimestamp(record.timestamp);
+        }
+        return transaction;
+    }
+
+    /**
+     * Caches an existing transaction
+     *
+     * @param id
+     * @param transaction
+     */
+    public void put(long id, Transaction transaction) {
+        Long parentId = transaction.getParentId();
+        Long timestamp = transaction.getTimestamp();
+        cache.put(id, new Record(transaction.getAmount(), types.intern(transaction.getType()),
+                parentId != null, parentId == null ? 0 : parentId,
+                timestamp != null, timestamp == null ? 0 : timestamp));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static final class Record {
+        private final double amount;
+        private final String type;
+        private final boolean hasParent;
+        private final long parentId;
+        private final boolean hasTimestamp;
+        private final long timestamp;
+
+        private Record(double amount, String type, boolean hasParent, long parentId, boolean hasTimestamp,
+                       long timestamp) {
+            this.amount = amount;
+            this.type = type;
+            this.hasParent = hasParent;
+            this.parentId = parentId;
+            this.hasTimestamp = hasTimestamp;
+            this.timestamp = timestamp;
+        }
+    }
+}
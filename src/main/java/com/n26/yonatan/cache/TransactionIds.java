@@ -0,0 +1,110 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.memory.LongBitmap;
+import com.n26.yonatan.repository.TransactionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The ids of the existing transactions, used by the jpa storage to answer "exists?" without a query - to find the
+ * parents of new transactions, and to reject duplicates before a DB transaction is opened.
+ * <br>
+ * Loaded from the DB on startup, and then updated by the service as new transactions are committed. Transactions
+ * are insert-only, so a known id always exists. An unknown id may still exist - inserted by another node sharing
+ * the DB, or beyond <code>max-size</code> - so only the known ids are trusted, and the rest are looked up as before.
+ * <br>
+ * The ids are kept in a {@link LongBitmap} - about a bit per id for dense id ranges, but up to ~100 bytes per id
+ * when the ids are scattered, hence the bound.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage", havingValue = "jpa", matchIfMissing = true)
+@Slf4j
+public class TransactionIds {
+    private static final int LOAD_PAGE_SIZE = 10000;
+
+    private final TransactionRepository transactionRepository;
+    private final long maxSize;
+    private LongBitmap ids = new LongBitmap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public TransactionIds(TransactionRepository transactionRepository,
+                          @Value("${transactionservice.cache.ids.max-size:1000000}") long maxSize) {
+        this.transactionRepository = transactionRepository;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Reloads the ids from the DB, in pages of ascending ids, up to max-size. Required if transactions are
+     * deleted, as the known ids are trusted to exist
+     */
+    @PostConstruct
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            ids = new LongBitmap();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long after = Long.MIN_VALUE;
+        while (size() < maxSize) {
+            List<Long> page = transactionRepository.getIdsAfter(after, new PageRequest(0, LOAD_PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        log.info("Loaded {} transaction ids, up to {}", size(), maxSize);
+    }
+
+    /**
+     * @param id
+     * @return true if the transaction is known to exist, false if it may or may not exist
+     */
+    public boolean contains(long id) {
+        lock.readLock().lock();
+        try {
+            return ids.contains(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the ids of committed transactions, unless max-size is reached
+     *
+     * @param committed
+     */
+    public void addAll(Iterable<Long> committed) {
+        lock.writeLock().lock();
+        try {
+            for (Long id : committed) {
+                if (ids.cardinality() >= maxSize) {
+                    return;
+                }
+                ids.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return ids.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.n26.yonatan.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.NextAncestor;
+import com.n26.yonatan.dto.Statistics;
+import com.n26.yonatan.dto.Status;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.exception.ServerErrorException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Calls the partition endpoints of the other nodes of the cluster.
+ * The errors of the other node are thrown as the same exceptions, so they are reported to the client as is.
+ */
+@Slf4j
+public class ClusterClient {
+    private static final String PARTITION_PATH = "/transactionservice/partition/";
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ClusterClient(int timeoutMillis) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMillis);
+        requestFactory.setReadTimeout(timeoutMillis);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    public void createTransaction(String node, long transactionId, Transaction t) {
+        call(node, () -> {
+            restTemplate.put(node + PARTITION_PATH + "transaction/{id}", t, transactionId);
+            return null;
+        });
+    }
+
+    public Transaction findTransaction(String node, long transactionId) {
+        return call(node, () -> restTemplate.getForObject(node + PARTITION_PATH + "transaction/{id}",
+                Transaction.class, transactionId));
+    }
+
+    public Long addToSubtreeTotals(String node, long transactionId, double amount) {
+        return call(node, () -> restTemplate.postForObject(node + PARTITION_PATH + "totals/{id}?amount={amount}",
+                null, NextAncestor.class, transactionId, amount)).getNextAncestor();
+    }
+
+    public Sum sumTransactions(String node, long transactionId) {
+        return call(node, () -> restTemplate.getForObject(node + PARTITION_PATH + "sum/{id}", Sum.class,
+                transactionId));
+    }
+
+    public List<Long> getTransactionIdsByType(String node, String type, Long after, int limit) {
+        String url = node + PARTITION_PATH + "types/{type}?limit={limit}" + (after == null ? "" : "&after={after}");
+        return call(node, () -> Arrays.asList(restTemplate.getForObject(url, Long[].class, type, limit, after)));
+    }
+
+    public Count countTransactionsByType(String node, String type) {
+        return call(node, () -> restTemplate.getForObject(node + PARTITION_PATH + "types/{type}/count",
+                Count.class, type));
+    }
+
+    public Statistics getStatistics(String node) {
+        return call(node, () -> restTemplate.getForObject(node + PARTITION_PATH + "statistics", Statistics.class));
+    }
+
+    public TypeStats getTypeStats(String node, String type) {
+        return call(node, () -> restTemplate.getForObject(node + PARTITION_PATH + "types/{type}/stats",
+                TypeStats.class, type));
+    }
+
+    private <T> T call(String node, Supplier<T> request) {
+        try {
+            return request.get();
+        } catch (HttpStatusCodeException e) {
+            String message = statusMessage(e);
+            switch (e.getStatusCode()) {
+                case BAD_REQUEST:
+                    throw new BadRequestException(message);
+                case NOT_FOUND:
+                    throw new NotFoundException(message);
+                case CONFLICT:
+                    throw new ConflictException(message);
+                default:
+                    log.error("Node {} failed with {}: {}", node, e.getStatusCode(), message);
+                    throw new ServerErrorException("cluster node failure");
+            }
+        } catch (RestClientException e) {
+            log.error("Node {} is unavailable", node, e);
+            throw new ServerErrorException("cluster node unavailable");
+        }
+    }
+
+    private String statusMessage(HttpStatusCodeException e) {
+        try {
+            return objectMapper.readValue(e.getResponseBodyAsByteArray(), Status.class).getStatus();
+        } catch (IOException | RuntimeException parseFailure) {
+            return e.getStatusText();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.n26.yonatan.cluster;
+
+import com.google.common.hash.Hashing;
+import com.n26.yonatan.aggregate.TransactionStatistics;
+import com.n26.yonatan.aggregate.TypeAggregates;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.Statistics;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.memory.TransactionGraph;
+import com.n26.yonatan.memory.TransactionLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Partitions the transactions between the nodes of a cluster, used when <code>transactionservice.cluster.nodes</code>
+ * is set (to the base URLs of all the nodes, in the same order on every node).
+ * <br>
+ * Each transaction is owned by a single node, by a consistent hash of its id, and is stored in the in-memory graph
+ * of that node along with the total of its subtree. Requests for a transaction are forwarded to its owner.
+ * An insert is applied by the owner of the new transaction: it verifies the parent with the parent's owner, stores
+ * the transaction, and then walks up the ancestors chain - each node adds the amount to the totals of the
+ * ancestors it stores, until the chain continues on another node. Sums are then a single read on the owner.
+ * <br>
+ * Listing, counting and aggregating the transactions of a type, and the recent transactions statistics, are
+ * scattered to all the nodes in parallel, and the results are merged. The local part runs on the calling thread, and
+ * the remote calls on a pool sized for the concurrent reads (<code>transactionservice.cluster.scatter-threads</code>,
+ * by default a thread per remote node for each reads and aggregates executor thread). When the pool is busy, the
+ * calling thread makes the call itself rather than queueing behind the calls of other requests.
+ * <br>
+ * The nodes do not coordinate their writes - a node failing in the middle of an insert may leave the totals of
+ * some ancestors updated without the transaction.
+ */
+@Service
+@ConditionalOnProperty(name = "transactionservice.cluster.nodes")
+@Slf4j
+public class ClusterService {
+
+    private final List<String> nodes;
+    private final int nodeIndex;
+    private final TransactionGraph graph;
+    private final ClusterClient client;
+    private final ExecutorService scatterExecutor;
+    private final TransactionStatistics statistics;
+
+    @Autowired
+    public ClusterService(@Value("${transactionservice.cluster.nodes}") String[] nodes,
+                          @Value("${transactionservice.cluster.node-index}") int nodeIndex,
+                          @Value("${transactionservice.cluster.timeout-ms:5000}") int timeoutMillis,
+                          @Value("${transactionservice.cluster.scatter-threads:0}") int scatterThreads,
+                          @Value("${transactionservice.executor.reads.threads:16}") int readThreads,
+                          @Value("${transactionservice.executor.aggregates.threads:4}") int aggregateThreads,
+                          Optional<TransactionGraph> graph,
+                          Optional<TransactionLog> transactionLog,
+                          TransactionStatistics statistics) {
+        this(Arrays.asList(nodes), nodeIndex, graph.orElseThrow(
+                () -> new IllegalStateException("The cluster mode requires transactionservice.storage=memory")),
+                new ClusterClient(timeoutMillis),
+                scatterThreads > 0 ? scatterThreads : (nodes.length - 1) * (readThreads + aggregateThreads),
+                statistics);
+        if (transactionLog.isPresent()) {
+            throw new IllegalStateException("The cluster mode does not support the transaction log");
+        }
+    }
+
+    ClusterService(List<String> nodes, int nodeIndex, TransactionGraph graph, ClusterClient client,
+                   int scatterThreads, TransactionStatistics statistics) {
+        if (nodeIndex < 0 || nodeIndex >= nodes.size()) {
+            throw new IllegalArgumentException("Invalid node index " + nodeIndex + " of " + nodes.size() + " nodes");
+        }
+        this.nodes = nodes;
+        this.nodeIndex = nodeIndex;
+        this.graph = graph;
+        this.client = client;
+        this.statistics = statistics;
+        AtomicInteger count = new AtomicInteger();
+        // no queue - a call waits for a free thread only by running on the calling thread
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(scatterThreads, 1), Math.max(scatterThreads, 1),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "cluster-scatter-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        scatterExecutor = executor;
+        log.info("Node {} of cluster {}, {} scatter threads", nodeIndex, nodes, executor.getMaximumPoolSize());
+    }
+
+    @PreDestroy
+    public void close() {
+        scatterExecutor.shutdown();
+    }
+
+    /**
+     * Returns the index of the node which owns the transaction id
+     *
+     * @param transactionId
+     * @return
+     */
+    int owner(long transactionId) {
+        return owner(transactionId, nodes.size());
+    }
+
+    /**
+     * A consistent hash of the id - adding a node moves only the ids the new node takes over.
+     * The id is mixed first (the finalizer of murmur3), as consecutive ids are common
+     */
+    static int owner(long transactionId, int nodeCount) {
+        long h = transactionId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return Hashing.consistentHash(h, nodeCount);
+    }
+
+    private boolean isLocal(long transactionId) {
+        return owner(transactionId) == nodeIndex;
+    }
+
+    private String ownerNode(long transactionId) {
+        return nodes.get(owner(transactionId));
+    }
+
+    public void createTransaction(long transactionId, Transaction t) {
+        if (isLocal(transactionId)) {
+            createLocalTransaction(transactionId, t);
+        } else {
+            client.createTransaction(ownerNode(transactionId), transactionId, t);
+        }
+    }
+
+    public Transaction findTransaction(long transactionId) {
+        if (isLocal(transactionId)) {
+            return graph.find(transactionId);
+        }
+        return client.findTransaction(ownerNode(transactionId), transactionId);
+    }
+
+    public Sum sumTransactions(long transactionId) {
+        if (isLocal(transactionId)) {
+            return new Sum(graph.sum(transactionId));
+        }
+        return client.sumTransactions(ownerNode(transactionId), transactionId);
+    }
+
+    /**
+     * Returns a page of the ids of the type from all the nodes. Each node returns its own page, in ascending
+     * order, and the pages are merged - the first ids of the merged pages are the first ids of the type.
+     *
+     * @param type
+     * @param after
+     * @param limit
+     * @return
+     */
+    public List<Long> getTransactionIdsByType(String type, Long after, int limit) {
+        List<Long> merged = new ArrayList<>();
+        scatter(node -> node == nodeIndex
+                ? graph.idsByType(type, after, limit)
+                : client.getTransactionIdsByType(nodes.get(node), type, after, limit))
+                .forEach(merged::addAll);
+        merged.sort(null);
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+
+    public Count countTransactionsByType(String type) {
+        long count = 0;
+        for (Long nodeCount : scatter(node -> node == nodeIndex
+                ? graph.countByType(type)
+                : client.countTransactionsByType(nodes.get(node), type).getCount())) {
+            count += nodeCount;
+        }
+        return new Count(count);
+    }
+
+    /**
+     * Merges the aggregates of the type of all the nodes
+     *
+     * @param type
+     * @return
+     */
+    public TypeStats getTypeStats(String type) {
+        return scatter(node -> node == nodeIndex
+                ? graph.statsByType(type)
+                : client.getTypeStats(nodes.get(node), type))
+                .stream().reduce(TypeAggregates::merge).get();
+    }
+
+    /**
+     * Merges the recent transactions statistics of all the nodes - each node counts the transactions it owns
+     *
+     * @return
+     */
+    public Statistics getStatistics() {
+        return scatter(node -> node == nodeIndex
+                ? statistics.statistics()
+                : client.getStatistics(nodes.get(node)))
+                .stream().reduce(TransactionStatistics::merge).get();
+    }
+
+    /**
+     * Calls all the nodes in parallel
+     *
+     * @param call  given the index of a node
+     * @param <T>
+     * @return the results, the local one first
+     */
+    private <T> List<T> scatter(Function<Integer, T> call) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(nodes.size());
+        for (int node = 0; node < nodes.size(); node++) {
+            int index = node;
+            if (node != nodeIndex) {
+                futures.add(CompletableFuture.supplyAsync(() -> call.apply(index), scatterExecutor));
+            }
+        }
+        // the local part is a read of the memory, while the remote calls are in flight
+        T local = call.apply(nodeIndex);
+        List<T> results = new ArrayList<>(nodes.size());
+        results.add(local);
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Creates a transaction owned by this node
+     *
+     * @param transactionId
+     * @param t
+     */
+    public void createLocalTransaction(long transactionId, Transaction t) {
+        if (!isLocal(transactionId)) {
+            log.error("Transaction id {} is owned by node {}, not by node {}", transactionId,
+                    owner(transactionId), nodeIndex);
+            throw new ServerErrorException("misrouted transaction");
+        }
+        if (t.getParentId() != null) {
+            try {
+                findTransaction(t.getParentId());
+            } catch (NotFoundException e) {
+                throw new BadRequestException("parent not found");
+            }
+        }
+        graph.addPartitioned(transactionId, t.getParentId(), t.getAmount(), t.getType(), t.getTimestamp());
+        statistics.record(t.getAmount(), t.getTimestamp());
+        // the parent cannot be removed, so the chain is walked after the transaction is stored - a duplicate
+        // transaction never reaches the totals
+        long ancestor = t.getParentId() == null ? TransactionGraph.NO_PARENT : t.getParentId();
+        while (ancestor != TransactionGraph.NO_PARENT) {
+            if (isLocal(ancestor)) {
+                ancestor = graph.addToSubtreeTotals(ancestor, t.getAmount());
+            } else {
+                Long next = client.addToSubtreeTotals(ownerNode(ancestor), ancestor, t.getAmount());
+                ancestor = next == null ? TransactionGraph.NO_PARENT : next;
+            }
+        }
+    }
+
+    /**
+     * Adds the amount to the totals of the transaction and its ancestors owned by this node
+     *
+     * @param transactionId
+     * @param amount
+     * @return the first ancestor owned by another node, or null if the root was reached
+     */
+    public Long addToLocalSubtreeTotals(long transactionId, double amount) {
+        long next = graph.addToSubtreeTotals(transactionId, amount);
+        return next == TransactionGraph.NO_PARENT ? null : next;
+    }
+
+    public Transaction findLocalTransaction(long transactionId) {
+        return graph.find(transactionId);
+    }
+
+    public Sum sumLocalTransactions(long transactionId) {
+        return new Sum(graph.sum(transactionId));
+    }
+
+    public List<Long> getLocalTransactionIdsByType(String type, Long after, int limit) {
+        return graph.idsByType(type, after, limit);
+    }
+
+    public Count countLocalTransactionsByType(String type) {
+        return new Count(graph.countByType(type));
+    }
+
+    public TypeStats getLocalTypeStats(String type) {
+        return graph.statsByType(type);
+    }
+
+    public Statistics getLocalStatistics() {
+        return statistics.statistics();
+    }
+}
@@ -0,0 +1,101 @@
+package com.n26.yonatan.controller;
+
+import com.n26.yonatan.cluster.ClusterService;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.NextAncestor;
+import com.n26.yonatan.dto.Statistics;
+import com.n26.yonatan.dto.Status;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.HttpException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * The endpoints the nodes of a cluster call on each other. They serve the partition of the node only,
+ * and never forward requests. The requests are validated by the node which received them from the client.
+ */
+@RestController
+@RequestMapping("transactionservice/partition")
+@ConditionalOnProperty(name = "transactionservice.cluster.nodes")
+@Slf4j
+public class PartitionController {
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @RequestMapping(value = "transaction/{transactionId}", method = RequestMethod.GET)
+    public Transaction getTransaction(@PathVariable long transactionId) {
+        log.trace("getLocalTransaction {}", transactionId);
+        return clusterService.findLocalTransaction(transactionId);
+    }
+
+    @RequestMapping(value = "transaction/{transactionId}", method = RequestMethod.PUT)
+    public Status saveTransaction(@PathVariable long transactionId, @RequestBody Transaction transaction) {
+        log.trace("createLocalTransaction {} {}", transactionId, transaction);
+        clusterService.createLocalTransaction(transactionId, transaction);
+        return new Status("ok");
+    }
+
+    @RequestMapping(value = "totals/{transactionId}", method = RequestMethod.POST)
+    public NextAncestor addToTotals(@PathVariable long transactionId, @RequestParam("amount") double amount) {
+        log.trace("addToLocalSubtreeTotals {} {}", transactionId, amount);
+        return new NextAncestor(clusterService.addToLocalSubtreeTotals(transactionId, amount));
+    }
+
+    @RequestMapping(value = "sum/{transactionId}", method = RequestMethod.GET)
+    public Sum sumTransactions(@PathVariable long transactionId) {
+        log.trace("sumLocalTransactions {}", transactionId);
+        return clusterService.sumLocalTransactions(transactionId);
+    }
+
+    @RequestMapping(value = "types/{type}", method = RequestMethod.GET)
+    public List<Long> getTransactionsByType(@PathVariable(value = "type") String type,
+                                            @RequestParam(value = "after", required = false) Long after,
+                                            @RequestParam(value = "limit") int limit) {
+        log.trace("getLocalTransactionsByType {} {} {}", type, after, limit);
+        return clusterService.getLocalTransactionIdsByType(type, after, limit);
+    }
+
+    @RequestMapping(value = "types/{type}/count", method = RequestMethod.GET)
+    public Count countTransactionsByType(@PathVariable(value = "type") String type) {
+        log.trace("countLocalTransactionsByType {}", type);
+        return clusterService.countLocalTransactionsByType(type);
+    }
+
+    @RequestMapping(value = "types/{type}/stats", method = RequestMethod.GET)
+    public TypeStats getTypeStats(@PathVariable(value = "type") String type) {
+        log.trace("getLocalTypeStats {}", type);
+        return clusterService.getLocalTypeStats(type);
+    }
+
+    @RequestMapping(value = "statistics", method = RequestMethod.GET)
+    public Statistics getStatistics() {
+        log.trace("getLocalStatistics");
+        return clusterService.getLocalStatistics();
+    }
+
+    @ExceptionHandler(HttpException.class)
+    public ResponseEntity<Status> handleException(HttpException e, HttpServletRequest req) {
+        log.debug("Exception {} thrown when {} {}", e.getMessage(), req.getMethod(), req.getServletPath());
+        Status status = new Status(e.getMessage());
+        status.setPath(req.getServletPath());
+        ResponseStatus responseStatus = AnnotationUtils.findAnnotation(e.getClass(), ResponseStatus.class);
+        return new ResponseEntity<>(status, responseStatus.value());
+    }
+}
@@ -1,31 +1,66 @@
 package com.n26.yonatan.controller;
 
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.CacheStats;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.HistogramStats;
+import com.n26.yonatan.dto.Statistics;
 import com.n26.yonatan.dto.Status;
 import com.n26.yonatan.dto.Sum;
 import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionBatch;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.dto.TypeStats;
 import com.n26.yonatan.exception.HttpException;
+import com.n26.yonatan.exception.ServiceUnavailableException;
+import com.n26.yonatan.json.JsonBuffer;
+import com.n26.yonatan.json.JsonResponseConverter;
+import com.n26.yonatan.logging.AccessLog;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import com.n26.yonatan.service.GroupCommitWriter;
+import com.n26.yonatan.service.RequestExecutors;
 import com.n26.yonatan.service.TransactionService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.n26.yonatan.service.RequestExecutors.Operation.AGGREGATES;
+import static com.n26.yonatan.service.RequestExecutors.Operation.READS;
+import static com.n26.yonatan.service.RequestExecutors.Operation.WRITES;
 
 /**
  * The Transaction Service controller
+ * <br>
+ * The requests which access the storage are handled asynchronously, on the {@link RequestExecutors} of their
+ * operation class. The streamed listings (of a type and of a subtree) write the response as they read, so they run on
+ * the request thread, as do the requests answered from memory (statistics, caches and metrics).
  */
 @RestController
 @RequestMapping("transactionservice")
@@ -35,29 +70,277 @@ public class TransactionsController {
     @Autowired
     private TransactionService transactionService;
 
+    /**
+     * Available only when <code>transactionservice.write.mode=group</code>, in which case single transactions
+     * are created through it
+     */
+    @Autowired(required = false)
+    private GroupCommitWriter groupCommitWriter;
+
+    /**
+     * Not available when <code>transactionservice.executor.enabled=false</code>, in which case the requests are
+     * handled on the request threads
+     */
+    @Autowired(required = false)
+    private RequestExecutors requestExecutors;
+
+    @Autowired
+    private TransactionMetrics metrics;
+
+    @Autowired
+    private AmountScale amountScale;
+
+    private static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+
+    /**
+     * The number of ids read and written at once when streaming the ids of a type.
+     * Must not exceed <code>transactionservice.types.max-page-size</code>
+     */
+    @Value("${transactionservice.types.stream-chunk-size:1000}")
+    private int streamChunkSize = 1000;
+
+    /**
+     * Whether single transactions are read by the {@link com.n26.yonatan.json.TransactionRequestConverter},
+     * in which case they are validated by the {@link TransactionValidator} as well
+     */
+    @Value("${transactionservice.json.fast-reader.enabled:true}")
+    private boolean fastReader = true;
+
+    private final TransactionValidator transactionValidator = new TransactionValidator();
+
+    /**
+     * Replaces the bean validation of single transactions, so their types are validated in a single pass
+     */
+    @InitBinder("transaction")
+    public void initTransactionBinder(WebDataBinder binder) {
+        if (fastReader) {
+            binder.setValidator(transactionValidator);
+        }
+    }
+
     @RequestMapping(value = "transaction/{transactionId}", method = RequestMethod.GET)
-    public Transaction getTransaction(@PathVariable long transactionId) {
+    public DeferredResult<Transaction> getTransaction(@PathVariable long transactionId) {
         log.trace("getTransaction {}", transactionId);
-        return transactionService.findTransaction(transactionId);
+        return execute(READS, () -> transactionService.findTransaction(transactionId));
     }
 
     @RequestMapping(value = "transaction/{transactionId}", method = RequestMethod.PUT)
-    public Status saveTransaction(@PathVariable long transactionId, @Valid @RequestBody Transaction transaction) {
+    public DeferredResult<Status> saveTransaction(@PathVariable long transactionId,
+                                                  @Valid @RequestBody Transaction transaction,
+                                                  HttpServletRequest request) {
         log.trace("createTransaction {} {}", transactionId, transaction);
-        transactionService.createTransaction(transactionId, transaction);
-        return new Status("ok");
+        AccessLog.auditWrite(request, transactionId, transaction);
+        if (groupCommitWriter != null) {
+            // the executor thread is released once queued, and the request completes when its group is committed
+            return executeAsync(WRITES, () -> {
+                // a retry of a created transaction fails here, before it is queued
+                transactionService.checkNotExists(transactionId);
+                return groupCommitWriter.submit(transactionId, transaction).thenApply(committed -> new Status("ok"));
+            });
+        }
+        return execute(WRITES, () -> {
+            // a retry of a created transaction fails here, before a DB transaction is opened
+            transactionService.checkNotExists(transactionId);
+            transactionService.createTransaction(transactionId, transaction);
+            return new Status("ok");
+        });
+    }
+
+    @RequestMapping(value = "transactions", method = RequestMethod.PUT)
+    public DeferredResult<Status> saveTransactions(@Valid @RequestBody TransactionBatch batch,
+                                                   HttpServletRequest request) {
+        log.trace("createTransactions {}", batch.getTransactions().size());
+        AccessLog.auditWrites(request, batch.getTransactions());
+        return execute(WRITES, () -> {
+            transactionService.createTransactions(batch.getTransactions());
+            return new Status("ok");
+        });
     }
 
+    /**
+     * Streams all the ids of the type as a JSON array. The ids are read and written in chunks,
+     * so the memory used by the request does not depend on the number of ids.
+     * The chunks are read separately, so the listing is not a snapshot - ids added while streaming may be included.
+     */
     @RequestMapping(value = "types/{type}", method = RequestMethod.GET)
-    public List<Long> getTransactionsByType(@PathVariable(value = "type") String type) {
-        log.trace("getTransactionsByType {}", type);
-        return transactionService.getTransactionIdsByType(type);
+    public void getTransactionsByType(@PathVariable(value = "type") String type,
+                                      @RequestParam(value = "after", required = false) Long after,
+                                      HttpServletResponse response) throws IOException {
+        log.trace("getTransactionsByType {} {}", type, after);
+        // read the first chunk before writing anything, so errors are still reported properly
+        List<Long> chunk = transactionService.getTransactionIdsByType(type, after, streamChunkSize);
+        response.setContentType(JSON_CONTENT_TYPE);
+        OutputStream out = response.getOutputStream();
+        out.write('[');
+        // the ids are written digit by digit into a reused buffer, so a chunk allocates nothing beyond its ids
+        JsonBuffer buffer = JsonBuffer.forThread();
+        boolean first = true;
+        while (!chunk.isEmpty()) {
+            buffer.reset();
+            for (Long id : chunk) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                buffer.writeLong(id);
+                first = false;
+            }
+            buffer.writeTo(out);
+            out.flush();
+            if (chunk.size() < streamChunkSize) {
+                break;
+            }
+            chunk = transactionService.getTransactionIdsByType(type, chunk.get(chunk.size() - 1), streamChunkSize);
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    /**
+     * Returns a page of the ids of the type. The next page is requested using the last id of the page as the
+     * <code>after</code> parameter.
+     */
+    @RequestMapping(value = "types/{type}", method = RequestMethod.GET, params = "limit")
+    public DeferredResult<List<Long>> getTransactionsByTypePage(
+            @PathVariable(value = "type") String type,
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestParam(value = "limit") int limit) {
+        log.trace("getTransactionsByTypePage {} {} {}", type, after, limit);
+        return execute(READS, () -> transactionService.getTransactionIdsByType(type, after, limit));
+    }
+
+    /**
+     * Streams the descendants of the transaction, up to the depth if given, as a JSON array of
+     * <code>[id, amount, type, parent_id]</code> tuples in ascending order of their ids (depth first in the memory
+     * mode, see {@link TransactionService#getDescendants}). Like the ids of a type,
+     * they are read and written in chunks, and the listing is not a snapshot.
+     */
+    @RequestMapping(value = "transaction/{transactionId}/descendants", method = RequestMethod.GET)
+    public void getDescendants(@PathVariable long transactionId,
+                               @RequestParam(value = "after", required = false) Long after,
+                               @RequestParam(value = "depth", required = false) Integer depth,
+                               HttpServletResponse response) throws IOException {
+        log.trace("getDescendants {} {} {}", transactionId, after, depth);
+        // read the first chunk before writing anything, so errors are still reported properly
+        List<TransactionNode> chunk = transactionService.getDescendants(transactionId, after, streamChunkSize, depth);
+        response.setContentType(JSON_CONTENT_TYPE);
+        OutputStream out = response.getOutputStream();
+        out.write('[');
+        // as the ids of a type, the tuples are written into a reused buffer instead of by bean serialization
+        JsonBuffer buffer = JsonBuffer.forThread();
+        boolean first = true;
+        while (!chunk.isEmpty()) {
+            buffer.reset();
+            for (TransactionNode node : chunk) {
+                if (!first) {
+                    buffer.writeByte(',');
+                }
+                JsonResponseConverter.writeNode(node, amountScale, buffer);
+                first = false;
+            }
+            buffer.writeTo(out);
+            out.flush();
+            if (chunk.size() < streamChunkSize) {
+                break;
+            }
+            chunk = transactionService.getDescendants(transactionId, chunk.get(chunk.size() - 1).getId(),
+                    streamChunkSize, depth);
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    /**
+     * Returns a page of the descendants of the transaction. The next page is requested using the id of the last
+     * descendant of the page as the <code>after</code> parameter.
+     */
+    @RequestMapping(value = "transaction/{transactionId}/descendants", method = RequestMethod.GET,
+            params = "limit")
+    public DeferredResult<List<TransactionNode>> getDescendantsPage(
+            @PathVariable long transactionId,
+            @RequestParam(value = "after", required = false) Long after,
+            @RequestParam(value = "depth", required = false) Integer depth,
+            @RequestParam(value = "limit") int limit) {
+        log.trace("getDescendantsPage {} {} {} {}", transactionId, after, depth, limit);
+        return execute(READS, () -> transactionService.getDescendants(transactionId, after, limit, depth));
+    }
+
+    @RequestMapping(value = "types/{type}/count", method = RequestMethod.GET)
+    public DeferredResult<Count> countTransactionsByType(@PathVariable(value = "type") String type) {
+        log.trace("countTransactionsByType {}", type);
+        return execute(AGGREGATES, () -> transactionService.countTransactionsByType(type));
+    }
+
+    @RequestMapping(value = "types/{type}/stats", method = RequestMethod.GET)
+    public DeferredResult<TypeStats> getTypeStats(@PathVariable(value = "type") String type) {
+        log.trace("getTypeStats {}", type);
+        return execute(AGGREGATES, () -> transactionService.getTypeStats(type));
     }
 
     @RequestMapping(value = "sum/{transactionId}", method = RequestMethod.GET)
-    public Sum sumTransactions(@PathVariable long transactionId) {
+    public DeferredResult<Sum> sumTransactions(@PathVariable long transactionId) {
         log.trace("sumTransactions {}", transactionId);
-        return transactionService.sumTransactions(transactionId);
+        return execute(AGGREGATES, () -> transactionService.sumTransactions(transactionId));
+    }
+
+    @RequestMapping(value = "caches", method = RequestMethod.GET)
+    public Map<String, CacheStats> getCacheStats() {
+        log.trace("getCacheStats");
+        return transactionService.getCacheStats();
+    }
+
+    /**
+     * Returns the sum, avg, max, min and count of the amounts of the transactions of the last 60 seconds
+     */
+    @RequestMapping(value = "statistics", method = RequestMethod.GET)
+    public Statistics getStatistics() {
+        log.trace("getStatistics");
+        return transactionService.getStatistics();
+    }
+
+    /**
+     * Returns the latency histograms of the endpoints and the service methods (in microseconds),
+     * and the histograms of the hot path counters
+     */
+    @RequestMapping(value = "metrics", method = RequestMethod.GET)
+    public Map<String, Map<String, HistogramStats>> getMetrics() {
+        log.trace("getMetrics");
+        return metrics.stats();
+    }
+
+    /**
+     * Runs the task on the executor of the operation class, or on the request thread if the executors are disabled
+     */
+    private <T> DeferredResult<T> execute(RequestExecutors.Operation operation, Supplier<T> task) {
+        if (requestExecutors != null) {
+            return requestExecutors.submit(operation, task);
+        }
+        DeferredResult<T> result = new DeferredResult<>();
+        result.setResult(task.get());
+        return result;
+    }
+
+    /**
+     * Runs the task on the executor of the operation class, or on the request thread if the executors are disabled,
+     * and completes the request when the future returned by the task completes
+     */
+    private <T> DeferredResult<T> executeAsync(RequestExecutors.Operation operation,
+                                               Supplier<CompletableFuture<T>> task) {
+        if (requestExecutors != null) {
+            return requestExecutors.submitAsync(operation, task);
+        }
+        DeferredResult<T> result = new DeferredResult<>();
+        RequestExecutors.complete(result, task.get());
+        return result;
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Status> handleException(ServiceUnavailableException e, HttpServletRequest req) {
+        log.debug("Rejected {} {}: {}", req.getMethod(), req.getServletPath(), e.getMessage());
+        Status status = new Status(e.getMessage());
+        status.setPath(req.getServletPath());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        return new ResponseEntity<>(status, headers, HttpStatus.SERVICE_UNAVAILABLE);
     }
 
     @ExceptionHandler(HttpException.class)
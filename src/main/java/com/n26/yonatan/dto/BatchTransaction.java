@@ -0,0 +1,18 @@
+package com.n26.yonatan.dto;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * A transaction within a batch, which carries its own id
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class BatchTransaction extends Transaction {
+    @NotNull
+    private Long id;
+}
@@ -0,0 +1,12 @@
+package com.n26.yonatan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Count {
+    private long count;
+}
@@ -0,0 +1,19 @@
+package com.n26.yonatan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A summary of a histogram of recorded values
+ */
+@Data
+@AllArgsConstructor
+public class HistogramStats {
+    private long count;
+    private long min;
+    private long max;
+    private double mean;
+    private long p50;
+    private long p99;
+    private long p999;
+}
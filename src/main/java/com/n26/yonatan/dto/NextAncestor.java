@@ -0,0 +1,18 @@
+package com.n26.yonatan.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Where an ancestor walk should continue - the first ancestor stored by another node, or null if the root
+ * was reached
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class NextAncestor {
+    @JsonProperty("next_ancestor")
+    private Long nextAncestor;
+}
@@ -0,0 +1,19 @@
+package com.n26.yonatan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Statistics of the amounts of the recent transactions. The avg, max and min are null when there are none
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Statistics {
+    private double sum;
+    private Double avg;
+    private Double max;
+    private Double min;
+    private long count;
+}
@@ -2,9 +2,11 @@ package com.n26.yonatan.dto;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @AllArgsConstructor
+@NoArgsConstructor
 public class Sum {
     private double sum;
 }
@@ -23,4 +23,10 @@ public class Transaction {
     @JsonProperty("parent_id")
     private Long parentId;
 
+    /**
+     * The time of the transaction in epoch millis, optional
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long timestamp;
+
 }
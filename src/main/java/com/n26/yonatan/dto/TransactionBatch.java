@@ -0,0 +1,14 @@
+package com.n26.yonatan.dto;
+
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import java.util.List;
+
+@Data
+public class TransactionBatch {
+    @NotEmpty
+    @Valid
+    private List<BatchTransaction> transactions;
+}
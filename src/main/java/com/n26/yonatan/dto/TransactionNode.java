@@ -0,0 +1,24 @@
+package com.n26.yonatan.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A transaction in a listing of a subtree, written as a compact <code>[id, amount, type, parent_id]</code> tuple
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonFormat(shape = JsonFormat.Shape.ARRAY)
+@JsonPropertyOrder({"id", "amount", "type", "parent_id"})
+public class TransactionNode {
+    private long id;
+    private double amount;
+    private String type;
+    @JsonProperty("parent_id")
+    private Long parentId;
+}
@@ -0,0 +1,19 @@
+package com.n26.yonatan.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Aggregates of the amounts of the transactions of a type. The min, max and mean are null when there are none
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TypeStats {
+    private long count;
+    private double sum;
+    private Double min;
+    private Double max;
+    private Double mean;
+}
@@ -0,0 +1,11 @@
+package com.n26.yonatan.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class ConflictException extends HttpException {
+    public ConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package com.n26.yonatan.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends HttpException {
+    private final int retryAfterSeconds;
+
+    public ServiceUnavailableException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * The seconds the client should wait before retrying, returned in the <code>Retry-After</code> header
+     *
+     * @return
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
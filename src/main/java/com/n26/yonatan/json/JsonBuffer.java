@@ -0,0 +1,184 @@
+package com.n26.yonatan.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of UTF-8 encoded JSON, written without creating any object - numbers are written digit by
+ * digit, and strings char by char, instead of being converted to strings and then to bytes.
+ * <br>
+ * Each thread reuses its own buffer (see {@link #forThread()}), so writing a response allocates nothing once the
+ * buffer has grown to the size of the responses. A buffer which grew beyond {@link #RETAINED_CAPACITY} is
+ * replaced when reset, so a single large response does not pin a large array to the thread.
+ */
+public class JsonBuffer {
+    static final int INITIAL_CAPACITY = 512;
+    static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<JsonBuffer> BUFFERS = ThreadLocal.withInitial(JsonBuffer::new);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the (empty) buffer of the current thread. Must not be used after the thread calls this method again
+     *
+     * @return
+     */
+    public static JsonBuffer forThread() {
+        JsonBuffer buffer = BUFFERS.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    public void reset() {
+        if (bytes.length > RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    public JsonBuffer writeByte(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+        return this;
+    }
+
+    /**
+     * Writes the bytes as is - they must be valid JSON, e.g. a pre-encoded constant
+     */
+    public JsonBuffer writeBytes(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+        return this;
+    }
+
+    public JsonBuffer writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeBytes(MIN_LONG);
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Writes the decimal <code>unscaled * 10^-scale</code>, without trailing zeros but with at least one fraction
+     * digit - like {@link Double#toString(double)} does for the usual amounts, e.g. <code>2.0</code> and
+     * <code>0.25</code> (but never in the scientific notation)
+     *
+     * @param unscaled must not be {@link Long#MIN_VALUE}
+     * @param scale    the number of fraction digits, up to 18
+     * @return
+     */
+    public JsonBuffer writeDecimal(long unscaled, int scale) {
+        if (unscaled < 0) {
+            writeByte('-');
+            unscaled = -unscaled;
+        }
+        long divisor = POWERS_OF_TEN[scale];
+        writeLong(unscaled / divisor);
+        writeByte('.');
+        long fraction = unscaled % divisor;
+        if (fraction == 0) {
+            return writeByte('0');
+        }
+        int digits = scale;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Writes the string as a quoted JSON string, escaping quotes, backslashes and control characters
+     */
+    public JsonBuffer writeString(String value) {
+        ensureCapacity(value.length() + 2);
+        bytes[size++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\').writeByte(c);
+            } else if (c < 0x20) {
+                writeByte('\\').writeByte('u').writeByte('0').writeByte('0')
+                        .writeByte(HEX[c >> 4]).writeByte(HEX[c & 0xf]);
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xc0 | c >> 6).writeByte(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xf0 | codePoint >> 18).writeByte(0x80 | codePoint >> 12 & 0x3f)
+                        .writeByte(0x80 | codePoint >> 6 & 0x3f).writeByte(0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded
+                writeByte('?');
+            } else {
+                writeByte(0xe0 | c >> 12).writeByte(0x80 | c >> 6 & 0x3f).writeByte(0x80 | c & 0x3f);
+            }
+        }
+        return writeByte('"');
+    }
+
+    /**
+     * Writes the chars of an ASCII string as is
+     */
+    public JsonBuffer writeAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            bytes[size++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, size + extra));
+        }
+    }
+}
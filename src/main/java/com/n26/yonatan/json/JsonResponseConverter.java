@@ -0,0 +1,205 @@
+package com.n26.yonatan.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.Status;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the responses of the hot endpoints - transactions, sums, statuses and lists of ids or descendants -
+ * without Jackson's bean serialization, into a per-thread {@link JsonBuffer}, so writing them allocates nothing.
+ * Used unless <code>transactionservice.json.fast-writer.enabled=false</code>.
+ * <br>
+ * Registered ahead of the Jackson converter, so every other response (and every request body) is still handled
+ * by Jackson. The output is the same JSON Jackson writes, except that amounts are written as plain decimals
+ * (e.g. <code>0.0001</code> rather than <code>1.0E-4</code>).
+ * <br>
+ * The amounts are written from their fixed-point units (see {@link AmountScale}), digit by digit - only an amount
+ * which is not a whole number of units is written using {@link Double#toString(double)}.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.json.fast-writer.enabled", havingValue = "true",
+        matchIfMissing = true)
+public class JsonResponseConverter extends AbstractHttpMessageConverter<Object> {
+    private static final byte[] STATUS_OK = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EMPTY_LIST = "[]".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final AmountScale amountScale;
+
+    /**
+     * Writes the elements of lists which are neither ids nor descendants
+     */
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public JsonResponseConverter(AmountScale amountScale, ObjectMapper objectMapper) {
+        super(new MediaType("application", "json", StandardCharsets.UTF_8),
+                new MediaType("application", "*+json", StandardCharsets.UTF_8));
+        this.amountScale = amountScale;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == Transaction.class || clazz == Sum.class || clazz == Status.class
+                || clazz == TransactionNode.class || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Only writing is supported");
+    }
+
+    /**
+     * The response is written into the buffer, and then to the output stream in a single write
+     */
+    @Override
+    protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+        write(value, outputMessage.getBody());
+    }
+
+    /**
+     * Writes the value as JSON to the stream
+     *
+     * @param value  one of the supported types
+     * @param out
+     * @throws IOException
+     */
+    public void write(Object value, OutputStream out) throws IOException {
+        write(value, JsonBuffer.forThread()).writeTo(out);
+    }
+
+    JsonBuffer write(Object value, JsonBuffer buffer) throws IOException {
+        buffer.reset();
+        if (value instanceof Transaction) {
+            writeTransaction((Transaction) value, buffer);
+        } else if (value instanceof Sum) {
+            buffer.writeAscii("{\"sum\":");
+            writeAmount(((Sum) value).getSum(), amountScale, buffer);
+            buffer.writeByte('}');
+        } else if (value instanceof Status) {
+            writeStatus((Status) value, buffer);
+        } else if (value instanceof TransactionNode) {
+            writeNode((TransactionNode) value, amountScale, buffer);
+        } else {
+            writeList((List<?>) value, buffer);
+        }
+        return buffer;
+    }
+
+    private void writeTransaction(Transaction t, JsonBuffer buffer) {
+        buffer.writeAscii("{\"type\":");
+        if (t.getType() == null) {
+            buffer.writeBytes(NULL);
+        } else {
+            buffer.writeString(t.getType());
+        }
+        buffer.writeAscii(",\"amount\":");
+        writeAmount(t.getAmount(), amountScale, buffer);
+        if (t.getParentId() != null) {
+            buffer.writeAscii(",\"parent_id\":").writeLong(t.getParentId());
+        }
+        if (t.getTimestamp() != null) {
+            buffer.writeAscii(",\"timestamp\":").writeLong(t.getTimestamp());
+        }
+        buffer.writeByte('}');
+    }
+
+    private void writeStatus(Status status, JsonBuffer buffer) {
+        if (status.getPath() == null && "ok".equals(status.getStatus())) {
+            buffer.writeBytes(STATUS_OK);
+            return;
+        }
+        buffer.writeAscii("{\"status\":");
+        if (status.getStatus() == null) {
+            buffer.writeBytes(NULL);
+        } else {
+            buffer.writeString(status.getStatus());
+        }
+        if (status.getPath() != null) {
+            buffer.writeAscii(",\"path\":").writeString(status.getPath());
+        }
+        buffer.writeByte('}');
+    }
+
+    /**
+     * Writes the node as an <code>[id, amount, type, parent_id]</code> tuple - also used by the streamed listings,
+     * whichever converter writes the other responses
+     *
+     * @param node
+     * @param amountScale
+     * @param buffer
+     */
+    public static void writeNode(TransactionNode node, AmountScale amountScale, JsonBuffer buffer) {
+        buffer.writeByte('[').writeLong(node.getId()).writeByte(',');
+        writeAmount(node.getAmount(), amountScale, buffer);
+        buffer.writeByte(',');
+        if (node.getType() == null) {
+            buffer.writeBytes(NULL);
+        } else {
+            buffer.writeString(node.getType());
+        }
+        buffer.writeByte(',');
+        if (node.getParentId() == null) {
+            buffer.writeBytes(NULL);
+        } else {
+            buffer.writeLong(node.getParentId());
+        }
+        buffer.writeByte(']');
+    }
+
+    private void writeList(List<?> list, JsonBuffer buffer) throws IOException {
+        if (list.isEmpty()) {
+            buffer.writeBytes(EMPTY_LIST);
+            return;
+        }
+        buffer.writeByte('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                buffer.writeByte(',');
+            }
+            Object element = list.get(i);
+            if (element instanceof Long) {
+                buffer.writeLong((Long) element);
+            } else if (element instanceof TransactionNode) {
+                writeNode((TransactionNode) element, amountScale, buffer);
+            } else {
+                buffer.writeBytes(objectMapper.writeValueAsBytes(element));
+            }
+        }
+        buffer.writeByte(']');
+    }
+
+    private static void writeAmount(double amount, AmountScale amountScale, JsonBuffer buffer) {
+        if (amountScale.isValid(amount)) {
+            long units = amountScale.toUnits(amount);
+            if (amountScale.toAmount(units) == amount) {
+                buffer.writeDecimal(units, amountScale.getScale());
+                return;
+            }
+        }
+        // not a whole number of units (or not a number at all), which the stored amounts never are
+        buffer.writeAscii(Double.isFinite(amount) ? Double.toString(amount) : "null");
+    }
+}
@@ -0,0 +1,161 @@
+package com.n26.yonatan.json;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.dto.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the <code>{type, amount, parent_id, timestamp}</code> bodies of <code>PUT /transaction</code> with a
+ * streaming parser, instead of Jackson's generic data binding - the fields are read straight into the
+ * {@link Transaction}, without any intermediate object.
+ * Used unless <code>transactionservice.json.fast-reader.enabled=false</code>.
+ * <br>
+ * It accepts what the data binding accepts - unknown fields are skipped, numbers may be given as strings, a null
+ * amount is 0. The type is not validated here, but by the
+ * {@link com.n26.yonatan.controller.TransactionValidator}.
+ * <br>
+ * Only reads - it never claims a type for writing, so the responses are left to the other converters. It is not
+ * a {@link org.springframework.http.converter.json.MappingJackson2HttpMessageConverter}, so it is registered
+ * ahead of Jackson's converter rather than replacing it.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.json.fast-reader.enabled", havingValue = "true",
+        matchIfMissing = true)
+public class TransactionRequestConverter extends AbstractJackson2HttpMessageConverter {
+
+    public TransactionRequestConverter() {
+        this(new ObjectMapper());
+    }
+
+    @Autowired
+    public TransactionRequestConverter(ObjectMapper objectMapper) {
+        super(objectMapper, new MediaType("application", "json", StandardCharsets.UTF_8),
+                new MediaType("application", "*+json", StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return type == Transaction.class && canRead(mediaType);
+    }
+
+    @Override
+    public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        return read(inputMessage);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(inputMessage);
+    }
+
+    private Transaction read(HttpInputMessage inputMessage) throws IOException {
+        try {
+            return read(inputMessage.getBody());
+        } catch (JsonParseException e) {
+            throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a transaction from the stream
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     * @throws HttpMessageNotReadableException if the stream does not contain a transaction object
+     */
+    public Transaction read(InputStream in) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HttpMessageNotReadableException("Could not read JSON: a transaction object is expected");
+            }
+            Transaction transaction = new Transaction();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "type":
+                        transaction.setType(value == JsonToken.VALUE_NULL ? null : scalar(parser, field).getText());
+                        break;
+                    case "amount":
+                        transaction.setAmount(doubleValue(parser, field));
+                        break;
+                    case "parent_id":
+                        transaction.setParentId(longValue(parser, field));
+                        break;
+                    case "timestamp":
+                        transaction.setTimestamp(longValue(parser, field));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+                throw new HttpMessageNotReadableException("Could not read JSON: unexpected end of input");
+            }
+            return transaction;
+        }
+    }
+
+    private static JsonParser scalar(JsonParser parser, String field) {
+        if (!parser.getCurrentToken().isScalarValue()) {
+            throw new HttpMessageNotReadableException("Could not read JSON: invalid " + field);
+        }
+        return parser;
+    }
+
+    private static double doubleValue(JsonParser parser, String field) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_NULL:
+                return 0;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                try {
+                    return Double.parseDouble(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw new HttpMessageNotReadableException("Could not read JSON: invalid " + field, e);
+                }
+            default:
+                throw new HttpMessageNotReadableException("Could not read JSON: invalid " + field);
+        }
+    }
+
+    private static Long longValue(JsonParser parser, String field) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getValueAsLong();
+            case VALUE_STRING:
+                try {
+                    return Long.valueOf(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw new HttpMessageNotReadableException("Could not read JSON: invalid " + field, e);
+                }
+            default:
+                throw new HttpMessageNotReadableException("Could not read JSON: invalid " + field);
+        }
+    }
+}
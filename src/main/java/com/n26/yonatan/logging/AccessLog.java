@@ -0,0 +1,216 @@
+package com.n26.yonatan.logging;
+
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.json.JsonBuffer;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A structured access log - a JSON line per request, with its time, method, endpoint, path, status and latency,
+ * written to the <code>access</code> logger. Used unless <code>transactionservice.access-log.enabled=false</code>.
+ * <br>
+ * The request threads only put the entries in an {@link AccessLogRing}, and a background appender thread formats
+ * and writes them, so a request never waits for the logging I/O. When the ring is full the entries are dropped and
+ * counted (<code>dropped_access_log_entries</code> in the metrics) rather than blocking the requests.
+ * <br>
+ * Successful requests are sampled - <code>sample-rate</code> by default, or the rate of their endpoint in
+ * <code>sample-rates</code>. Failed requests (4xx and 5xx) are always logged.
+ * <br>
+ * The writes are audited as well - a JSON line per written transaction, with its id, parent id, type, amount and
+ * the status of the request as its outcome. The audit entries go through the same ring, but are never sampled, and
+ * their drops are counted separately (<code>dropped_audit_log_entries</code>).
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.access-log.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class AccessLog {
+    public static final String DROPPED_ENTRIES = "dropped_access_log_entries";
+    public static final String DROPPED_AUDIT_ENTRIES = "dropped_audit_log_entries";
+    static final String AUDIT_ID_ATTRIBUTE = AccessLog.class.getName() + ".auditId";
+    static final String AUDIT_ATTRIBUTE = AccessLog.class.getName() + ".audit";
+    private static final String ANY_METHOD = "*";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Logger accessLogger = LoggerFactory.getLogger("access");
+    private final AccessLogRing ring;
+    private final double defaultRate;
+    // path pattern -> method (or *) -> sample rate
+    private final Map<String, Map<String, Double>> rates = new HashMap<>();
+    private final Thread appender;
+    private final TransactionMetrics metrics;
+    private volatile boolean running = true;
+
+    /**
+     * @param bufferSize  the capacity of the ring, rounded up to a power of two
+     * @param defaultRate the fraction of the successful requests which are logged
+     * @param sampleRates per endpoint rates, as comma separated <code>[method] pattern=rate</code>, e.g.
+     *                    <code>GET /transactionservice/sum/{transactionId}=0.01</code>
+     */
+    @Autowired
+    public AccessLog(@Value("${transactionservice.access-log.buffer-size:8192}") int bufferSize,
+                     @Value("${transactionservice.access-log.sample-rate:1.0}") double defaultRate,
+                     @Value("${transactionservice.access-log.sample-rates:}") String sampleRates,
+                     TransactionMetrics metrics) {
+        this.ring = new AccessLogRing(bufferSize);
+        this.metrics = metrics;
+        this.defaultRate = defaultRate;
+        for (String entry : sampleRates.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid access log sample rate " + entry);
+            }
+            String endpoint = entry.substring(0, separator).trim();
+            int space = endpoint.indexOf(' ');
+            String method = space < 0 ? ANY_METHOD : endpoint.substring(0, space);
+            String pattern = endpoint.substring(space + 1).trim();
+            rates.computeIfAbsent(pattern, p -> new HashMap<>())
+                    .put(method, Double.valueOf(entry.substring(separator + 1).trim()));
+        }
+        appender = new Thread(this::run, "access-log-appender");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    /**
+     * Logs a completed request, if it is sampled. Does not block, and allocates nothing
+     *
+     * @param method
+     * @param pattern the mapped path pattern of the endpoint
+     * @param path    the requested path
+     * @param status
+     * @param micros  the latency
+     */
+    public void log(String method, String pattern, String path, int status, long micros) {
+        if (status < 400) {
+            double rate = sampleRate(method, pattern);
+            if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+                return;
+            }
+        }
+        if (!ring.offer(System.currentTimeMillis(), method, pattern, path, status, micros)) {
+            // the count of the histogram is the number of dropped entries
+            metrics.recordCount(DROPPED_ENTRIES, 1);
+        }
+    }
+
+    /**
+     * Marks the transaction of the request to be audited, once the request is completed
+     *
+     * @param request
+     * @param transactionId
+     * @param transaction
+     */
+    public static void auditWrite(HttpServletRequest request, long transactionId, Transaction transaction) {
+        request.setAttribute(AUDIT_ID_ATTRIBUTE, transactionId);
+        request.setAttribute(AUDIT_ATTRIBUTE, transaction);
+    }
+
+    /**
+     * Marks the transactions of the request to be audited, once the request is completed
+     *
+     * @param request
+     * @param transactions
+     */
+    public static void auditWrites(HttpServletRequest request, List<BatchTransaction> transactions) {
+        request.setAttribute(AUDIT_ATTRIBUTE, transactions);
+    }
+
+    /**
+     * Logs the write of a transaction - never sampled. Does not block, and allocates nothing
+     *
+     * @param id
+     * @param parentId
+     * @param type
+     * @param amount
+     * @param status   the outcome of the write
+     */
+    public void audit(long id, Long parentId, String type, double amount, int status) {
+        if (!ring.offerAudit(System.currentTimeMillis(), id, parentId, type, amount, status)) {
+            metrics.recordCount(DROPPED_AUDIT_ENTRIES, 1);
+        }
+    }
+
+    double sampleRate(String method, String pattern) {
+        Map<String, Double> byMethod = rates.get(pattern);
+        if (byMethod == null) {
+            return defaultRate;
+        }
+        Double rate = byMethod.get(method);
+        if (rate == null) {
+            rate = byMethod.get(ANY_METHOD);
+        }
+        return rate == null ? defaultRate : rate;
+    }
+
+    private void run() {
+        JsonBuffer buffer = JsonBuffer.forThread();
+        AccessLogRing.Visitor writer = new AccessLogRing.Visitor() {
+            @Override
+            public void entry(long time, String method, String endpoint, String path, int status, long micros) {
+                buffer.reset();
+                buffer.writeAscii("{\"time\":").writeLong(time)
+                        .writeAscii(",\"method\":").writeString(method)
+                        .writeAscii(",\"endpoint\":").writeString(endpoint)
+                        .writeAscii(",\"path\":").writeString(path)
+                        .writeAscii(",\"status\":").writeLong(status)
+                        .writeAscii(",\"micros\":").writeLong(micros)
+                        .writeByte('}');
+                accessLogger.info(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void audit(long time, long id, Long parentId, String type, double amount, int status) {
+                buffer.reset();
+                buffer.writeAscii("{\"time\":").writeLong(time)
+                        .writeAscii(",\"audit\":\"write\",\"id\":").writeLong(id);
+                if (parentId != null) {
+                    buffer.writeAscii(",\"parent_id\":").writeLong(parentId);
+                }
+                buffer.writeAscii(",\"type\":").writeString(type)
+                        .writeAscii(",\"amount\":").writeAscii(Double.toString(amount))
+                        .writeAscii(",\"status\":").writeLong(status)
+                        .writeByte('}');
+                accessLogger.info(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+            }
+        };
+        while (running) {
+            try {
+                if (ring.drain(writer) == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (RuntimeException e) {
+                log.error("Cannot write the access log", e);
+            }
+        }
+        ring.drain(writer);
+    }
+
+    /**
+     * Stops the appender, once it has written the remaining entries
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        appender.join();
+    }
+}
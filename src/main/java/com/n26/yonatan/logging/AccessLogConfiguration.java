@@ -0,0 +1,23 @@
+package com.n26.yonatan.logging;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Registers the access log interceptor, unless the access log is disabled
+ */
+@Configuration
+public class AccessLogConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired(required = false)
+    private AccessLog accessLog;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (accessLog != null) {
+            registry.addInterceptor(new AccessLogInterceptor(accessLog));
+        }
+    }
+}
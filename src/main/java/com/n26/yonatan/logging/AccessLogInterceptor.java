@@ -0,0 +1,62 @@
+package com.n26.yonatan.logging;
+
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/**
+ * Passes each completed request to the {@link AccessLog}. As with the metrics, an asynchronous request is timed
+ * from its first dispatch, and logged once it is completed by the second - along with the audit entries of the
+ * transactions the handler marked as written, whose outcome is the status of the request.
+ */
+class AccessLogInterceptor extends HandlerInterceptorAdapter {
+    private static final String START_ATTRIBUTE = AccessLogInterceptor.class.getName() + ".start";
+
+    private final AccessLog accessLog;
+
+    AccessLogInterceptor(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (start != null && pattern != null) {
+            // an exception no handler resolved is turned into a 500 after this, by the container
+            int status = ex != null ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+            accessLog.log(request.getMethod(), (String) pattern, request.getRequestURI(), status,
+                    (System.nanoTime() - start) / 1000);
+            audit(request, status);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void audit(HttpServletRequest request, int status) {
+        Object written = request.getAttribute(AccessLog.AUDIT_ATTRIBUTE);
+        if (written instanceof Transaction) {
+            Transaction transaction = (Transaction) written;
+            long id = (Long) request.getAttribute(AccessLog.AUDIT_ID_ATTRIBUTE);
+            accessLog.audit(id, transaction.getParentId(), transaction.getType(), transaction.getAmount(), status);
+        } else if (written != null) {
+            for (BatchTransaction transaction : (List<BatchTransaction>) written) {
+                accessLog.audit(transaction.getId(), transaction.getParentId(), transaction.getType(),
+                        transaction.getAmount(), status);
+            }
+        }
+    }
+}
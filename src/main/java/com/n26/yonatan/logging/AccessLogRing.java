@@ -0,0 +1,177 @@
+package com.n26.yonatan.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free ring buffer of access log and audit entries, written by any number of request threads and
+ * drained by a single thread.
+ * <br>
+ * The entries are kept in preallocated parallel arrays, so offering an entry allocates nothing. Each slot carries
+ * a sequence number: a producer claims the next slot with a single CAS on the tail, fills it, and publishes it by
+ * advancing its sequence; the consumer frees it by advancing it again, a lap ahead. When the ring is full the
+ * entry is dropped - producers never wait for the consumer.
+ */
+public class AccessLogRing {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // read and written by the consumer only
+    private long head;
+
+    private final long[] times;
+    private final String[] methods;
+    private final String[] endpoints;
+    private final String[] paths;
+    private final int[] statuses;
+    private final long[] micros;
+    // whether the slot holds an audit entry, whose fields follow
+    private final boolean[] audits;
+    private final long[] ids;
+    private final Long[] parentIds;
+    private final String[] types;
+    private final double[] amounts;
+
+    /**
+     * A consumer of the drained entries
+     */
+    public interface Visitor {
+        void entry(long time, String method, String endpoint, String path, int status, long micros);
+
+        /**
+         * Consumes an audit entry. Skipped by default
+         */
+        default void audit(long time, long id, Long parentId, String type, double amount, int status) {
+        }
+    }
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public AccessLogRing(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        times = new long[size];
+        methods = new String[size];
+        endpoints = new String[size];
+        paths = new String[size];
+        statuses = new int[size];
+        micros = new long[size];
+        audits = new boolean[size];
+        ids = new long[size];
+        parentIds = new Long[size];
+        types = new String[size];
+        amounts = new double[size];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an entry, unless the ring is full
+     *
+     * @return false if the entry was dropped
+     */
+    public boolean offer(long time, String method, String endpoint, String path, int status, long micros) {
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        int slot = (int) position & mask;
+        audits[slot] = false;
+        times[slot] = time;
+        methods[slot] = method;
+        endpoints[slot] = endpoint;
+        paths[slot] = path;
+        statuses[slot] = status;
+        this.micros[slot] = micros;
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Adds an audit entry of a written transaction, unless the ring is full
+     *
+     * @param status the outcome of the write
+     * @return false if the entry was dropped
+     */
+    public boolean offerAudit(long time, long id, Long parentId, String type, double amount, int status) {
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        int slot = (int) position & mask;
+        audits[slot] = true;
+        times[slot] = time;
+        ids[slot] = id;
+        parentIds[slot] = parentId;
+        types[slot] = type;
+        amounts[slot] = amount;
+        statuses[slot] = status;
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * @return the claimed position, or -1 if the ring is full
+     */
+    private long claim() {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // the slot is a lap behind - not drained yet
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Passes the published entries to the visitor, in the order they were claimed, and frees their slots.
+     * If the visitor throws, the entry is freed and the exception is thrown - the next drain continues after it.
+     * Must be called by a single thread
+     *
+     * @param visitor
+     * @return the number of entries drained
+     */
+    public int drain(Visitor visitor) {
+        int count = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                return count;
+            }
+            try {
+                if (audits[slot]) {
+                    visitor.audit(times[slot], ids[slot], parentIds[slot], types[slot], amounts[slot], statuses[slot]);
+                } else {
+                    visitor.entry(times[slot], methods[slot], endpoints[slot], paths[slot], statuses[slot],
+                            micros[slot]);
+                }
+            } finally {
+                // an entry the visitor failed on is dropped, rather than blocking the ring
+                methods[slot] = null;
+                endpoints[slot] = null;
+                paths[slot] = null;
+                parentIds[slot] = null;
+                types[slot] = null;
+                sequences.lazySet(slot, head + mask + 1);
+                head++;
+                count++;
+            }
+        }
+    }
+}
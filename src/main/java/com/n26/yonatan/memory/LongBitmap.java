@@ -0,0 +1,205 @@
+package com.n26.yonatan.memory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * A compressed sorted set of longs, in the spirit of roaring bitmaps.
+ * <br>
+ * The ids are split by their high 48 bits into containers of 2^16 values. A sparse container keeps the low 16 bits
+ * of its values in a sorted char array (2 bytes per id), and a dense container is converted to a plain bitmap of
+ * 8KB (less than 2 bytes per id beyond 4096 ids). Dense id ranges cost as little as 1 bit per id.
+ * <br>
+ * The cardinality is maintained, so counting is O(1).
+ * <br>
+ * Not thread safe - callers must synchronize access.
+ */
+public class LongBitmap {
+    private static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = (1 << 16) / 64;
+
+    private final TreeMap<Long, Container> containers = new TreeMap<>();
+    private long cardinality;
+
+    /**
+     * Adds the value to the set
+     *
+     * @param value
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        Long high = value >> 16;
+        char low = (char) value;
+        Container container = containers.get(high);
+        if (container == null) {
+            container = new ArrayContainer();
+            containers.put(high, container);
+        }
+        if (container.contains(low)) {
+            return false;
+        }
+        Container updated = container.add(low);
+        if (updated != container) {
+            containers.put(high, updated);
+        }
+        cardinality++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        Container container = containers.get(value >> 16);
+        return container != null && container.contains((char) value);
+    }
+
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Passes all the values, in ascending order, to the consumer
+     *
+     * @param consumer
+     */
+    public void forEach(LongConsumer consumer) {
+        for (Map.Entry<Long, Container> entry : containers.entrySet()) {
+            entry.getValue().forEach(entry.getKey() << 16, consumer);
+        }
+    }
+
+    /**
+     * Passes up to limit values, starting from the given value (inclusive) in ascending order, to the consumer.
+     * Skips directly to the container of the starting value, so paging through the set costs O(limit) per page.
+     *
+     * @param from
+     * @param limit
+     * @param consumer
+     */
+    public void forEachFrom(long from, int limit, LongConsumer consumer) {
+        long fromHigh = from >> 16;
+        int remaining = limit;
+        for (Map.Entry<Long, Container> entry : containers.tailMap(fromHigh, true).entrySet()) {
+            if (remaining <= 0) {
+                return;
+            }
+            char fromLow = entry.getKey() == fromHigh ? (char) from : 0;
+            remaining -= entry.getValue().forEachFrom(entry.getKey() << 16, fromLow, remaining, consumer);
+        }
+    }
+
+    private interface Container {
+        boolean contains(char low);
+
+        /**
+         * Adds a value which is not in the container
+         *
+         * @return the container that holds the value - either this one, or a replacement
+         */
+        Container add(char low);
+
+        void forEach(long base, LongConsumer consumer);
+
+        /**
+         * @return the number of values passed to the consumer
+         */
+        int forEachFrom(long base, char fromLow, int limit, LongConsumer consumer);
+    }
+
+    private static class ArrayContainer implements Container {
+        private char[] values = new char[4];
+        private int size;
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            if (size == ARRAY_CONTAINER_MAX_SIZE) {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int i = 0; i < size; i++) {
+                    bitmap.add(values[i]);
+                }
+                return bitmap.add(low);
+            }
+            int index = -Arrays.binarySearch(values, 0, size, low) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size << 1, ARRAY_CONTAINER_MAX_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer consumer) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        public int forEachFrom(long base, char fromLow, int limit, LongConsumer consumer) {
+            int start = Arrays.binarySearch(values, 0, size, fromLow);
+            if (start < 0) {
+                start = -start - 1;
+            }
+            int end = Math.min(size, start + limit);
+            for (int i = start; i < end; i++) {
+                consumer.accept(base | values[i]);
+            }
+            return end - start;
+        }
+    }
+
+    private static class BitmapContainer implements Container {
+        private final long[] words = new long[BITMAP_WORDS];
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container add(char low) {
+            words[low >>> 6] |= 1L << low;
+            return this;
+        }
+
+        @Override
+        public void forEach(long base, LongConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public int forEachFrom(long base, char fromLow, int limit, LongConsumer consumer) {
+            int count = 0;
+            int i = fromLow >>> 6;
+            // clear the bits below the starting value in its word
+            long word = words[i] & (-1L << fromLow);
+            while (true) {
+                while (word != 0) {
+                    if (count == limit) {
+                        return count;
+                    }
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    count++;
+                    word &= word - 1;
+                }
+                if (++i == words.length) {
+                    return count;
+                }
+                word = words[i];
+            }
+        }
+    }
+}
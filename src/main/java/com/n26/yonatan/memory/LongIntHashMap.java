@@ -0,0 +1,133 @@
+package com.n26.yonatan.memory;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) map of primitive long keys to primitive int values.
+ * Avoids the boxing and the per-entry objects of a {@link java.util.HashMap}.
+ * <br>
+ * Not thread safe - callers must synchronize access.
+ */
+public class LongIntHashMap {
+    public static final int MISSING = -1;
+
+    private static final long FREE_KEY = 0;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    // the key 0 marks a free cell, so its value is kept on the side
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Returns the value mapped to the key, or {@link #MISSING} if not mapped
+     *
+     * @param key
+     * @return
+     */
+    public int get(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : MISSING;
+        }
+        int i = index(key);
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE_KEY) {
+                return MISSING;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Maps the key to the value, unless the key is already mapped
+     *
+     * @param key
+     * @param value must not be negative
+     * @return the existing value, or {@link #MISSING} if the value was mapped
+     */
+    public int putIfAbsent(long key, int value) {
+        if (key == FREE_KEY) {
+            if (hasFreeKey) {
+                return freeKeyValue;
+            }
+            hasFreeKey = true;
+            freeKeyValue = value;
+            size++;
+            return MISSING;
+        }
+        int i = index(key);
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE_KEY) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size >= threshold) {
+                    rehash(keys.length << 1);
+                }
+                return MISSING;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int index(long key) {
+        // murmur3 finalizer, spreads sequential ids over the table
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long k = oldKeys[i];
+            if (k != FREE_KEY) {
+                int j = index(k);
+                while (keys[j] != FREE_KEY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = k;
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.n26.yonatan.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshots the in-memory storage periodically, so the log replayed on startup stays short.
+ * Enabled by <code>transactionservice.storage.memory.snapshot.interval-ms</code>, along with the transaction log.
+ * A last snapshot is taken on shutdown.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage.memory.snapshot.interval-ms")
+@Slf4j
+public class SnapshotScheduler {
+    private final TransactionGraph graph;
+    private final ScheduledExecutorService executor;
+
+    @Autowired
+    public SnapshotScheduler(TransactionGraph graph,
+                             @Value("${transactionservice.storage.memory.snapshot.interval-ms}") long intervalMillis) {
+        this.graph = graph;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "transaction-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void snapshot() {
+        try {
+            graph.snapshot();
+        } catch (RuntimeException e) {
+            // the log still covers everything, try again on the next round
+            log.error("Cannot write a snapshot", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        snapshot();
+    }
+}
@@ -0,0 +1,764 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.aggregate.TypeAggregates;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.amount.ExactAdder;
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory transaction storage, used when <code>transactionservice.storage=memory</code>.
+ * <br>
+ * Each transaction is kept in a slot of parallel primitive arrays (id, parent id, amount, type code and timestamp),
+ * and the ids are mapped to their slots by a primitive hash map. That keeps the per-transaction overhead at
+ * a few dozens of bytes, and does not create any object per stored transaction. The amounts are stored as
+ * fixed-point units (see {@link AmountScale}), so the totals and the aggregates are exact.
+ * <br>
+ * The ids of each type are kept in an inverted index of compressed sorted sets, so listing the ids of a type
+ * does not scan the arrays, and counting them is O(1). The running aggregates of the amounts of each type are
+ * kept as well, so the statistics of a type are O(1) too.
+ * <br>
+ * Each transaction also carries the running total of its subtree, so summing is a single read. The ancestors'
+ * totals are updated outside of the write lock, by a CAS on a primitive total per slot. A total whose CAS fails
+ * (e.g. of a root shared by many concurrent inserts) is inflated to a striped accumulator, which takes its further
+ * additions - so only the contended totals cost an object, and concurrent inserts under the same subtree do not
+ * contend on a single value. A total which no longer fits in a long is detected, and its sum fails instead of
+ * wrapping.
+ * <br>
+ * The children of each transaction are linked through their slots (first child and next sibling) in ascending
+ * order of their ids, so a subtree is listed depth first without scanning the arrays, and a page of it is resumed
+ * from its last transaction. A child is linked in O(1) when its id is the largest of its siblings (as with ids
+ * which only grow), and in O(siblings) otherwise.
+ * <br>
+ * Slot allocation is serialized using a write lock, reads can run concurrently.
+ * <br>
+ * When a {@link TransactionLog} is configured, every transaction is appended to it when it is applied, and the
+ * graph is rebuilt on startup by loading the last snapshot (if any) and replaying the log written after it.
+ * The log is forced after the write lock is released, so a slow fsync does not block the other writers and the
+ * readers, and concurrent writers share their fsyncs. A write returns only once it is durable, but may be seen by
+ * other requests (and included in snapshots) just before.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage", havingValue = "memory")
+@Slf4j
+public class TransactionGraph {
+    public static final long NO_PARENT = Long.MIN_VALUE;
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int NO_SLOT = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final LongIntHashMap slots;
+    private long[] ids;
+    private long[] parents;
+    private long[] amounts;
+    private int[] types;
+    private long[] timestamps;
+    private AtomicLongArray totals;
+    // the striped accumulators of the contended totals, null for the rest
+    private AtomicReferenceArray<ExactAdder> contendedTotals;
+    // the children lists, in ascending order of the ids - the slots of the first and the last child of each slot,
+    // and the slot of its next sibling
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int size;
+
+    private final List<String> typeNames = new ArrayList<>();
+    private final Map<String, Integer> typeCodes = new HashMap<>();
+    // inverted index - the ids of each type code, sorted and compressed
+    private final List<LongBitmap> typeIndex = new ArrayList<>();
+    private final TypeAggregates typeAggregates;
+
+    private final AmountScale amountScale;
+    private final TransactionLog transactionLog;
+    private final TransactionSnapshotStore snapshotStore;
+    private final TransactionMetrics metrics;
+
+    public TransactionGraph(int initialCapacity) {
+        this(initialCapacity, new AmountScale(), Optional.empty(), Optional.empty(), new TransactionMetrics());
+    }
+
+    @Autowired
+    public TransactionGraph(@Value("${transactionservice.storage.memory.initial-capacity:1024}") int initialCapacity,
+                            AmountScale amountScale,
+                            Optional<TransactionLog> transactionLog,
+                            Optional<TransactionSnapshotStore> snapshotStore,
+                            TransactionMetrics metrics) {
+        this.amountScale = amountScale;
+        this.metrics = metrics;
+        this.typeAggregates = new TypeAggregates(amountScale);
+        this.transactionLog = transactionLog.orElse(null);
+        this.snapshotStore = snapshotStore.orElse(null);
+        TransactionSnapshotStore.Snapshot snapshot = this.snapshotStore == null ? null : this.snapshotStore.read();
+        if (snapshot != null) {
+            slots = new LongIntHashMap(Math.max(initialCapacity, snapshot.size));
+            restore(snapshot);
+        } else {
+            slots = new LongIntHashMap(initialCapacity);
+            ids = new long[initialCapacity];
+            parents = new long[initialCapacity];
+            amounts = new long[initialCapacity];
+            types = new int[initialCapacity];
+            timestamps = new long[initialCapacity];
+            totals = new AtomicLongArray(initialCapacity);
+            contendedTotals = new AtomicReferenceArray<>(initialCapacity);
+            firstChild = new int[initialCapacity];
+            lastChild = new int[initialCapacity];
+            nextSibling = new int[initialCapacity];
+        }
+        if (this.transactionLog != null) {
+            replay(snapshot == null ? 0 : snapshot.logPosition);
+        }
+    }
+
+    /**
+     * Loads the columns of the snapshot as is, and rebuilds the rest - the slots map, the type index, the children
+     * lists and the totals
+     */
+    private void restore(TransactionSnapshotStore.Snapshot snapshot) {
+        ids = snapshot.ids;
+        parents = snapshot.parents;
+        amounts = snapshot.amounts;
+        types = snapshot.types;
+        timestamps = snapshot.timestamps;
+        size = snapshot.size;
+        totals = new AtomicLongArray(ids.length);
+        contendedTotals = new AtomicReferenceArray<>(ids.length);
+        firstChild = new int[ids.length];
+        lastChild = new int[ids.length];
+        nextSibling = new int[ids.length];
+        snapshot.typeNames.forEach(this::registerType);
+        for (int slot = 0; slot < size; slot++) {
+            slots.putIfAbsent(ids[slot], slot);
+            linkChild(slot);
+            typeIndex.get(types[slot]).add(ids[slot]);
+            typeAggregates.add(typeNames.get(types[slot]), amounts[slot]);
+        }
+        // parents always precede their children, so a single pass from the last slot up accumulates each subtree
+        long[] subtotals = Arrays.copyOf(amounts, size);
+        boolean[] overflowed = new boolean[size];
+        for (int slot = size - 1; slot >= 0; slot--) {
+            if (parents[slot] != NO_PARENT) {
+                int parentSlot = slots.get(parents[slot]);
+                long subtotal = subtotals[parentSlot] + subtotals[slot];
+                if (overflowed[slot] || ((subtotals[parentSlot] ^ subtotal) & (subtotals[slot] ^ subtotal)) < 0) {
+                    overflowed[parentSlot] = true;
+                }
+                subtotals[parentSlot] = subtotal;
+            }
+            totals.set(slot, subtotals[slot]);
+            if (overflowed[slot]) {
+                ExactAdder contended = new ExactAdder();
+                contended.overflow();
+                contendedTotals.set(slot, contended);
+            }
+        }
+        log.info("Restored {} transactions from a snapshot", size);
+    }
+
+    private void replay(long from) {
+        transactionLog.replay(new TransactionLog.Visitor() {
+            @Override
+            public void type(int code, String name) {
+                if (code != typeNames.size()) {
+                    throw new IllegalStateException("Unexpected type code " + code + " of type " + name);
+                }
+                registerType(name);
+            }
+
+            @Override
+            public void transaction(long id, long parentId, long units, int typeCode, long timestamp) {
+                insert(id, parentId, units, typeCode, timestamp);
+                if (parentId != NO_PARENT) {
+                    addToAncestors(parentId, units);
+                }
+            }
+        }, from);
+        log.info("Restored {} transactions from the transaction log", size);
+    }
+
+    /**
+     * Writes a snapshot of the graph, and deletes the log segments it covers.
+     * The read lock is held only to capture the state - the slots below the size never change (except for their
+     * totals, which are not stored), so the arrays are written without copying them while writes go on.
+     */
+    public void snapshot() {
+        if (snapshotStore == null) {
+            throw new IllegalStateException("Snapshots require a transaction log");
+        }
+        TransactionSnapshotStore.Snapshot snapshot;
+        lock.readLock().lock();
+        try {
+            snapshot = new TransactionSnapshotStore.Snapshot(transactionLog.position(), size, ids, parents, amounts,
+                    types, timestamps, new ArrayList<>(typeNames));
+        } finally {
+            lock.readLock().unlock();
+        }
+        snapshotStore.write(snapshot);
+        transactionLog.deleteSegmentsBefore(snapshot.logPosition);
+    }
+
+    /**
+     * Add a transaction to the graph.
+     * Throws an exception if the transaction already exists, or if its parent is missing
+     *
+     * @param id
+     * @param parentId the parent id, or null for a root transaction
+     * @param amount
+     * @param type
+     */
+    public void add(long id, Long parentId, double amount, String type) {
+        add(id, parentId, amount, type, null);
+    }
+
+    /**
+     * Add a transaction to the graph.
+     * Throws an exception if the transaction already exists, or if its parent is missing
+     *
+     * @param id
+     * @param parentId  the parent id, or null for a root transaction
+     * @param amount
+     * @param type
+     * @param timestamp the epoch millis of the transaction, or null
+     */
+    public void add(long id, Long parentId, double amount, String type, Long timestamp) {
+        validateId(id);
+        long units = amountScale.toUnits(amount);
+        long logged = 0;
+        lock.writeLock().lock();
+        try {
+            if (slots.containsKey(id)) {
+                throw new ConflictException("conflict");
+            }
+            if (parentId != null && !slots.containsKey(parentId)) {
+                throw new BadRequestException("parent not found");
+            }
+            long parent = parentId == null ? NO_PARENT : parentId;
+            int code = typeCode(type);
+            long time = timestamp == null ? NO_TIMESTAMP : timestamp;
+            if (transactionLog != null) {
+                transactionLog.appendTransaction(id, parent, units, code, time);
+                logged = transactionLog.position();
+            }
+            insert(id, parent, units, code, time);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (parentId != null) {
+            addToAncestors(parentId, units);
+        }
+        if (transactionLog != null) {
+            transactionLog.flush(logged);
+        }
+    }
+
+    /**
+     * Add a batch of transactions to the graph, atomically - either all of them are added, or none.
+     * Throws an exception if any of the transactions already exists, or if a parent is missing
+     *
+     * @param transactions ordered such that parents within the batch precede their children
+     */
+    public void addAll(List<BatchTransaction> transactions) {
+        Set<Long> batchIds = new HashSet<>();
+        long[] units = new long[transactions.size()];
+        for (int i = 0; i < units.length; i++) {
+            BatchTransaction t = transactions.get(i);
+            validateId(t.getId());
+            units[i] = amountScale.toUnits(t.getAmount());
+            batchIds.add(t.getId());
+        }
+        long logged = 0;
+        lock.writeLock().lock();
+        try {
+            for (BatchTransaction t : transactions) {
+                if (slots.containsKey(t.getId())) {
+                    throw new ConflictException("conflict");
+                }
+                if (t.getParentId() != null && !batchIds.contains(t.getParentId())
+                        && !slots.containsKey(t.getParentId())) {
+                    throw new BadRequestException("parent not found");
+                }
+            }
+            if (transactionLog != null) {
+                // new types are logged before the batch, so the batch records are contiguous
+                for (BatchTransaction t : transactions) {
+                    typeCode(t.getType());
+                }
+                transactionLog.appendBatch(transactions.size());
+                for (int i = 0; i < units.length; i++) {
+                    BatchTransaction t = transactions.get(i);
+                    transactionLog.appendTransaction(t.getId(), parentOf(t), units[i], typeCode(t.getType()),
+                            timestampOf(t));
+                }
+                logged = transactionLog.position();
+            }
+            for (int i = 0; i < units.length; i++) {
+                BatchTransaction t = transactions.get(i);
+                insert(t.getId(), parentOf(t), units[i], typeCode(t.getType()), timestampOf(t));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (int i = 0; i < units.length; i++) {
+            BatchTransaction t = transactions.get(i);
+            if (t.getParentId() != null) {
+                addToAncestors(t.getParentId(), units[i]);
+            }
+        }
+        if (transactionLog != null) {
+            // a single flush for the whole batch
+            transactionLog.flush(logged);
+        }
+    }
+
+    /**
+     * Add a transaction of a partition of the graph, whose parent may be stored by another partition.
+     * The parent is not verified, and only the total of the transaction itself is set - the totals of the
+     * ancestors are updated by the caller, using {@link #addToSubtreeTotals(long, double)} on their partitions.
+     * Throws an exception if the transaction already exists
+     *
+     * @param id
+     * @param parentId the parent id, or null for a root transaction
+     * @param amount
+     * @param type
+     * @param timestamp the epoch millis of the transaction, or null
+     */
+    public void addPartitioned(long id, Long parentId, double amount, String type, Long timestamp) {
+        if (transactionLog != null) {
+            // the totals updates of other partitions are not logged, so the totals could not be restored
+            throw new IllegalStateException("Partitions of the graph cannot be logged");
+        }
+        validateId(id);
+        long units = amountScale.toUnits(amount);
+        lock.writeLock().lock();
+        try {
+            if (slots.containsKey(id)) {
+                throw new ConflictException("conflict");
+            }
+            insert(id, parentId == null ? NO_PARENT : parentId, units, typeCode(type),
+                    timestamp == null ? NO_TIMESTAMP : timestamp);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the amount to the totals of the transaction and its ancestors, as long as they are stored in this
+     * partition. Throws an exception if the transaction is not found
+     *
+     * @param id
+     * @param amount
+     * @return the first ancestor which is not stored in this partition, or {@link #NO_PARENT} if the root was reached
+     */
+    public long addToSubtreeTotals(long id, double amount) {
+        lock.readLock().lock();
+        try {
+            slotOf(id);
+            return addToAncestors(id, amountScale.toUnits(amount));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long parentOf(BatchTransaction t) {
+        return t.getParentId() == null ? NO_PARENT : t.getParentId();
+    }
+
+    private static long timestampOf(BatchTransaction t) {
+        return t.getTimestamp() == null ? NO_TIMESTAMP : t.getTimestamp();
+    }
+
+    private void validateId(long id) {
+        if (id == NO_PARENT) {
+            throw new BadRequestException("invalid transaction id");
+        }
+    }
+
+    /**
+     * Stores the transaction in a new slot. Must be called under the write lock
+     */
+    private void insert(long id, long parentId, long amount, int typeCode, long timestamp) {
+        if (size == ids.length) {
+            grow();
+        }
+        int slot = size;
+        ids[slot] = id;
+        parents[slot] = parentId;
+        amounts[slot] = amount;
+        types[slot] = typeCode;
+        timestamps[slot] = timestamp;
+        typeIndex.get(types[slot]).add(id);
+        typeAggregates.add(typeNames.get(typeCode), amount);
+        totals.set(slot, amount);
+        slots.putIfAbsent(id, slot);
+        linkChild(slot);
+        size++;
+    }
+
+    /**
+     * Adds the slot to the children list of its parent, in the order of its id, if the parent is stored in the graph
+     */
+    private void linkChild(int slot) {
+        firstChild[slot] = NO_SLOT;
+        lastChild[slot] = NO_SLOT;
+        nextSibling[slot] = NO_SLOT;
+        if (parents[slot] == NO_PARENT) {
+            return;
+        }
+        int parentSlot = slots.get(parents[slot]);
+        if (parentSlot == LongIntHashMap.MISSING) {
+            return;
+        }
+        int last = lastChild[parentSlot];
+        if (last == NO_SLOT) {
+            firstChild[parentSlot] = slot;
+            lastChild[parentSlot] = slot;
+        } else if (ids[last] < ids[slot]) {
+            nextSibling[last] = slot;
+            lastChild[parentSlot] = slot;
+        } else {
+            // smaller than the last sibling, so there is a larger one to insert it before
+            int previous = NO_SLOT;
+            int next = firstChild[parentSlot];
+            while (ids[next] < ids[slot]) {
+                previous = next;
+                next = nextSibling[next];
+            }
+            nextSibling[slot] = next;
+            if (previous == NO_SLOT) {
+                firstChild[parentSlot] = slot;
+            } else {
+                nextSibling[previous] = slot;
+            }
+        }
+    }
+
+    /**
+     * Adds the amount to the totals of the transaction and all its ancestors, up to the first ancestor which is
+     * not stored in the graph - which is possible only in a partition of the graph.
+     * The read lock is enough, as the chain itself is immutable - it only guards the arrays from being replaced.
+     *
+     * @param id
+     * @param amount in units
+     * @return the first ancestor which is not stored, or {@link #NO_PARENT}
+     */
+    private long addToAncestors(long id, long amount) {
+        lock.readLock().lock();
+        try {
+            long ancestor = id;
+            int depth = 0;
+            while (ancestor != NO_PARENT) {
+                int slot = slots.get(ancestor);
+                if (slot == LongIntHashMap.MISSING) {
+                    break;
+                }
+                addToTotal(slot, amount);
+                ancestor = parents[slot];
+                depth++;
+            }
+            metrics.recordCount(TransactionMetrics.ANCESTOR_WALK_DEPTH, depth);
+            return ancestor;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the amount to the total of the slot - by a CAS on the primitive total, or once it failed, through the
+     * striped accumulator of the slot. An addition which would overflow the primitive total goes to the accumulator
+     * as well, so the overflow is detected when the two are summed. Must be called under a lock, so the arrays are
+     * not replaced
+     */
+    private void addToTotal(int slot, long amount) {
+        ExactAdder contended = contendedTotals.get(slot);
+        if (contended == null) {
+            long total = totals.get(slot);
+            long sum = total + amount;
+            if (((total ^ sum) & (amount ^ sum)) >= 0 && totals.compareAndSet(slot, total, sum)) {
+                return;
+            }
+            contendedTotals.compareAndSet(slot, null, new ExactAdder());
+            contended = contendedTotals.get(slot);
+        }
+        contended.add(amount);
+    }
+
+    /**
+     * @throws ArithmeticException if the total overflowed
+     */
+    private long total(int slot) {
+        ExactAdder contended = contendedTotals.get(slot);
+        return contended == null ? totals.get(slot) : Math.addExact(totals.get(slot), contended.sum());
+    }
+
+    /**
+     * Find a transaction with the id.
+     * Throws an exception if not found
+     *
+     * @param id
+     * @return
+     */
+    public Transaction find(long id) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(id);
+            Transaction transaction = new Transaction();
+            transaction.setAmount(amountScale.toAmount(amounts[slot]));
+            transaction.setType(typeNames.get(types[slot]));
+            if (parents[slot] != NO_PARENT) {
+                transaction.setParentId(parents[slot]);
+            }
+            if (timestamps[slot] != NO_TIMESTAMP) {
+                transaction.setTimestamp(timestamps[slot]);
+            }
+            return transaction;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of all the transactions of the type
+     *
+     * @param type
+     * @return
+     */
+    public List<Long> idsByType(String type) {
+        lock.readLock().lock();
+        try {
+            Integer code = typeCodes.get(type);
+            if (code == null) {
+                return new ArrayList<>();
+            }
+            LongBitmap index = typeIndex.get(code);
+            List<Long> result = new ArrayList<>((int) index.cardinality());
+            index.forEach(result::add);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the ids of the transactions of the type, in ascending order
+     *
+     * @param type
+     * @param after the last id of the previous page (exclusive), or null for the first page
+     * @param limit the maximal number of ids to return
+     * @return
+     */
+    public List<Long> idsByType(String type, Long after, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer code = typeCodes.get(type);
+            if (code == null || (after != null && after == Long.MAX_VALUE)) {
+                return new ArrayList<>();
+            }
+            LongBitmap index = typeIndex.get(code);
+            List<Long> result = new ArrayList<>((int) Math.min(limit, index.cardinality()));
+            index.forEachFrom(after == null ? Long.MIN_VALUE : after + 1, limit, result::add);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a page of the descendants of the transaction (not including the transaction itself), depth first -
+     * each transaction followed by its subtree, and the children in ascending order of their ids. A page resumes the
+     * walk from the last descendant of the previous page, so it costs O(limit + depth) regardless of its position.
+     * Throws an exception if not found
+     *
+     * @param id
+     * @param after    the last descendant of the previous page (exclusive), or null for the first page
+     * @param limit    the maximal number of descendants to return
+     * @param maxDepth the maximal distance from the transaction - 1 for its children only
+     * @return
+     * @throws BadRequestException if after is not a descendant within the depth
+     */
+    public List<TransactionNode> descendants(long id, Long after, int limit, int maxDepth) {
+        lock.readLock().lock();
+        try {
+            int root = slotOf(id);
+            int slot = root;
+            int depth = 0;
+            if (after != null) {
+                slot = slots.get(after);
+                depth = slot == LongIntHashMap.MISSING ? -1 : depthBelow(root, slot);
+                if (depth < 1 || depth > maxDepth) {
+                    throw new BadRequestException("invalid after");
+                }
+            }
+            List<TransactionNode> result = new ArrayList<>(Math.min(limit, 1024));
+            while (result.size() < limit) {
+                if (depth < maxDepth && firstChild[slot] != NO_SLOT) {
+                    slot = firstChild[slot];
+                    depth++;
+                } else {
+                    // the next sibling of the slot, or of its nearest ancestor which has one
+                    while (slot != root && nextSibling[slot] == NO_SLOT) {
+                        slot = slots.get(parents[slot]);
+                        depth--;
+                    }
+                    if (slot == root) {
+                        break;
+                    }
+                    slot = nextSibling[slot];
+                }
+                result.add(new TransactionNode(ids[slot], amountScale.toAmount(amounts[slot]),
+                        typeNames.get(types[slot]), parents[slot] == NO_PARENT ? null : parents[slot]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the distance of the slot below the root, or -1 if it is not a descendant of the root
+     */
+    private int depthBelow(int root, int slot) {
+        int depth = 0;
+        while (slot != root) {
+            if (parents[slot] == NO_PARENT) {
+                return -1;
+            }
+            slot = slots.get(parents[slot]);
+            if (slot == LongIntHashMap.MISSING) {
+                return -1;
+            }
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of transactions of the type, in O(1)
+     *
+     * @param type
+     * @return
+     */
+    public long countByType(String type) {
+        lock.readLock().lock();
+        try {
+            Integer code = typeCodes.get(type);
+            return code == null ? 0 : typeIndex.get(code).cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the aggregates of the amounts of the transactions of the type, in O(1)
+     *
+     * @param type
+     * @return
+     */
+    public TypeStats statsByType(String type) {
+        return typeAggregates.stats(type);
+    }
+
+    /**
+     * Returns the sum of the amounts of the transaction and all its descendants.
+     * Throws an exception if not found
+     *
+     * @param id
+     * @return
+     */
+    public double sum(long id) {
+        lock.readLock().lock();
+        try {
+            return amountScale.toAmount(total(slotOf(id)));
+        } catch (ArithmeticException e) {
+            throw new ServerErrorException("sum overflow");
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int slotOf(long id) {
+        int slot = slots.get(id);
+        if (slot == LongIntHashMap.MISSING) {
+            throw new NotFoundException("not found");
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the code of the type, registering (and logging) new types. Must be called under the write lock
+     */
+    private int typeCode(String type) {
+        Integer code = typeCodes.get(type);
+        if (code == null) {
+            if (transactionLog != null) {
+                transactionLog.appendType(typeNames.size(), type);
+            }
+            code = registerType(type);
+        }
+        return code;
+    }
+
+    private int registerType(String type) {
+        int code = typeNames.size();
+        typeNames.add(type);
+        typeCodes.put(type, code);
+        typeIndex.add(new LongBitmap());
+        return code;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, ids.length << 1);
+        log.debug("Growing transaction graph to {} slots", capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        AtomicLongArray grownTotals = new AtomicLongArray(capacity);
+        AtomicReferenceArray<ExactAdder> grownContended = new AtomicReferenceArray<>(capacity);
+        for (int slot = 0; slot < size; slot++) {
+            grownTotals.set(slot, totals.get(slot));
+            grownContended.set(slot, contendedTotals.get(slot));
+        }
+        totals = grownTotals;
+        contendedTotals = grownContended;
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+}
@@ -0,0 +1,493 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.amount.AmountScale;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the in-memory storage, enabled by setting
+ * <code>transactionservice.storage.memory.log.dir</code>.
+ * <br>
+ * The log is a sequence of segment files of a fixed size, each memory mapped, so an append is a few puts into
+ * the page cache - no system call and no copy. Each record is laid out as
+ * <code>[int length][int crc32][byte kind][payload]</code>:
+ * <ul>
+ * <li>a transaction record has a fixed payload - id, parent id, amount in units, the scale of the units, type code
+ * and timestamp (37 bytes). Records written before the amounts were stored as units (with a double amount, and
+ * with or without the timestamp) are still replayed, and so are units of another scale - both are converted to
+ * the current scale</li>
+ * <li>a type record maps a type code to its name, and precedes the first transaction of the type</li>
+ * <li>a batch record precedes the transactions of a batch, with their count. A batch whose transactions were not
+ * all written is discarded entirely on replay, to keep the batch atomic - and zero filled, so the records appended
+ * next are not taken for the rest of the batch</li>
+ * </ul>
+ * A zero length marks the end of a segment (the unwritten part of a mapped file is zero filled), and a record
+ * that does not match its checksum marks a torn write at the tail of the log.
+ * <br>
+ * The records are forced to the disk either on every {@link #flush(long)} (<code>fsync-interval-ms=0</code>), or
+ * periodically, in which case a crash may lose the writes of the last interval. Flushing may run concurrently with
+ * the appends, so the callers force outside of their lock, and concurrent flushes share a single force.
+ * <br>
+ * Appends are not thread safe - they must be serialized by the caller.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage.memory.log.dir")
+@Slf4j
+public class TransactionLog {
+    static final int HEADER_SIZE = 9;
+    static final int TRANSACTION_PAYLOAD_SIZE = 37;
+
+    private static final byte TYPE_RECORD = 1;
+    private static final byte TRANSACTION_RECORD = 2;
+    private static final byte BATCH_RECORD = 3;
+    private static final byte TIMESTAMPED_TRANSACTION_RECORD = 4;
+    private static final byte UNITS_TRANSACTION_RECORD = 5;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Receives the records of the log, in the order they were appended
+     */
+    public interface Visitor {
+        void type(int code, String name);
+
+        /**
+         * @param amount    in units of the log's {@link AmountScale}
+         * @param timestamp the epoch millis, or {@link TransactionGraph#NO_TIMESTAMP}
+         */
+        void transaction(long id, long parentId, long amount, int typeCode, long timestamp);
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final AmountScale amountScale;
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService fsyncExecutor;
+
+    private int segmentIndex;
+    private volatile MappedByteBuffer segment;
+    // the position after the last sealed record
+    private volatile long appended;
+    private final Object fsyncLock = new Object();
+    // the position up to which the records were forced, guarded by the fsync lock
+    private long forced;
+
+    public TransactionLog(String dir, int segmentSize, long fsyncIntervalMillis) {
+        this(dir, segmentSize, fsyncIntervalMillis, new AmountScale());
+    }
+
+    @Autowired
+    public TransactionLog(@Value("${transactionservice.storage.memory.log.dir}") String dir,
+                          @Value("${transactionservice.storage.memory.log.segment-size:67108864}") int segmentSize,
+                          @Value("${transactionservice.storage.memory.log.fsync-interval-ms:0}")
+                                  long fsyncIntervalMillis,
+                          AmountScale amountScale) {
+        this.dir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.amountScale = amountScale;
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IllegalStateException("Cannot create the transaction log directory " + dir);
+        }
+        if (fsyncIntervalMillis > 0) {
+            fsyncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "transaction-log-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fsyncExecutor.scheduleWithFixedDelay(this::force, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            fsyncExecutor = null;
+        }
+    }
+
+    /**
+     * Passes all the records of the log to the visitor, and positions the log for appending after the last one.
+     * A torn record at the tail of the log is discarded. Must be called once, before appending.
+     *
+     * @param visitor
+     */
+    public void replay(Visitor visitor) {
+        replay(visitor, 0);
+    }
+
+    /**
+     * Passes the records of the log from the position on to the visitor, and positions the log for appending
+     * after the last one. Must be called once, before appending.
+     *
+     * @param visitor
+     * @param from    a position returned by {@link #position()}, e.g. of the last snapshot
+     */
+    public void replay(Visitor visitor, long from) {
+        int fromSegment = (int) (from >>> 32);
+        File[] segments = segmentFiles();
+        long records = 0;
+        BatchReplay batch = new BatchReplay(visitor);
+        Map<Integer, MappedByteBuffer> replayed = new TreeMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            boolean last = i == segments.length - 1;
+            int index = segmentIndex(segments[i]);
+            if (index < fromSegment) {
+                continue;
+            }
+            MappedByteBuffer buffer = map(segments[i]);
+            replayed.put(index, buffer);
+            if (index == fromSegment) {
+                buffer.position((int) from);
+            }
+            records += replaySegment(index, buffer, batch, last);
+            if (last) {
+                segmentIndex = index;
+                segment = buffer;
+            }
+        }
+        if (segment == null) {
+            segmentIndex = fromSegment;
+            segment = map(segmentFile(fromSegment));
+            segment.position((int) from);
+        }
+        if (batch.remaining > 0) {
+            log.warn("Discarding a partially written batch of {} transactions at segment {} offset {}",
+                    batch.ids.length, batch.startSegment, batch.startOffset);
+            // the batch may span segments - all of them are zero filled from its start, and appended to from there
+            for (Map.Entry<Integer, MappedByteBuffer> entry : replayed.entrySet()) {
+                if (entry.getKey() > batch.startSegment) {
+                    zeroFill(entry.getValue(), 0);
+                }
+            }
+            segmentIndex = batch.startSegment;
+            segment = replayed.get(batch.startSegment);
+            zeroFill(segment, batch.startOffset);
+        }
+        appended = position();
+        forced = appended;
+        log.info("Replayed {} records from {} segments of the transaction log", records, segments.length);
+    }
+
+    private long replaySegment(int index, MappedByteBuffer buffer, BatchReplay visitor, boolean last) {
+        long records = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                return records;
+            }
+            int checksum = buffer.getInt();
+            if (length < HEADER_SIZE || length > buffer.remaining() + 8
+                    || checksum(buffer, start, length) != checksum) {
+                if (!last) {
+                    throw new IllegalStateException("Corrupted transaction log record at " + start);
+                }
+                log.warn("Discarding a torn transaction log record at {}", start);
+                zeroFill(buffer, start);
+                return records;
+            }
+            byte kind = buffer.get();
+            if (kind == TYPE_RECORD) {
+                int code = buffer.getInt();
+                byte[] name = new byte[length - HEADER_SIZE - 4];
+                buffer.get(name);
+                visitor.type(code, new String(name, StandardCharsets.UTF_8));
+            } else if (kind == UNITS_TRANSACTION_RECORD) {
+                long id = buffer.getLong();
+                long parentId = buffer.getLong();
+                long units = buffer.getLong();
+                int scale = buffer.get();
+                if (scale != amountScale.getScale()) {
+                    units = amountScale.toUnits(units / Math.pow(10, scale));
+                }
+                visitor.transaction(id, parentId, units, buffer.getInt(), buffer.getLong());
+            } else if (kind == TIMESTAMPED_TRANSACTION_RECORD) {
+                visitor.transaction(buffer.getLong(), buffer.getLong(),
+                        amountScale.toUnits(Double.longBitsToDouble(buffer.getLong())), buffer.getInt(),
+                        buffer.getLong());
+            } else if (kind == TRANSACTION_RECORD) {
+                visitor.transaction(buffer.getLong(), buffer.getLong(),
+                        amountScale.toUnits(Double.longBitsToDouble(buffer.getLong())), buffer.getInt(),
+                        TransactionGraph.NO_TIMESTAMP);
+            } else if (kind == BATCH_RECORD) {
+                visitor.batch(buffer.getInt(), index, start);
+            } else {
+                throw new IllegalStateException("Unknown transaction log record kind " + kind + " at " + start);
+            }
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Zero fills the buffer from the offset to its end, and positions it at the offset
+     */
+    private static void zeroFill(MappedByteBuffer buffer, int offset) {
+        buffer.position(offset);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.position(offset);
+    }
+
+    /**
+     * Appends a type record
+     *
+     * @param code
+     * @param name
+     */
+    public void appendType(int code, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int start = reserve(HEADER_SIZE + 4 + bytes.length);
+        segment.put(TYPE_RECORD).putInt(code).put(bytes);
+        seal(start);
+    }
+
+    /**
+     * Appends a batch record. Must be followed by the transaction records of the batch, without other records
+     *
+     * @param count the number of transactions in the batch
+     */
+    public void appendBatch(int count) {
+        int start = reserve(HEADER_SIZE + 4);
+        segment.put(BATCH_RECORD).putInt(count);
+        seal(start);
+    }
+
+    /**
+     * Appends a transaction record
+     *
+     * @param id
+     * @param parentId
+     * @param amount    in units
+     * @param typeCode
+     * @param timestamp the epoch millis, or {@link TransactionGraph#NO_TIMESTAMP}
+     */
+    public void appendTransaction(long id, long parentId, long amount, int typeCode, long timestamp) {
+        int start = reserve(HEADER_SIZE + TRANSACTION_PAYLOAD_SIZE);
+        segment.put(UNITS_TRANSACTION_RECORD).putLong(id).putLong(parentId).putLong(amount)
+                .put((byte) amountScale.getScale()).putInt(typeCode).putLong(timestamp);
+        seal(start);
+    }
+
+    /**
+     * Returns the position after the last appended record - the segment index in the high 32 bits,
+     * and the offset within the segment in the low 32 bits
+     *
+     * @return
+     */
+    public long position() {
+        return ((long) segmentIndex << 32) | segment.position();
+    }
+
+    /**
+     * Deletes the segments which precede the position entirely, e.g. once they are covered by a snapshot
+     *
+     * @param position a position returned by {@link #position()}
+     */
+    public void deleteSegmentsBefore(long position) {
+        int before = (int) (position >>> 32);
+        for (File file : segmentFiles()) {
+            if (segmentIndex(file) < before) {
+                log.debug("Deleting transaction log segment {}", file);
+                if (!file.delete()) {
+                    log.warn("Cannot delete transaction log segment {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes all the appended records durable, unless they are forced periodically
+     */
+    public void flush() {
+        flush(appended);
+    }
+
+    /**
+     * Makes the records appended up to the position durable, unless they are forced periodically.
+     * Does not require the appends to be serialized with it - if another caller forced the log after the position
+     * was appended, the records are durable already, and a force covers all the records appended before it starts.
+     *
+     * @param position a position returned by {@link #position()} after appending the records
+     */
+    public void flush(long position) {
+        if (fsyncExecutor != null) {
+            return;
+        }
+        synchronized (fsyncLock) {
+            if (forced >= position) {
+                return;
+            }
+            long target = appended;
+            // a segment is forced when it is rolled, so forcing the current one covers the target
+            force();
+            forced = target;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdown();
+        }
+        force();
+    }
+
+    private void force() {
+        MappedByteBuffer current = segment;
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Positions the segment at the start of a record of the length, after its header. Rolls to a new segment
+     * if the record does not fit in the current one.
+     *
+     * @return the start of the record
+     */
+    private int reserve(int length) {
+        if (segment == null) {
+            throw new IllegalStateException("The transaction log must be replayed before appending");
+        }
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + length + " bytes exceeds the segment size");
+        }
+        if (segment.remaining() < length) {
+            segment.force();
+            segmentIndex++;
+            segment = map(segmentFile(segmentIndex));
+        }
+        int start = segment.position();
+        segment.putInt(length).putInt(0);
+        return start;
+    }
+
+    /**
+     * Writes the checksum of the record
+     */
+    private void seal(int start) {
+        int length = segment.position() - start;
+        segment.putInt(start + 4, checksum(segment, start, length));
+        appended = position();
+    }
+
+    private int checksum(MappedByteBuffer buffer, int start, int length) {
+        crc.reset();
+        // the length and the payload, skipping the checksum itself - each range in a single update, read straight
+        // from the mapped memory
+        ByteBuffer record = buffer.duplicate();
+        record.limit(start + 4).position(start);
+        crc.update(record);
+        record.limit(start + length).position(start + 8);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Passes the records to the visitor, holding back the transactions of a batch until all of them are replayed
+     */
+    private static class BatchReplay implements Visitor {
+        private final Visitor visitor;
+        private int remaining;
+        // where the record of the current batch starts
+        private int startSegment;
+        private int startOffset;
+        private long[] ids;
+        private long[] parentIds;
+        private long[] amounts;
+        private int[] typeCodes;
+        private long[] timestamps;
+
+        BatchReplay(Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        void batch(int count, int segment, int offset) {
+            if (remaining > 0) {
+                throw new IllegalStateException("A batch record within a batch");
+            }
+            remaining = count;
+            startSegment = segment;
+            startOffset = offset;
+            ids = new long[count];
+            parentIds = new long[count];
+            amounts = new long[count];
+            typeCodes = new int[count];
+            timestamps = new long[count];
+        }
+
+        @Override
+        public void type(int code, String name) {
+            if (remaining > 0) {
+                throw new IllegalStateException("A type record within a batch");
+            }
+            visitor.type(code, name);
+        }
+
+        @Override
+        public void transaction(long id, long parentId, long amount, int typeCode, long timestamp) {
+            if (remaining == 0) {
+                visitor.transaction(id, parentId, amount, typeCode, timestamp);
+                return;
+            }
+            int i = ids.length - remaining;
+            ids[i] = id;
+            parentIds[i] = parentId;
+            amounts[i] = amount;
+            typeCodes[i] = typeCode;
+            timestamps[i] = timestamp;
+            if (--remaining == 0) {
+                for (int j = 0; j < ids.length; j++) {
+                    visitor.transaction(ids[j], parentIds[j], amounts[j], typeCodes[j], timestamps[j]);
+                }
+            }
+        }
+    }
+
+    private File[] segmentFiles() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IllegalStateException("Cannot list the transaction log directory " + dir);
+        }
+        Arrays.sort(files, (f1, f2) -> Integer.compare(segmentIndex(f1), segmentIndex(f2)));
+        return files;
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static int segmentIndex(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map transaction log segment " + file, e);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.amount.AmountScale;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores snapshots of the in-memory storage next to its {@link TransactionLog}, so a restart loads the snapshot
+ * and replays only the log written after it.
+ * <br>
+ * A snapshot is a header (the log position it covers, the number of transactions, the type names and the scale
+ * of the amounts) followed by the columns of the graph - ids, parent ids, amounts (in units), type codes and
+ * timestamps - each written as a single block of primitives, in the native byte order. Loading a column is a bulk
+ * copy into a primitive array, optionally straight out of a memory mapping of the file, instead of parsing a record
+ * per transaction.
+ * <br>
+ * A snapshot is written to a temporary file, forced to the disk and then renamed, so there is always a complete
+ * snapshot to restore from.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.storage.memory.log.dir")
+@Slf4j
+public class TransactionSnapshotStore {
+    private static final int MAGIC = 0x4e323653;
+    private static final int VERSION = 3;
+    // the previous versions stored the amounts as doubles, and the first had no timestamps column either
+    private static final int VERSION_WITHOUT_TIMESTAMPS = 1;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int CHUNK_SIZE = 1 << 20;
+    // the largest mapping is 2GB, the columns are mapped in chunks of 1GB
+    private static final int MAPPING_SIZE = 1 << 30;
+
+    /**
+     * The state of the graph. The arrays may be longer than the size, only the first size elements are stored
+     */
+    public static class Snapshot {
+        final long logPosition;
+        final int size;
+        final long[] ids;
+        final long[] parents;
+        final long[] amounts;
+        final int[] types;
+        final long[] timestamps;
+        final List<String> typeNames;
+
+        Snapshot(long logPosition, int size, long[] ids, long[] parents, long[] amounts, int[] types,
+                 long[] timestamps, List<String> typeNames) {
+            this.logPosition = logPosition;
+            this.size = size;
+            this.ids = ids;
+            this.parents = parents;
+            this.amounts = amounts;
+            this.types = types;
+            this.timestamps = timestamps;
+            this.typeNames = typeNames;
+        }
+    }
+
+    private final File file;
+    private final boolean mmap;
+    private final AmountScale amountScale;
+
+    public TransactionSnapshotStore(String dir, boolean mmap) {
+        this(dir, mmap, new AmountScale());
+    }
+
+    @Autowired
+    public TransactionSnapshotStore(@Value("${transactionservice.storage.memory.log.dir}") String dir,
+                                    @Value("${transactionservice.storage.memory.snapshot.mmap:true}") boolean mmap,
+                                    AmountScale amountScale) {
+        this.file = new File(dir, SNAPSHOT_FILE);
+        this.mmap = mmap;
+        this.amountScale = amountScale;
+    }
+
+    /**
+     * Writes the snapshot, replacing the previous one
+     *
+     * @param snapshot
+     */
+    public void write(Snapshot snapshot) {
+        long start = System.currentTimeMillis();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(snapshot.logPosition).putInt(snapshot.size)
+                    .putInt(snapshot.typeNames.size()).putInt(amountScale.getScale());
+            for (String typeName : snapshot.typeNames) {
+                byte[] bytes = typeName.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 2 + bytes.length) {
+                    drain(channel, buffer);
+                }
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+            drain(channel, buffer);
+            for (int i = 0; i < snapshot.size; ) {
+                int n = Math.min(snapshot.size - i, CHUNK_SIZE / 8);
+                buffer.asLongBuffer().put(snapshot.ids, i, n);
+                buffer.position(n * 8);
+                drain(channel, buffer);
+                i += n;
+            }
+            for (int i = 0; i < snapshot.size; ) {
+                int n = Math.min(snapshot.size - i, CHUNK_SIZE / 8);
+                buffer.asLongBuffer().put(snapshot.parents, i, n);
+                buffer.position(n * 8);
+                drain(channel, buffer);
+                i += n;
+            }
+            for (int i = 0; i < snapshot.size; ) {
+                int n = Math.min(snapshot.size - i, CHUNK_SIZE / 8);
+                buffer.asLongBuffer().put(snapshot.amounts, i, n);
+                buffer.position(n * 8);
+                drain(channel, buffer);
+                i += n;
+            }
+            for (int i = 0; i < snapshot.size; ) {
+                int n = Math.min(snapshot.size - i, CHUNK_SIZE / 4);
+                buffer.asIntBuffer().put(snapshot.types, i, n);
+                buffer.position(n * 4);
+                drain(channel, buffer);
+                i += n;
+            }
+            for (int i = 0; i < snapshot.size; ) {
+                int n = Math.min(snapshot.size - i, CHUNK_SIZE / 8);
+                buffer.asLongBuffer().put(snapshot.timestamps, i, n);
+                buffer.position(n * 8);
+                drain(channel, buffer);
+                i += n;
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write a snapshot to " + tmp, e);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replace the snapshot " + file, e);
+        }
+        log.info("Wrote a snapshot of {} transactions in {}ms", snapshot.size, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reads the last snapshot
+     *
+     * @return the snapshot, or null if no snapshot was written yet
+     */
+    public Snapshot read() {
+        if (!file.exists()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ColumnReader reader = mmap ? new MappedColumnReader(channel) : new ChannelColumnReader(channel);
+            ByteBuffer header = reader.next(24);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAGIC || version < VERSION_WITHOUT_TIMESTAMPS || version > VERSION) {
+                throw new IllegalStateException("Unknown snapshot format " + file);
+            }
+            long logPosition = header.getLong();
+            int size = header.getInt();
+            int typeCount = header.getInt();
+            if (version == VERSION) {
+                int scale = reader.next(4).getInt();
+                if (scale != amountScale.getScale()) {
+                    // the log stores the scale of each amount, so it could be replayed in another scale - but not
+                    // the snapshot, which might have lost decimal places when it was written
+                    throw new IllegalStateException("The snapshot amounts are scaled by 10^" + scale
+                            + ", but transactionservice.amount.scale is " + amountScale.getScale());
+                }
+            }
+            List<String> typeNames = new ArrayList<>(typeCount);
+            for (int i = 0; i < typeCount; i++) {
+                byte[] bytes = new byte[reader.next(2).getShort()];
+                reader.next(bytes.length).get(bytes);
+                typeNames.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            long[] ids = new long[size];
+            long[] parents = new long[size];
+            long[] amounts = new long[size];
+            int[] types = new int[size];
+            long[] timestamps = new long[size];
+            for (int i = 0; i < size; ) {
+                int n = Math.min(size - i, CHUNK_SIZE / 8);
+                reader.next(n * 8).asLongBuffer().get(ids, i, n);
+                i += n;
+            }
+            for (int i = 0; i < size; ) {
+                int n = Math.min(size - i, CHUNK_SIZE / 8);
+                reader.next(n * 8).asLongBuffer().get(parents, i, n);
+                i += n;
+            }
+            double[] doubleAmounts = version == VERSION ? null : new double[CHUNK_SIZE / 8];
+            for (int i = 0; i < size; ) {
+                int n = Math.min(size - i, CHUNK_SIZE / 8);
+                if (version == VERSION) {
+                    reader.next(n * 8).asLongBuffer().get(amounts, i, n);
+                } else {
+                    reader.next(n * 8).asDoubleBuffer().get(doubleAmounts, 0, n);
+                    for (int j = 0; j < n; j++) {
+                        amounts[i + j] = amountScale.toUnits(doubleAmounts[j]);
+                    }
+                }
+                i += n;
+            }
+            for (int i = 0; i < size; ) {
+                int n = Math.min(size - i, CHUNK_SIZE / 4);
+                reader.next(n * 4).asIntBuffer().get(types, i, n);
+                i += n;
+            }
+            if (version == VERSION_WITHOUT_TIMESTAMPS) {
+                Arrays.fill(timestamps, TransactionGraph.NO_TIMESTAMP);
+            }
+            for (int i = 0; i < size && version != VERSION_WITHOUT_TIMESTAMPS; ) {
+                int n = Math.min(size - i, CHUNK_SIZE / 8);
+                reader.next(n * 8).asLongBuffer().get(timestamps, i, n);
+                i += n;
+            }
+            log.info("Read a snapshot of {} transactions in {}ms", size, System.currentTimeMillis() - start);
+            return new Snapshot(logPosition, size, ids, parents, amounts, types, timestamps, typeNames);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the snapshot " + file, e);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads the snapshot file sequentially
+     */
+    private interface ColumnReader {
+        /**
+         * Returns a buffer positioned at the next bytes of the file, with at least the requested bytes remaining.
+         * At most {@link #CHUNK_SIZE} bytes can be requested at once
+         */
+        ByteBuffer next(int bytes) throws IOException;
+    }
+
+    /**
+     * Maps the file, and reads straight out of the page cache
+     */
+    private static class MappedColumnReader implements ColumnReader {
+        private final FileChannel channel;
+        private ByteBuffer mapping;
+        private long mappingStart;
+
+        MappedColumnReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer next(int bytes) throws IOException {
+            if (mapping == null || mapping.remaining() < bytes) {
+                long position = mapping == null ? 0 : mappingStart + mapping.position();
+                long length = Math.min(MAPPING_SIZE, channel.size() - position);
+                if (length < bytes) {
+                    throw new IllegalStateException("Truncated snapshot");
+                }
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, position, length)
+                        .order(ByteOrder.nativeOrder());
+                mappingStart = position;
+            }
+            ByteBuffer slice = mapping.slice().order(ByteOrder.nativeOrder());
+            slice.limit(bytes);
+            mapping.position(mapping.position() + bytes);
+            return slice;
+        }
+    }
+
+    /**
+     * Reads the file through a direct buffer
+     */
+    private static class ChannelColumnReader implements ColumnReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.nativeOrder());
+
+        ChannelColumnReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer next(int bytes) throws IOException {
+            buffer.clear().limit(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IllegalStateException("Truncated snapshot");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
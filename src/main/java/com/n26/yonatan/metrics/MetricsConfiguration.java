@@ -0,0 +1,48 @@
+package com.n26.yonatan.metrics;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.sql.DataSource;
+
+/**
+ * Registers the request metrics interceptor, and counts the SQL statements executed through the data source
+ * (unless <code>transactionservice.metrics.count-statements=false</code>)
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private TransactionMetrics metrics;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new MetricsInterceptor(metrics));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "transactionservice.metrics.count-statements", havingValue = "true",
+            matchIfMissing = true)
+    public static BeanPostProcessor statementCountingPostProcessor(TransactionMetrics metrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                return bean;
+            }
+
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof DataSource && !(bean instanceof StatementCountingDataSource)) {
+                    return new StatementCountingDataSource((DataSource) bean, metrics);
+                }
+                return bean;
+            }
+        };
+    }
+}
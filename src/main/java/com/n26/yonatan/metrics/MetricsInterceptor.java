@@ -0,0 +1,45 @@
+package com.n26.yonatan.metrics;
+
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the latency of each request by its endpoint - the method and the mapped path pattern,
+ * e.g. <code>GET /transactionservice/sum/{transactionId}</code>
+ * <br>
+ * An asynchronous request is dispatched twice - it is timed from the first dispatch, and recorded once it is
+ * completed by the second.
+ */
+class MetricsInterceptor extends HandlerInterceptorAdapter {
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+    private static final String STATEMENTS_ATTRIBUTE = MetricsInterceptor.class.getName() + ".statements";
+
+    private final TransactionMetrics metrics;
+
+    MetricsInterceptor(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+            request.setAttribute(STATEMENTS_ATTRIBUTE, metrics.startRequest());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Long start = (Long) request.getAttribute(START_ATTRIBUTE);
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (start != null && pattern != null) {
+            metrics.endRequest(request.getMethod() + " " + pattern, start,
+                    (long[]) request.getAttribute(STATEMENTS_ATTRIBUTE));
+        }
+    }
+}
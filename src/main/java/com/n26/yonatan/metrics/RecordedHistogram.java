@@ -0,0 +1,37 @@
+package com.n26.yonatan.metrics;
+
+import com.n26.yonatan.dto.HistogramStats;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A histogram of non-negative values, with 3 significant digits over any range.
+ * <br>
+ * Recording is wait-free - an increment of a bucket of a concurrent HDR histogram, without locks or allocation.
+ * Reading swaps the recording histogram with a spare one, and accumulates the swapped one into the totals,
+ * so readers never block the recording threads.
+ */
+public class RecordedHistogram {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram spare;
+
+    public void record(long value) {
+        recorder.recordValue(Math.max(0, value));
+    }
+
+    /**
+     * Returns the summary of all the values recorded so far
+     *
+     * @return
+     */
+    public synchronized HistogramStats stats() {
+        spare = recorder.getIntervalHistogram(spare);
+        total.add(spare);
+        return new HistogramStats(total.getTotalCount(), total.getTotalCount() == 0 ? 0 : total.getMinValue(),
+                total.getMaxValue(), total.getMean(), total.getValueAtPercentile(50),
+                total.getValueAtPercentile(99), total.getValueAtPercentile(99.9));
+    }
+}
@@ -0,0 +1,28 @@
+package com.n26.yonatan.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the latency of each public method of the transaction service, by the method name
+ */
+@Aspect
+@Component
+public class ServiceMetricsAspect {
+
+    @Autowired
+    private TransactionMetrics metrics;
+
+    @Around("execution(public * com.n26.yonatan.service.TransactionService.*(..))")
+    public Object recordLatency(ProceedingJoinPoint joinPoint) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            metrics.recordLatency(TransactionMetrics.SERVICES, joinPoint.getSignature().getName(), start);
+        }
+    }
+}
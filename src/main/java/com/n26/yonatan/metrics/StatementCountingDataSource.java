@@ -0,0 +1,69 @@
+package com.n26.yonatan.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Counts the SQL statements executed through the data source, by the executing thread.
+ * A JDBC batch is a single statement - a single round-trip to the DB.
+ * <br>
+ * Connections and statements are wrapped by dynamic proxies, so both Hibernate and the JdbcTemplate are counted.
+ */
+class StatementCountingDataSource extends DelegatingDataSource {
+    private final TransactionMetrics metrics;
+
+    StatementCountingDataSource(DataSource target, TransactionMetrics metrics) {
+        super(target);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return (Connection) wrap(Connection.class, super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return (Connection) wrap(Connection.class, super.getConnection(username, password));
+    }
+
+    /**
+     * Returns a proxy implementing the interface, to be cast by the caller
+     */
+    private Object wrap(Class<?> type, Object target) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new CountingHandler(target));
+    }
+
+    private class CountingHandler implements InvocationHandler {
+        private final Object target;
+
+        CountingHandler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().startsWith("execute") && target instanceof Statement) {
+                metrics.countStatement();
+            } else if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                // createStatement, prepareStatement or prepareCall - a proxy of the declared statement type
+                return wrap(method.getReturnType(), result);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.n26.yonatan.metrics;
+
+import com.n26.yonatan.dto.HistogramStats;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the endpoints and the service methods, and histograms of hot path counters -
+ * e.g. how many SQL statements a request executes, or how many rows a sum scans.
+ * <br>
+ * Histograms are created on first use, by name. Latencies are recorded in microseconds.
+ */
+@Component
+public class TransactionMetrics {
+    public static final String ENDPOINTS = "endpoints";
+    public static final String SERVICES = "services";
+    public static final String COUNTERS = "counters";
+
+    public static final String SQL_STATEMENTS_PER_REQUEST = "sql_statements_per_request";
+    public static final String CLOSURE_ROWS_PER_INSERT = "closure_rows_per_insert";
+    public static final String ANCESTOR_WALK_DEPTH = "ancestor_walk_depth";
+    public static final String SUM_ROWS_SCANNED = "sum_rows_scanned";
+
+    private final Map<String, ConcurrentMap<String, RecordedHistogram>> groups = new LinkedHashMap<>();
+
+    // the SQL statements counter of the request the current thread works on behalf of
+    private final ThreadLocal<long[]> requestStatements = new ThreadLocal<>();
+
+    public TransactionMetrics() {
+        groups.put(ENDPOINTS, new ConcurrentHashMap<>());
+        groups.put(SERVICES, new ConcurrentHashMap<>());
+        groups.put(COUNTERS, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Records the latency of an operation
+     *
+     * @param group       either {@link #ENDPOINTS} or {@link #SERVICES}
+     * @param name
+     * @param startNanos  the {@link System#nanoTime()} when the operation started
+     */
+    public void recordLatency(String group, String name, long startNanos) {
+        histogram(group, name).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Records a value of a counter, e.g. the depth of a single ancestor walk
+     *
+     * @param name
+     * @param value
+     */
+    public void recordCount(String name, long value) {
+        histogram(COUNTERS, name).record(value);
+    }
+
+    /**
+     * Starts counting the SQL statements executed by the current thread, on behalf of a new request
+     *
+     * @return the statements counter of the request
+     */
+    public long[] startRequest() {
+        long[] statements = new long[1];
+        requestStatements.set(statements);
+        return statements;
+    }
+
+    /**
+     * Returns the statements counter of the request the current thread works on behalf of, or null if none
+     *
+     * @return
+     */
+    public long[] currentRequest() {
+        return requestStatements.get();
+    }
+
+    /**
+     * Counts the SQL statements executed by the current thread on behalf of a request which was started on another
+     * thread - e.g. when the request is handed over to an executor
+     *
+     * @param statements the statements counter of the request, or null to stop counting
+     */
+    public void continueRequest(long[] statements) {
+        if (statements == null) {
+            requestStatements.remove();
+        } else {
+            requestStatements.set(statements);
+        }
+    }
+
+    /**
+     * Counts an SQL statement executed by the current thread
+     */
+    public void countStatement() {
+        long[] statements = requestStatements.get();
+        if (statements != null) {
+            statements[0]++;
+        }
+    }
+
+    /**
+     * Records the latency of the request, and the number of SQL statements it executed
+     *
+     * @param endpoint
+     * @param startNanos the {@link System#nanoTime()} when the request started
+     * @param statements the statements counter of the request
+     */
+    public void endRequest(String endpoint, long startNanos, long[] statements) {
+        recordLatency(ENDPOINTS, endpoint, startNanos);
+        recordCount(SQL_STATEMENTS_PER_REQUEST, statements[0]);
+    }
+
+    private RecordedHistogram histogram(String group, String name) {
+        ConcurrentMap<String, RecordedHistogram> histograms = groups.get(group);
+        // get first, as computeIfAbsent locks even when the histogram exists
+        RecordedHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, n -> new RecordedHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the summaries of all the histograms, by group and name
+     *
+     * @return
+     */
+    public Map<String, Map<String, HistogramStats>> stats() {
+        Map<String, Map<String, HistogramStats>> stats = new LinkedHashMap<>();
+        groups.forEach((group, histograms) -> {
+            Map<String, HistogramStats> groupStats = new TreeMap<>();
+            histograms.forEach((name, histogram) -> groupStats.put(name, histogram.stats()));
+            stats.put(group, groupStats);
+        });
+        return stats;
+    }
+}
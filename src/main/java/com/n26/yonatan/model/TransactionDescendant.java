@@ -5,7 +5,9 @@ import lombok.Data;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 
 /**
  * This entity maps for each entity all their descendants (direct and indirect)
@@ -13,6 +15,8 @@ import javax.persistence.ManyToOne;
  */
 @Entity
 @Data
+//the descendants of each transaction ordered by their ids, for keyset pagination of the /descendants requests
+@Table(indexes = @Index(columnList = "parent_id, descendant_id", name = "parent_descendant_index"))
 public class TransactionDescendant {
 
     @Id
@@ -24,4 +28,9 @@ public class TransactionDescendant {
 
     @ManyToOne(optional = false)
     private TransactionEntity descendant;
+
+    /**
+     * The distance from the parent to the descendant - 1 for a child, 2 for a grandchild and so on
+     */
+    private int depth;
 }
@@ -2,9 +2,8 @@ package com.n26.yonatan.model;
 
 import lombok.Data;
 import lombok.ToString;
-import org.hibernate.validator.constraints.Length;
-import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
@@ -12,17 +11,17 @@ import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.Version;
-import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Pattern;
 
 /**
  * Transaction DB Entity.
  */
 @Data
 //do not print parent, to eliminate stackoverflow exception in case of circular transactions
-@ToString(exclude = "parent")
+//the path might be very long for deep transactions
+@ToString(exclude = {"parent", "path"})
+//the type index is ordered by id within each type, for keyset pagination of the /types/ requests
 @Entity
-@Table(indexes = {@Index(columnList = "type", name = "type_index")})
+@Table(indexes = {@Index(columnList = "type, id", name = "type_index"), @Index(columnList = "path", name = "path_index")})
 public class TransactionEntity {
     @Id
     private Long id;
@@ -30,17 +29,38 @@ public class TransactionEntity {
     @Version
     private Long version;
 
-    @NotNull
-    @NotEmpty
-    @Pattern(regexp = "[a-zA-Z0-9_]*", message = "can only contain letters, numbers or underscore only")
-    @Length(max = 45)
+    /**
+     * Validated when the request is read - the entities are not validated again when persisted
+     */
     private String type;
 
-    private double amount;
+    /**
+     * The amount in fixed-point units, see {@link com.n26.yonatan.amount.AmountScale}
+     */
+    private long amountUnits;
 
     @ManyToOne(fetch = FetchType.LAZY)
     private TransactionEntity parent;
 
+    /**
+     * The parent id, read along with the row - reading it through the lazy parent would initialize the parent,
+     * which requires an open session
+     */
+    @Column(name = "parent_id", insertable = false, updatable = false)
+    private Long parentId;
+
+    /**
+     * The time of the transaction in epoch millis, or null if it was not given
+     */
+    private Long timestamp;
+
+    /**
+     * The materialized path (ids from the root down to this transaction, e.g. <code>/1/2/5/</code>).
+     * Set only when using the path hierarchy.
+     */
+    @Column(length = Integer.MAX_VALUE)
+    private String path;
+
     /**
      * hashCode semantics - if ID exists, use the ID hashCode, otherwise use object reference
      *
@@ -0,0 +1,74 @@
+package com.n26.yonatan.repository;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.BatchTransaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes batches of transactions and their descendants rows using JDBC batch inserts,
+ * bypassing the entity manager - the rows are never read back within the same request.
+ * <br>
+ * Must be called within a transaction, which the JdbcTemplate joins.
+ */
+@Repository
+public class TransactionBatchRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private AmountScale amountScale;
+
+    @Value("${transactionservice.batch.jdbc-batch-size:500}")
+    private int jdbcBatchSize;
+
+    /**
+     * Insert the transactions. Parents must precede their children.
+     *
+     * @param transactions
+     * @param paths        the materialized path of each transaction, or null when using the descendants table
+     */
+    public void insertTransactions(List<BatchTransaction> transactions, Map<Long, String> paths) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO transaction_entity (id, version, type, amount_units, parent_id, path, timestamp) "
+                        + "VALUES (?, 0, ?, ?, ?, ?, ?)",
+                transactions, jdbcBatchSize, (ps, t) -> {
+                    ps.setLong(1, t.getId());
+                    ps.setString(2, t.getType());
+                    ps.setLong(3, amountScale.toUnits(t.getAmount()));
+                    if (t.getParentId() == null) {
+                        ps.setNull(4, Types.BIGINT);
+                    } else {
+                        ps.setLong(4, t.getParentId());
+                    }
+                    ps.setString(5, paths == null ? null : paths.get(t.getId()));
+                    if (t.getTimestamp() == null) {
+                        ps.setNull(6, Types.BIGINT);
+                    } else {
+                        ps.setLong(6, t.getTimestamp());
+                    }
+                });
+    }
+
+    /**
+     * Insert descendants rows, given as {parent id, descendant id, depth} triples
+     *
+     * @param descendants
+     */
+    public void insertDescendants(List<long[]> descendants) {
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO transaction_descendant (parent_id, descendant_id, depth) VALUES (?, ?, ?)",
+                descendants, jdbcBatchSize, (ps, d) -> {
+                    ps.setLong(1, d[0]);
+                    ps.setLong(2, d[1]);
+                    ps.setInt(3, (int) d[2]);
+                });
+    }
+}
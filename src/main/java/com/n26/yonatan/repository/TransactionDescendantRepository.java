@@ -2,10 +2,13 @@ package com.n26.yonatan.repository;
 
 import com.n26.yonatan.model.TransactionDescendant;
 import com.n26.yonatan.model.TransactionEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,6 +16,79 @@ import java.util.List;
  */
 public interface TransactionDescendantRepository extends CrudRepository<TransactionDescendant, Long> {
 
-    @Query("SELECT d.descendant.amount FROM TransactionDescendant d where d.parent = :transaction")
-    List<Double> amountsByParent(@Param("transaction") TransactionEntity transactionEntity);
+    /**
+     * Returns a single {count, sum} row of the descendants of the transaction and of their amounts (in units),
+     * summed by the DB. The sum is null if there are no descendants
+     *
+     * @param transactionEntity
+     * @return
+     */
+    @Query("SELECT COUNT(d), SUM(d.descendant.amountUnits) FROM TransactionDescendant d "
+            + "where d.parent = :transaction")
+    List<Object[]> sumUnitsByParent(@Param("transaction") TransactionEntity transactionEntity);
+
+    /**
+     * Returns {descendant id, ancestor id} pairs for all the ancestors of the given transactions,
+     * the nearest ancestors first
+     *
+     * @param ids must not be empty
+     * @return
+     */
+    @Query("SELECT d.descendant.id, d.parent.id FROM TransactionDescendant d where d.descendant.id IN :ids " +
+            "ORDER BY d.depth")
+    List<Object[]> ancestorsByDescendants(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Returns the ids of all the ancestors of the transaction
+     *
+     * @param id
+     * @return
+     */
+    @Query("SELECT d.parent.id FROM TransactionDescendant d where d.descendant.id = :id")
+    List<Long> ancestorIds(@Param("id") long id);
+
+    /**
+     * Inserts all the descendants rows of a new transaction in a single statement: a row for its parent,
+     * and a row for each of the parent's ancestors, derived from the parent's own descendants rows.
+     *
+     * @param parentId
+     * @param descendantId the new transaction
+     * @return the number of rows inserted
+     */
+    @Modifying
+    @Query(value = "INSERT INTO transaction_descendant (parent_id, descendant_id, depth) " +
+            "SELECT d.parent_id, CAST(:descendant AS BIGINT), d.depth + 1 FROM transaction_descendant d " +
+            "WHERE d.descendant_id = :parent " +
+            "UNION ALL SELECT CAST(:parent AS BIGINT), CAST(:descendant AS BIGINT), 1", nativeQuery = true)
+    int insertAncestors(@Param("parent") long parentId, @Param("descendant") long descendantId);
+
+    /**
+     * Returns a page of {id, amount units, type, parent id} of the descendants of the transaction, up to the depth,
+     * whose ids are greater than the given id, in ascending order (keyset pagination). A range scan on the
+     * parent-descendant index, which starts at the given id.
+     *
+     * @param id
+     * @param after    the last id of the previous page, or {@link Long#MIN_VALUE} for the first page
+     * @param maxDepth
+     * @param page     the page size, at offset 0
+     * @return
+     */
+    @Query("SELECT d.descendant.id, d.descendant.amountUnits, d.descendant.type, d.descendant.parentId " +
+            "FROM TransactionDescendant d " +
+            "WHERE d.parent.id = :id AND d.descendant.id > :after AND d.depth <= :maxDepth " +
+            "ORDER BY d.descendant.id")
+    List<Object[]> descendants(@Param("id") long id, @Param("after") long after, @Param("maxDepth") int maxDepth,
+                               Pageable page);
+
+    /**
+     * Counts the ancestors of the parent which are either the parent itself or the new transaction.
+     * Both can only happen if the data is corrupted into a cycle.
+     *
+     * @param parentId
+     * @param descendantId the new transaction
+     * @return
+     */
+    @Query("SELECT COUNT(d) FROM TransactionDescendant d " +
+            "WHERE d.descendant.id = :parent AND d.parent.id IN (:parent, :descendant)")
+    long countCyclicAncestors(@Param("parent") long parentId, @Param("descendant") long descendantId);
 }
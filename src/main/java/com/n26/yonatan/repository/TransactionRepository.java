@@ -1,16 +1,18 @@
 package com.n26.yonatan.repository;
 
 import com.n26.yonatan.model.TransactionEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Transactions Repository
  */
-public interface TransactionRepository extends CrudRepository<TransactionEntity, Long> {
+public interface TransactionRepository extends JpaRepository<TransactionEntity, Long> {
 
     /**
      * Returns list of transaction ids that matches the type.
@@ -22,4 +24,88 @@ public interface TransactionRepository extends CrudRepository<TransactionEntity,
     @Query("SELECT t.id FROM TransactionEntity t WHERE t.type = :type")
     List<Long> getTransactionIdsByType(@Param("type") String type);
 
+    /**
+     * Returns a page of the transaction ids that matches the type, in ascending order.
+     * A range scan on the type index, which is ordered by the type and then the id
+     *
+     * @param type
+     * @param page the page size, at offset 0
+     * @return
+     */
+    @Query("SELECT t.id FROM TransactionEntity t WHERE t.type = :type ORDER BY t.id")
+    List<Long> getTransactionIdsByType(@Param("type") String type, Pageable page);
+
+    /**
+     * Returns a page of the transaction ids that matches the type and are greater than the given id,
+     * in ascending order (keyset pagination). The range scan on the type index starts at the given id,
+     * so every page costs the same, regardless of its position.
+     *
+     * @param type
+     * @param after
+     * @param page  the page size, at offset 0 - the position is set by the after id
+     * @return
+     */
+    @Query("SELECT t.id FROM TransactionEntity t WHERE t.type = :type AND t.id > :after ORDER BY t.id")
+    List<Long> getTransactionIdsByTypeAfter(@Param("type") String type, @Param("after") long after, Pageable page);
+
+    /**
+     * Returns {type, count, sum, min, max} of the amounts (in units) of each type, in a single grouped scan
+     *
+     * @return
+     */
+    @Query("SELECT t.type, COUNT(t), SUM(t.amountUnits), MIN(t.amountUnits), MAX(t.amountUnits) FROM TransactionEntity t "
+            + "GROUP BY t.type")
+    List<Object[]> aggregateByType();
+
+    /**
+     * Returns the ids, out of the given ids, which exist in the DB
+     *
+     * @param ids must not be empty
+     * @return
+     */
+    @Query("SELECT t.id FROM TransactionEntity t WHERE t.id IN :ids")
+    List<Long> getExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Returns a page of all the transaction ids greater than the given id, in ascending order (keyset pagination)
+     *
+     * @param after
+     * @param page  the page size, at offset 0
+     * @return
+     */
+    @Query("SELECT t.id FROM TransactionEntity t WHERE t.id > :after ORDER BY t.id")
+    List<Long> getIdsAfter(@Param("after") long after, Pageable page);
+
+    /**
+     * Returns {id, path} pairs of the given transactions
+     *
+     * @param ids must not be empty
+     * @return
+     */
+    @Query("SELECT t.id, t.path FROM TransactionEntity t WHERE t.id IN :ids")
+    List<Object[]> getPaths(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Returns a single {count, sum} row of the transactions whose path starts with the path - that is, a transaction
+     * and all its descendants - and of their amounts (in units). A single range scan on the path index.
+     *
+     * @param path
+     * @return
+     */
+    @Query("SELECT COUNT(t), SUM(t.amountUnits) FROM TransactionEntity t WHERE t.path LIKE CONCAT(:path, '%')")
+    List<Object[]> sumUnitsByPathPrefix(@Param("path") String path);
+
+    /**
+     * Returns a page of {id, amount units, type, parent id, path} of the transactions whose path starts with the
+     * path - a transaction and all its descendants - and whose ids are greater than the given id, in ascending order
+     *
+     * @param path
+     * @param after the last id of the previous page, or {@link Long#MIN_VALUE} for the first page
+     * @param page  the page size, at offset 0
+     * @return
+     */
+    @Query("SELECT t.id, t.amountUnits, t.type, t.parentId, t.path FROM TransactionEntity t " +
+            "WHERE t.path LIKE CONCAT(:path, '%') AND t.id > :after ORDER BY t.id")
+    List<Object[]> subtreeByPathPrefix(@Param("path") String path, @Param("after") long after, Pageable page);
+
 }
@@ -0,0 +1,181 @@
+package com.n26.yonatan.service;
+
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.exception.HttpException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.exception.ServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer of new transactions, used when <code>transactionservice.write.mode=group</code>.
+ * <br>
+ * Requests are queued to a bounded ring buffer, and a single writer thread takes all the queued requests
+ * (up to <code>max-group-size</code>) and creates them in a single DB transaction - a group commit. The future of
+ * each request completes once the group it belongs to is committed, and succeeds or fails on its own, exactly as
+ * when written directly - no thread waits for it, so a group is not limited by the number of request threads.
+ * When the queue is full, the request is rejected at once with <code>503</code> and a <code>Retry-After</code>
+ * header. Under load, the number of commits grows with the number of groups rather than with the number of
+ * requests; when idle, a group is a single request and nothing waits for more to arrive.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.write.mode", havingValue = "group")
+@Slf4j
+public class GroupCommitWriter {
+    private static final long POLL_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+    private static class PendingWrite {
+        final BatchTransaction transaction;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingWrite(BatchTransaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+
+    private final TransactionService transactionService;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxGroupSize;
+    private final int retryAfterSeconds;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public GroupCommitWriter(TransactionService transactionService,
+                             @Value("${transactionservice.write.queue-size:10000}") int queueSize,
+                             @Value("${transactionservice.write.max-group-size:500}") int maxGroupSize,
+                             @Value("${transactionservice.executor.retry-after-seconds:1}") int retryAfterSeconds) {
+        this.transactionService = transactionService;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.maxGroupSize = maxGroupSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+        writer = new Thread(this::run, "transaction-group-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue a transaction to be created. The future completes once its group is committed, or with the same
+     * exceptions as {@link TransactionService#createTransaction(long, Transaction)}.
+     * Never blocks.
+     *
+     * @param transactionId
+     * @param t
+     * @return the future of the commit
+     * @throws ServiceUnavailableException if the queue is full
+     * @throws ServerErrorException        if the writer is closed
+     */
+    public CompletableFuture<Void> submit(long transactionId, Transaction t) {
+        BatchTransaction transaction = new BatchTransaction();
+        transaction.setId(transactionId);
+        transaction.setAmount(t.getAmount());
+        transaction.setType(t.getType());
+        transaction.setParentId(t.getParentId());
+        transaction.setTimestamp(t.getTimestamp());
+        PendingWrite write = new PendingWrite(transaction);
+        if (!running) {
+            throw new ServerErrorException("shutting down");
+        }
+        if (!queue.offer(write)) {
+            throw new ServiceUnavailableException("service unavailable", retryAfterSeconds);
+        }
+        // the writer drains the queue once it stops running - unless it did already
+        if (!running && queue.remove(write)) {
+            throw new ServerErrorException("shutting down");
+        }
+        return write.result;
+    }
+
+    private void run() {
+        List<PendingWrite> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            PendingWrite first;
+            try {
+                // bounded, so the writer stops even if the interrupt of close() was swallowed by a commit
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                continue;
+            }
+            group.add(first);
+            queue.drainTo(group, maxGroupSize - 1);
+            try {
+                commit(group);
+            } catch (Throwable e) {
+                // the writer must survive any failure, or all the following writes would wait forever
+                log.error("Group commit of {} transactions failed", group.size(), e);
+                group.forEach(write -> write.result.completeExceptionally(e));
+            }
+            group.clear();
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        List<PendingWrite> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        queued.forEach(write -> write.result.completeExceptionally(new ServerErrorException("shutting down")));
+    }
+
+    private void commit(List<PendingWrite> group) {
+        List<BatchTransaction> transactions = new ArrayList<>(group.size());
+        group.forEach(write -> transactions.add(write.transaction));
+        List<HttpException> failures;
+        try {
+            failures = transactionService.createTransactionGroup(transactions);
+        } catch (RuntimeException e) {
+            // e.g. another node inserted one of the ids concurrently - the group is rolled back as a whole,
+            // so each of the requests is retried on its own to get its own outcome
+            log.warn("Group commit of {} transactions failed, committing them one by one", group.size(), e);
+            for (PendingWrite write : group) {
+                try {
+                    transactionService.createTransaction(write.transaction.getId(),
+                            TransactionService.toTransaction(write.transaction));
+                    write.result.complete(null);
+                } catch (RuntimeException e1) {
+                    write.result.completeExceptionally(e1);
+                }
+            }
+            return;
+        }
+        log.debug("Committed a group of {} transactions", group.size());
+        for (int i = 0; i < group.size(); i++) {
+            if (failures.get(i) == null) {
+                group.get(i).result.complete(null);
+            } else {
+                group.get(i).result.completeExceptionally(failures.get(i));
+            }
+        }
+    }
+
+    /**
+     * Stops the writer once its current group is committed, and fails the queued writes. Waits for the commit up to
+     * a timeout
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(CLOSE_TIMEOUT_MILLIS);
+        if (writer.isAlive()) {
+            log.warn("The group writer did not stop within {} ms", CLOSE_TIMEOUT_MILLIS);
+            // the writer drains them once its commit returns, if ever
+            failQueued();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.n26.yonatan.service;
+
+import com.n26.yonatan.exception.ServiceUnavailableException;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executors of the requests, one per operation class - reads, writes and aggregates (sums and statistics).
+ * Used unless <code>transactionservice.executor.enabled=false</code>.
+ * <br>
+ * The request threads only hand the requests over, and are released while the storage works, so slow requests of
+ * one class cannot take all the request threads, nor the threads of the other classes - heavy sums queue up
+ * behind each other, not in front of the reads.
+ * <br>
+ * Each executor has a fixed number of threads and a bounded queue. When the queue is full, the request is rejected
+ * at once with <code>503</code> and a <code>Retry-After</code> header, rather than waiting for a thread.
+ */
+@Component
+@ConditionalOnProperty(name = "transactionservice.executor.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class RequestExecutors {
+    public static final String REJECTED_REQUESTS = "rejected_requests";
+
+    public enum Operation {
+        READS, WRITES, AGGREGATES
+    }
+
+    private final Map<Operation, ThreadPoolExecutor> executors = new EnumMap<>(Operation.class);
+    private final int retryAfterSeconds;
+    private final TransactionMetrics metrics;
+
+    @Autowired
+    public RequestExecutors(@Value("${transactionservice.executor.reads.threads:16}") int readThreads,
+                            @Value("${transactionservice.executor.reads.queue-size:1000}") int readQueueSize,
+                            @Value("${transactionservice.executor.writes.threads:8}") int writeThreads,
+                            @Value("${transactionservice.executor.writes.queue-size:1000}") int writeQueueSize,
+                            @Value("${transactionservice.executor.aggregates.threads:4}") int aggregateThreads,
+                            @Value("${transactionservice.executor.aggregates.queue-size:100}") int aggregateQueueSize,
+                            @Value("${transactionservice.executor.retry-after-seconds:1}") int retryAfterSeconds,
+                            TransactionMetrics metrics) {
+        executors.put(Operation.READS, executor("reads", readThreads, readQueueSize));
+        executors.put(Operation.WRITES, executor("writes", writeThreads, writeQueueSize));
+        executors.put(Operation.AGGREGATES, executor("aggregates", aggregateThreads, aggregateQueueSize));
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.metrics = metrics;
+        log.info("Request executors: {} reads, {} writes and {} aggregates threads", readThreads, writeThreads,
+                aggregateThreads);
+    }
+
+    private static ThreadPoolExecutor executor(String name, int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "request-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+    }
+
+    /**
+     * Runs the task on the executor of the operation class. The SQL statements the task executes are counted
+     * as statements of the current request.
+     *
+     * @param operation
+     * @param task
+     * @return the result of the task, or the exception it threw
+     * @throws ServiceUnavailableException if the queue of the executor is full
+     */
+    public <T> DeferredResult<T> submit(Operation operation, Supplier<T> task) {
+        DeferredResult<T> result = new DeferredResult<>();
+        execute(operation, result, () -> result.setResult(task.get()));
+        return result;
+    }
+
+    /**
+     * Runs the task on the executor of the operation class, which is released as soon as the task returns its
+     * future - the result is set when the future completes, on the thread completing it.
+     *
+     * @param operation
+     * @param task
+     * @return the result of the future, or the exception it (or the task) failed with
+     * @throws ServiceUnavailableException if the queue of the executor is full
+     */
+    public <T> DeferredResult<T> submitAsync(Operation operation, Supplier<CompletableFuture<T>> task) {
+        DeferredResult<T> result = new DeferredResult<>();
+        execute(operation, result, () -> complete(result, task.get()));
+        return result;
+    }
+
+    /**
+     * Sets the result, or the error result, when the future completes
+     */
+    public static <T> void complete(DeferredResult<T> result, CompletableFuture<T> future) {
+        future.whenComplete((value, e) -> {
+            if (e == null) {
+                result.setResult(value);
+            } else {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    private void execute(Operation operation, DeferredResult<?> result, Runnable task) {
+        long[] statements = metrics.currentRequest();
+        try {
+            executors.get(operation).execute(() -> {
+                metrics.continueRequest(statements);
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    // the request would never complete otherwise
+                    result.setErrorResult(e);
+                } finally {
+                    metrics.continueRequest(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the count of the histogram is the number of rejected requests
+            metrics.recordCount(REJECTED_REQUESTS + "_" + operation.name().toLowerCase(), 1);
+            throw new ServiceUnavailableException("service unavailable", retryAfterSeconds);
+        }
+    }
+}
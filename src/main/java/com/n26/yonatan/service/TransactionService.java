@@ -1,23 +1,53 @@
 package com.n26.yonatan.service;
 
 import com.google.common.base.Preconditions;
+import com.n26.yonatan.aggregate.JpaTypeAggregates;
+import com.n26.yonatan.aggregate.TransactionStatistics;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.cache.SumCache;
+import com.n26.yonatan.cache.TransactionCache;
+import com.n26.yonatan.cache.TransactionIds;
+import com.n26.yonatan.cluster.ClusterService;
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.CacheStats;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.Statistics;
 import com.n26.yonatan.dto.Sum;
 import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.dto.TypeStats;
 import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.HttpException;
 import com.n26.yonatan.exception.NotFoundException;
 import com.n26.yonatan.exception.ServerErrorException;
-import com.n26.yonatan.model.TransactionDescendant;
+import com.n26.yonatan.memory.TransactionGraph;
+import com.n26.yonatan.metrics.TransactionMetrics;
 import com.n26.yonatan.model.TransactionEntity;
+import com.n26.yonatan.repository.TransactionBatchRepository;
 import com.n26.yonatan.repository.TransactionDescendantRepository;
 import com.n26.yonatan.repository.TransactionRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
 
 /**
  * Created by yonatan on 12/10/2015.
@@ -32,6 +62,84 @@ public class TransactionService {
     @Autowired
     private TransactionDescendantRepository transactionDescendantRepository;
 
+    @Autowired
+    private TransactionBatchRepository transactionBatchRepository;
+
+    @Value("${transactionservice.batch.max-size:10000}")
+    private int maxBatchSize = 10000;
+
+    @Value("${transactionservice.types.max-page-size:10000}")
+    private int maxPageSize = 10000;
+
+    /**
+     * The hierarchy encoding of the jpa storage - either the descendants table (closure),
+     * or a materialized path stored on each transaction (path)
+     */
+    @Value("${transactionservice.hierarchy:closure}")
+    private String hierarchy = CLOSURE_HIERARCHY;
+
+    static final String CLOSURE_HIERARCHY = "closure";
+    static final String PATH_HIERARCHY = "path";
+    private static final String PATH_SEPARATOR = "/";
+
+    /**
+     * Available only when the in-memory storage is selected, in which case it replaces the repositories
+     */
+    @Autowired(required = false)
+    private TransactionGraph transactionGraph;
+
+    /**
+     * Available only when the jpa storage is selected
+     */
+    @Autowired(required = false)
+    private TransactionCache transactionCache;
+
+    /**
+     * Available only when the jpa storage is selected
+     */
+    @Autowired(required = false)
+    private SumCache sumCache;
+
+    /**
+     * Available only when the jpa storage is selected
+     */
+    @Autowired(required = false)
+    private TransactionIds transactionIds;
+
+    /**
+     * Available only when the jpa storage is selected
+     */
+    @Autowired(required = false)
+    private JpaTypeAggregates typeAggregates;
+
+    /**
+     * Available only in the cluster mode, in which case the transactions are partitioned between the nodes
+     */
+    @Autowired(required = false)
+    private ClusterService clusterService;
+
+    @Autowired
+    private TransactionMetrics metrics;
+
+    @Autowired
+    private TransactionStatistics statistics;
+
+    @Autowired
+    private AmountScale amountScale;
+
+    /**
+     * Fails if the transaction is known to exist - checked before the transaction is created, so a duplicate
+     * is rejected without opening a DB transaction. An unknown transaction may still exist, and then fails when
+     * it is inserted.
+     *
+     * @param transactionId
+     */
+    public void checkNotExists(long transactionId) {
+        if (transactionIds != null && transactionIds.contains(transactionId)) {
+            throw new ConflictException("conflict");
+        }
+    }
+
     /**
      * Create a transaction in the DB with id transactionId.
      * Throw an exception if transaction already exists
@@ -44,41 +152,451 @@ public class TransactionService {
         log.trace("createTransaction {} {}", transactionId, t);
         Preconditions.checkNotNull(t, "TransactionEntity must not be null");
 
+        if (clusterService != null) {
+            clusterService.createTransaction(transactionId, t);
+            return;
+        }
+        if (transactionGraph != null) {
+            transactionGraph.add(transactionId, t.getParentId(), t.getAmount(), t.getType(), t.getTimestamp());
+            aggregateAfterCommit(Collections.singletonList(t));
+            return;
+        }
+
         TransactionEntity entity = new TransactionEntity();
         entity.setId(transactionId);
-        entity.setAmount(t.getAmount());
+        entity.setAmountUnits(amountScale.toUnits(t.getAmount()));
         entity.setType(t.getType());
+        entity.setTimestamp(t.getTimestamp());
         if (t.getParentId() != null) {
-            // if a parent was added, verify it exists and add it to the entity
-            TransactionEntity parent = transactionRepository.findOne(t.getParentId());
+            // if a parent was added, verify it exists and add it to the entity. A parent known to exist is only
+            // referenced, without reading it - unless its path is required.
+            TransactionEntity parent;
+            if (transactionIds != null && !PATH_HIERARCHY.equals(hierarchy)
+                    && transactionIds.contains(t.getParentId())) {
+                parent = transactionRepository.getOne(t.getParentId());
+            } else {
+                parent = transactionRepository.findOne(t.getParentId());
+            }
             if (parent == null) {
                 throw new BadRequestException("parent not found");
             }
             entity.setParent(parent);
         }
 
+        // registered up front, but applied only when the DB transaction commits
+        cacheAfterCommit(transactionId, t);
+        aggregateAfterCommit(Collections.singletonList(t));
+        addIdsAfterCommit(Collections.singletonList(transactionId));
+        if (PATH_HIERARCHY.equals(hierarchy)) {
+            entity.setPath(childPath(transactionId, entity.getParent()));
+            if (entity.getParent() != null) {
+                invalidateSumsAfterCommit(() -> pathIds(entity.getParent().getPath()));
+            }
+            log.debug("Saving a transaction {} with path", entity);
+            transactionRepository.save(entity);
+            return;
+        }
+
         log.debug("Saving a transaction {}", entity);
-        transactionRepository.save(entity);
+        if (entity.getParent() == null) {
+            transactionRepository.save(entity);
+            metrics.recordCount(TransactionMetrics.CLOSURE_ROWS_PER_INSERT, 0);
+            return;
+        }
+
+        // not read through the parent, which may be an uninitialized reference
+        long parentId = t.getParentId();
+        // cycles are not possible via the API, but if someone will mess with the underlying DB
+        // it might happen. In such case, the parent would appear within its own ancestors - and the cycle
+        // would have been propagated to the new transaction's descendants rows.
+        if (transactionDescendantRepository.countCyclicAncestors(parentId, transactionId) > 0) {
+            log.error("Cyclic transaction detected when adding transaction id {} under {}", transactionId, parentId);
+            throw new ServerErrorException("cyclic transaction");
+        }
+        invalidateSumsAfterCommit(() -> {
+            List<Long> ancestors = new ArrayList<>(transactionDescendantRepository.ancestorIds(parentId));
+            ancestors.add(parentId);
+            return ancestors;
+        });
+        // the descendants rows are inserted using native SQL, which references the new row
+        transactionRepository.saveAndFlush(entity);
+        int rows = transactionDescendantRepository.insertAncestors(parentId, transactionId);
+        log.debug("Saved {} descendants for transaction {}", rows, transactionId);
+        metrics.recordCount(TransactionMetrics.CLOSURE_ROWS_PER_INSERT, rows);
+    }
+
+    /**
+     * Caches the new transaction once it is committed - a rolled back transaction must not be served.
+     * Outside of a DB transaction, caches it immediately.
+     *
+     * @param transactionId
+     * @param t
+     */
+    private void cacheAfterCommit(long transactionId, Transaction t) {
+        if (transactionCache != null) {
+            // cached as stored - with the amount rounded to the units
+            Transaction stored = new Transaction();
+            stored.setAmount(amountScale.toAmount(amountScale.toUnits(t.getAmount())));
+            stored.setType(t.getType());
+            stored.setParentId(t.getParentId());
+            stored.setTimestamp(t.getTimestamp());
+            afterCommit(() -> transactionCache.put(transactionId, stored));
+        }
+    }
+
+    /**
+     * Adds the ids of new transactions to the known ids, once they are committed
+     *
+     * @param ids
+     */
+    private void addIdsAfterCommit(Collection<Long> ids) {
+        if (transactionIds != null) {
+            afterCommit(() -> transactionIds.addAll(ids));
+        }
+    }
+
+    /**
+     * Invalidates the cached sums of the ancestors of new transactions, once they are committed -
+     * until then, the sums computed by other requests do not include them.
+     *
+     * @param ancestors looked up only if sums are cached
+     */
+    private void invalidateSumsAfterCommit(Supplier<Collection<Long>> ancestors) {
+        if (sumCache != null) {
+            Collection<Long> ids = ancestors.get();
+            afterCommit(() -> sumCache.invalidate(ids));
+        }
+    }
+
+    /**
+     * Adds the new transactions to the recent transactions statistics and, in the jpa mode, to the aggregates of
+     * their types (the graph keeps its own), once they are committed
+     *
+     * @param transactions
+     */
+    private void aggregateAfterCommit(Collection<? extends Transaction> transactions) {
+        afterCommit(() -> transactions.forEach(t -> {
+            statistics.record(t.getAmount(), t.getTimestamp());
+            if (typeAggregates != null) {
+                typeAggregates.add(t.getType(), amountScale.toUnits(t.getAmount()));
+            }
+        }));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Create a batch of transactions in the DB, atomically.
+     * A parent may be either a part of the batch (in any order) or an existing transaction.
+     * Throw an exception if any of the transactions already exists
+     *
+     * @param transactions
+     */
+    @Transactional
+    public void createTransactions(List<BatchTransaction> transactions) {
+        Preconditions.checkNotNull(transactions, "Transactions must not be null");
+        log.trace("createTransactions {}", transactions.size());
+        if (transactions.size() > maxBatchSize) {
+            throw new BadRequestException("batch too large");
+        }
+        if (clusterService != null) {
+            // a batch may span all the nodes, which do not coordinate their writes
+            throw new BadRequestException("batches are not supported in cluster mode");
+        }
+        List<BatchTransaction> ordered = topologicalOrder(transactions);
+
+        if (transactionGraph != null) {
+            transactionGraph.addAll(ordered);
+            aggregateAfterCommit(ordered);
+            return;
+        }
+        insertBatch(ordered);
+    }
+
+    /**
+     * Create a group of independent transactions in a single DB transaction - a group commit of concurrent
+     * single transaction requests. Each transaction succeeds or fails on its own, exactly as if it was created
+     * by {@link #createTransaction(long, Transaction)} in the order of the group: a transaction may be
+     * the parent of the transactions following it.
+     *
+     * @param transactions
+     * @return the failure of each transaction, by its position in the group - null if it was created
+     */
+    @Transactional
+    public List<HttpException> createTransactionGroup(List<BatchTransaction> transactions) {
+        Preconditions.checkNotNull(transactions, "Transactions must not be null");
+        log.trace("createTransactionGroup {}", transactions.size());
+        List<HttpException> failures = new ArrayList<>(Collections.nCopies(transactions.size(), null));
+        if (clusterService != null || transactionGraph != null) {
+            for (int i = 0; i < transactions.size(); i++) {
+                BatchTransaction t = transactions.get(i);
+                try {
+                    if (clusterService != null) {
+                        clusterService.createTransaction(t.getId(), toTransaction(t));
+                    } else {
+                        transactionGraph.add(t.getId(), t.getParentId(), t.getAmount(), t.getType(),
+                                t.getTimestamp());
+                        aggregateAfterCommit(Collections.singletonList(t));
+                    }
+                } catch (HttpException e) {
+                    failures.set(i, e);
+                }
+            }
+            return failures;
+        }
+
+        Set<Long> existing = new HashSet<>();
+        Set<Long> referenced = new HashSet<>();
+        for (BatchTransaction t : transactions) {
+            referenced.add(t.getId());
+            if (t.getParentId() != null) {
+                referenced.add(t.getParentId());
+            }
+        }
+        if (transactionIds != null) {
+            referenced.removeIf(id -> transactionIds.contains(id) && existing.add(id));
+        }
+        // a single query for the whole group (for the ids not known to exist), then the same checks
+        // createTransaction makes, in the same order
+        if (!referenced.isEmpty()) {
+            existing.addAll(transactionRepository.getExistingIds(referenced));
+        }
+        List<BatchTransaction> accepted = new ArrayList<>(transactions.size());
+        for (int i = 0; i < transactions.size(); i++) {
+            BatchTransaction t = transactions.get(i);
+            if (!amountScale.isValid(t.getAmount())) {
+                failures.set(i, new BadRequestException("invalid amount"));
+            } else if (t.getParentId() != null && !existing.contains(t.getParentId())) {
+                failures.set(i, new BadRequestException("parent not found"));
+            } else if (!existing.add(t.getId())) {
+                failures.set(i, new ConflictException("conflict"));
+            } else {
+                accepted.add(t);
+                cacheAfterCommit(t.getId(), toTransaction(t));
+            }
+        }
+        if (!accepted.isEmpty()) {
+            insertBatch(accepted);
+        }
+        return failures;
+    }
+
+    static Transaction toTransaction(BatchTransaction t) {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(t.getAmount());
+        transaction.setType(t.getType());
+        transaction.setParentId(t.getParentId());
+        transaction.setTimestamp(t.getTimestamp());
+        return transaction;
+    }
+
+    /**
+     * Inserts the transactions using batch inserts.
+     * Throws an exception if a parent outside of the transactions is missing
+     *
+     * @param ordered ordered such that parents within the transactions precede their children
+     */
+    private void insertBatch(List<BatchTransaction> ordered) {
+        List<Long> insertedIds = new ArrayList<>(ordered.size());
+        for (BatchTransaction t : ordered) {
+            if (transactionIds != null && transactionIds.contains(t.getId())) {
+                // fails before anything is written
+                throw new ConflictException("conflict");
+            }
+            insertedIds.add(t.getId());
+        }
+        aggregateAfterCommit(ordered);
+        addIdsAfterCommit(insertedIds);
+        // For each transaction - the chain of ids from the transaction up to its root, nearest first.
+        // Parents outside the batch are seeded from their descendants rows.
+        Map<Long, long[]> chains = new HashMap<>();
+        Set<Long> externalParents = new HashSet<>();
+        for (BatchTransaction t : ordered) {
+            chains.put(t.getId(), null);
+        }
+        for (BatchTransaction t : ordered) {
+            if (t.getParentId() != null && !chains.containsKey(t.getParentId())) {
+                externalParents.add(t.getParentId());
+            }
+        }
+        if (PATH_HIERARCHY.equals(hierarchy)) {
+            createTransactionsWithPaths(ordered, externalParents);
+            return;
+        }
+        if (!externalParents.isEmpty()) {
+            Set<Long> unknownParents = new HashSet<>(externalParents);
+            if (transactionIds != null) {
+                unknownParents.removeIf(transactionIds::contains);
+            }
+            if (!unknownParents.isEmpty()
+                    && transactionRepository.getExistingIds(unknownParents).size() != unknownParents.size()) {
+                throw new BadRequestException("parent not found");
+            }
+            Map<Long, List<Long>> ancestors = new HashMap<>();
+            for (Object[] pair : transactionDescendantRepository.ancestorsByDescendants(externalParents)) {
+                if (pair[0].equals(pair[1])) {
+                    log.error("Cyclic transaction detected when adding a batch under transaction id {}", pair[0]);
+                    throw new ServerErrorException("cyclic transaction");
+                }
+                ancestors.computeIfAbsent((Long) pair[0], id -> new ArrayList<>()).add((Long) pair[1]);
+            }
+            for (Long parentId : externalParents) {
+                List<Long> parentAncestors = ancestors.getOrDefault(parentId, emptyList());
+                long[] chain = new long[parentAncestors.size() + 1];
+                chain[0] = parentId;
+                for (int i = 0; i < parentAncestors.size(); i++) {
+                    chain[i + 1] = parentAncestors.get(i);
+                }
+                chains.put(parentId, chain);
+            }
+            invalidateSumsAfterCommit(() -> {
+                Set<Long> ids = new HashSet<>(externalParents);
+                ancestors.values().forEach(ids::addAll);
+                return ids;
+            });
+        }
+
+        List<long[]> descendants = new ArrayList<>();
+        for (BatchTransaction t : ordered) {
+            if (t.getParentId() == null) {
+                chains.put(t.getId(), new long[]{t.getId()});
+                metrics.recordCount(TransactionMetrics.CLOSURE_ROWS_PER_INSERT, 0);
+                continue;
+            }
+            long[] parentChain = chains.get(t.getParentId());
+            long[] chain = new long[parentChain.length + 1];
+            chain[0] = t.getId();
+            System.arraycopy(parentChain, 0, chain, 1, parentChain.length);
+            chains.put(t.getId(), chain);
+            for (int i = 0; i < parentChain.length; i++) {
+                descendants.add(new long[]{parentChain[i], t.getId(), i + 1});
+            }
+            metrics.recordCount(TransactionMetrics.CLOSURE_ROWS_PER_INSERT, parentChain.length);
+        }
+
+        log.debug("Saving a batch of {} transactions and {} descendants", ordered.size(), descendants.size());
+        transactionBatchRepository.insertTransactions(ordered, null);
+        transactionBatchRepository.insertDescendants(descendants);
+    }
 
-        Set<Long> visited = new HashSet<>();
-        TransactionEntity parent = entity.getParent();
-        while (parent != null) {
-            // cycles are not possible via the API, but if someone will mess with the underlying DB
-            // it might happen. In such case, this would never end - causing thread leakage.
-            // Therefore, cycle detection is a good practice.
-            if (visited.contains(parent.getId())) {
-                log.error("Cyclic transaction detected when adding transaction id {}: {}", transactionId, visited);
-                throw new ServerErrorException("cyclic transaction");
+    private void createTransactionsWithPaths(List<BatchTransaction> ordered, Set<Long> externalParents) {
+        Map<Long, String> paths = new HashMap<>();
+        if (!externalParents.isEmpty()) {
+            for (Object[] idAndPath : transactionRepository.getPaths(externalParents)) {
+                paths.put((Long) idAndPath[0], (String) idAndPath[1]);
             }
-            visited.add(parent.getId());
+            if (paths.size() != externalParents.size()) {
+                throw new BadRequestException("parent not found");
+            }
+            invalidateSumsAfterCommit(() -> {
+                Set<Long> ids = new HashSet<>();
+                paths.values().forEach(path -> ids.addAll(pathIds(path)));
+                return ids;
+            });
+        }
+        for (BatchTransaction t : ordered) {
+            String path;
+            if (t.getParentId() == null) {
+                path = PATH_SEPARATOR + t.getId() + PATH_SEPARATOR;
+            } else {
+                path = childPath(t.getId(), t.getParentId(), paths.get(t.getParentId()));
+            }
+            paths.put(t.getId(), path);
+        }
+        log.debug("Saving a batch of {} transactions with paths", ordered.size());
+        transactionBatchRepository.insertTransactions(ordered, paths);
+    }
+
+    /**
+     * Returns the materialized path of a transaction: the ids from the root down to the transaction,
+     * e.g. <code>/1/2/5/</code>. The path of every descendant starts with the path of the transaction.
+     *
+     * @param transactionId
+     * @param parent        the parent entity, or null for a root transaction
+     * @return
+     */
+    private static String childPath(long transactionId, TransactionEntity parent) {
+        if (parent == null) {
+            return PATH_SEPARATOR + transactionId + PATH_SEPARATOR;
+        }
+        return childPath(transactionId, parent.getId(), parent.getPath());
+    }
+
+    private static String childPath(long transactionId, long parentId, String parentPath) {
+        if (parentPath == null) {
+            // the parent was stored using the descendants table
+            log.error("Transaction id {} has no path, when adding transaction id {}", parentId, transactionId);
+            throw new ServerErrorException("missing transaction path");
+        }
+        // same defensive approach as with the descendants table
+        if (parentPath.contains(PATH_SEPARATOR + transactionId + PATH_SEPARATOR)) {
+            log.error("Cyclic transaction detected when adding transaction id {}: {}", transactionId, parentPath);
+            throw new ServerErrorException("cyclic transaction");
+        }
+        return parentPath + transactionId + PATH_SEPARATOR;
+    }
 
-            TransactionDescendant descendant = new TransactionDescendant();
-            descendant.setParent(parent);
-            descendant.setDescendant(entity);
-            log.debug("Saving a descendant {}", descendant);
-            transactionDescendantRepository.save(descendant);
-            parent = parent.getParent();
+    /**
+     * Returns the ids within a materialized path - the transaction and all its ancestors
+     *
+     * @param path
+     * @return
+     */
+    static List<Long> pathIds(String path) {
+        List<Long> ids = new ArrayList<>();
+        for (String id : path.split(PATH_SEPARATOR)) {
+            if (!id.isEmpty()) {
+                ids.add(Long.valueOf(id));
+            }
         }
+        return ids;
+    }
+
+    /**
+     * Orders the batch such that parents precede their children.
+     * Throws an exception if the batch contains duplicate ids or a cycle
+     *
+     * @param transactions
+     * @return
+     */
+    static List<BatchTransaction> topologicalOrder(List<BatchTransaction> transactions) {
+        Set<Long> ids = new HashSet<>();
+        for (BatchTransaction t : transactions) {
+            if (!ids.add(t.getId())) {
+                throw new BadRequestException("duplicate transaction id");
+            }
+        }
+        List<BatchTransaction> ordered = new ArrayList<>(transactions.size());
+        Map<Long, List<BatchTransaction>> children = new HashMap<>();
+        for (BatchTransaction t : transactions) {
+            if (t.getParentId() != null && ids.contains(t.getParentId())) {
+                children.computeIfAbsent(t.getParentId(), id -> new ArrayList<>()).add(t);
+            } else {
+                ordered.add(t);
+            }
+        }
+        // BFS from the transactions whose parents are outside the batch, the ordered list doubles as the queue
+        for (int i = 0; i < ordered.size(); i++) {
+            List<BatchTransaction> c = children.remove(ordered.get(i).getId());
+            if (c != null) {
+                ordered.addAll(c);
+            }
+        }
+        if (ordered.size() != transactions.size()) {
+            throw new BadRequestException("cyclic transaction");
+        }
+        return ordered;
     }
 
     /**
@@ -90,16 +608,30 @@ public class TransactionService {
      */
     public Transaction findTransaction(long transactionId) {
         log.trace("findTransaction {}", transactionId);
+        if (clusterService != null) {
+            return clusterService.findTransaction(transactionId);
+        }
+        if (transactionGraph != null) {
+            return transactionGraph.find(transactionId);
+        }
+        if (transactionCache != null) {
+            Transaction cached = transactionCache.get(transactionId);
+            if (cached != null) {
+                return cached;
+            }
+        }
         TransactionEntity entity = transactionRepository.findOne(transactionId);
         if (entity == null) {
             throw new NotFoundException("not found");
         }
 
         Transaction transaction = new Transaction();
-        transaction.setAmount(entity.getAmount());
+        transaction.setAmount(amountScale.toAmount(entity.getAmountUnits()));
         transaction.setType(entity.getType());
-        if (entity.getParent() != null) {
-            transaction.setParentId(entity.getParent().getId());
+        transaction.setParentId(entity.getParentId());
+        transaction.setTimestamp(entity.getTimestamp());
+        if (transactionCache != null) {
+            transactionCache.put(transactionId, transaction);
         }
         return transaction;
     }
@@ -107,9 +639,201 @@ public class TransactionService {
     public List<Long> getTransactionIdsByType(String type) {
         log.trace("getTransactionIdsByType {}", type);
         Preconditions.checkNotNull(type, "Type must not be null");
+        if (clusterService != null) {
+            List<Long> ids = new ArrayList<>();
+            List<Long> page = clusterService.getTransactionIdsByType(type, null, maxPageSize);
+            while (!page.isEmpty()) {
+                ids.addAll(page);
+                page = clusterService.getTransactionIdsByType(type, page.get(page.size() - 1), maxPageSize);
+            }
+            return ids;
+        }
+        if (transactionGraph != null) {
+            return transactionGraph.idsByType(type);
+        }
         return transactionRepository.getTransactionIdsByType(type);
     }
 
+    /**
+     * Returns a page of the ids of the transactions of the type, in ascending order.
+     * The next page starts after the last id of this page.
+     *
+     * @param type
+     * @param after the last id of the previous page, or null for the first page
+     * @param limit the page size
+     * @return
+     */
+    public List<Long> getTransactionIdsByType(String type, Long after, int limit) {
+        log.trace("getTransactionIdsByType {} {} {}", type, after, limit);
+        Preconditions.checkNotNull(type, "Type must not be null");
+        if (limit < 1 || limit > maxPageSize) {
+            throw new BadRequestException("invalid limit");
+        }
+        if (clusterService != null) {
+            return clusterService.getTransactionIdsByType(type, after, limit);
+        }
+        if (transactionGraph != null) {
+            return transactionGraph.idsByType(type, after, limit);
+        }
+        PageRequest page = new PageRequest(0, limit);
+        if (after == null) {
+            return transactionRepository.getTransactionIdsByType(type, page);
+        }
+        return transactionRepository.getTransactionIdsByTypeAfter(type, after, page);
+    }
+
+    /**
+     * Returns a page of the descendants of the transaction (not including the transaction itself), in ascending
+     * order of their ids - or, in the memory mode, depth first with the children in ascending order of their ids.
+     * The next page starts after the last id of this page.
+     * Throws an exception if the transaction is not found
+     *
+     * @param transactionId
+     * @param after    the last id of the previous page, or null for the first page
+     * @param limit    the page size
+     * @param maxDepth the maximal distance from the transaction - 1 for its children only, or null for all of them
+     * @return
+     */
+    public List<TransactionNode> getDescendants(long transactionId, Long after, int limit, Integer maxDepth) {
+        log.trace("getDescendants {} {} {} {}", transactionId, after, limit, maxDepth);
+        if (limit < 1 || limit > maxPageSize) {
+            throw new BadRequestException("invalid limit");
+        }
+        if (maxDepth != null && maxDepth < 1) {
+            throw new BadRequestException("invalid depth");
+        }
+        int depth = maxDepth == null ? Integer.MAX_VALUE : maxDepth;
+        if (clusterService != null) {
+            // the subtrees span partitions, and no partition indexes the children of another
+            throw new BadRequestException("descendants are not supported in cluster mode");
+        }
+        if (transactionGraph != null) {
+            return transactionGraph.descendants(transactionId, after, limit, depth);
+        }
+        TransactionEntity t = transactionRepository.findOne(transactionId);
+        if (t == null) {
+            throw new NotFoundException("not found");
+        }
+        long from = after == null ? Long.MIN_VALUE : after;
+        // transactions stored using the descendants table have no path
+        if (PATH_HIERARCHY.equals(hierarchy) && t.getPath() != null) {
+            return pathDescendants(t, from, limit, depth);
+        }
+        List<TransactionNode> nodes = new ArrayList<>();
+        for (Object[] row : transactionDescendantRepository.descendants(transactionId, from, depth,
+                new PageRequest(0, limit))) {
+            nodes.add(node(row));
+        }
+        return nodes;
+    }
+
+    /**
+     * Reads the descendants by the path prefix. The depth is not stored, so deeper descendants are filtered out
+     * while reading, and further pages are read until the page is full or the subtree is exhausted
+     */
+    private List<TransactionNode> pathDescendants(TransactionEntity t, long from, int limit, int maxDepth) {
+        int rootDepth = separators(t.getPath());
+        List<TransactionNode> nodes = new ArrayList<>();
+        List<Object[]> rows;
+        do {
+            rows = transactionRepository.subtreeByPathPrefix(t.getPath(), from, new PageRequest(0, limit));
+            for (Object[] row : rows) {
+                from = (Long) row[0];
+                if (from != t.getId() && separators((String) row[4]) - rootDepth <= maxDepth) {
+                    nodes.add(node(row));
+                    if (nodes.size() == limit) {
+                        return nodes;
+                    }
+                }
+            }
+        } while (rows.size() == limit);
+        return nodes;
+    }
+
+    private static int separators(String path) {
+        int count = 0;
+        for (int i = path.indexOf(PATH_SEPARATOR); i >= 0; i = path.indexOf(PATH_SEPARATOR, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Converts an {id, amount units, type, parent id} row
+     */
+    private TransactionNode node(Object[] row) {
+        return new TransactionNode((Long) row[0], amountScale.toAmount((Long) row[1]), (String) row[2],
+                (Long) row[3]);
+    }
+
+    /**
+     * Counts the transactions of the type, in O(1) - from the type index of the graph, or the aggregates of the jpa
+     * storage
+     *
+     * @param type
+     * @return
+     */
+    public Count countTransactionsByType(String type) {
+        log.trace("countTransactionsByType {}", type);
+        Preconditions.checkNotNull(type, "Type must not be null");
+        if (clusterService != null) {
+            return clusterService.countTransactionsByType(type);
+        }
+        if (transactionGraph != null) {
+            return new Count(transactionGraph.countByType(type));
+        }
+        return new Count(typeAggregates.count(type));
+    }
+
+    /**
+     * Returns the count, sum, min, max and mean of the amounts of the transactions of the type, in O(1) -
+     * the aggregates are kept up to date as transactions are created
+     *
+     * @param type
+     * @return
+     */
+    public TypeStats getTypeStats(String type) {
+        log.trace("getTypeStats {}", type);
+        Preconditions.checkNotNull(type, "Type must not be null");
+        if (clusterService != null) {
+            return clusterService.getTypeStats(type);
+        }
+        if (transactionGraph != null) {
+            return transactionGraph.statsByType(type);
+        }
+        return typeAggregates.stats(type);
+    }
+
+    /**
+     * Returns the sum, avg, max, min and count of the amounts of the transactions of the last 60 seconds,
+     * in constant time
+     *
+     * @return
+     */
+    public Statistics getStatistics() {
+        log.trace("getStatistics");
+        if (clusterService != null) {
+            return clusterService.getStatistics();
+        }
+        return statistics.statistics();
+    }
+
+    /**
+     * Returns the statistics of the caches in use, by cache name
+     *
+     * @return
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        if (transactionCache != null) {
+            stats.put("transaction", transactionCache.stats());
+        }
+        if (sumCache != null) {
+            stats.put("sum", sumCache.stats());
+        }
+        return stats;
+    }
+
     /**
      * Calculates the sum of the transaction and all its children
      *
@@ -118,14 +842,60 @@ public class TransactionService {
      */
     public Sum sumTransactions(long transactionId) {
         log.trace("sumTransactions {}", transactionId);
+        if (clusterService != null) {
+            return clusterService.sumTransactions(transactionId);
+        }
+        if (transactionGraph != null) {
+            return new Sum(transactionGraph.sum(transactionId));
+        }
+        if (sumCache == null) {
+            return new Sum(computeSum(transactionId));
+        }
+        Double cached = sumCache.get(transactionId);
+        if (cached != null) {
+            metrics.recordCount(TransactionMetrics.SUM_ROWS_SCANNED, 0);
+            return new Sum(cached);
+        }
+        long stamp = sumCache.stamp(transactionId);
+        double sum = computeSum(transactionId);
+        sumCache.put(transactionId, sum, stamp);
+        return new Sum(sum);
+    }
+
+    private double computeSum(long transactionId) {
         TransactionEntity t = transactionRepository.findOne(transactionId);
         if (t == null) {
             throw new NotFoundException("not found");
         }
 
-        List<Double> amounts = transactionDescendantRepository.amountsByParent(t);
-        double sum = t.getAmount() +
-                amounts.stream().reduce(0.0, Double::sum);
-        return new Sum(sum);
+        // transactions stored using the descendants table have no path
+        if (PATH_HIERARCHY.equals(hierarchy) && t.getPath() != null) {
+            // the transaction itself is within the prefix
+            Object[] countAndSum = transactionRepository.sumUnitsByPathPrefix(t.getPath()).get(0);
+            metrics.recordCount(TransactionMetrics.SUM_ROWS_SCANNED, ((Number) countAndSum[0]).longValue());
+            return amountScale.toAmount(addUnits(0, (Number) countAndSum[1]));
+        }
+
+        // summed by the DB, exactly, instead of fetching a row per descendant
+        Object[] countAndSum = transactionDescendantRepository.sumUnitsByParent(t).get(0);
+        long descendants = ((Number) countAndSum[0]).longValue();
+        metrics.recordCount(TransactionMetrics.SUM_ROWS_SCANNED, descendants + 1);
+        return amountScale.toAmount(addUnits(t.getAmountUnits(), (Number) countAndSum[1]));
+    }
+
+    /**
+     * @param units
+     * @param sum   a sum of units computed by the DB, null if it summed no rows
+     * @return
+     */
+    private static long addUnits(long units, Number sum) {
+        if (sum == null) {
+            return units;
+        }
+        try {
+            return Math.addExact(units, AmountScale.toLongExact(sum));
+        } catch (ArithmeticException e) {
+            throw new ServerErrorException("sum overflow");
+        }
     }
 }
@@ -5,8 +5,14 @@ import com.jayway.restassured.builder.RequestSpecBuilder;
 import com.jayway.restassured.http.ContentType;
 import com.jayway.restassured.parsing.Parser;
 import com.jayway.restassured.response.Response;
+import com.n26.yonatan.aggregate.JpaTypeAggregates;
+import com.n26.yonatan.cache.SumCache;
+import com.n26.yonatan.cache.TransactionCache;
+import com.n26.yonatan.cache.TransactionIds;
+import com.n26.yonatan.dto.Statistics;
 import com.n26.yonatan.dto.Status;
 import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionBatch;
 import com.n26.yonatan.model.TransactionEntity;
 import com.n26.yonatan.repository.TransactionDescendantRepository;
 import com.n26.yonatan.repository.TransactionRepository;
@@ -27,18 +33,22 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 
+import java.util.Arrays;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.collect.Sets.newHashSet;
 import static com.jayway.restassured.RestAssured.given;
 import static com.jayway.restassured.RestAssured.when;
 import static com.n26.yonatan.testutils.IsCloseTo.closeTo;
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
 import static com.n26.yonatan.testutils.Utils.descendant;
 import static com.n26.yonatan.testutils.Utils.entity;
 import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
-import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
@@ -70,6 +80,18 @@ public class IT_ApplicationTests {
     @Autowired
     TransactionRepository transactionRepository;
 
+    @Autowired
+    TransactionCache transactionCache;
+
+    @Autowired
+    TransactionIds transactionIds;
+
+    @Autowired
+    SumCache sumCache;
+
+    @Autowired
+    JpaTypeAggregates typeAggregates;
+
     @Value("${local.server.port}")
     private int serverPort;
 
@@ -81,6 +103,11 @@ public class IT_ApplicationTests {
 
         transactionDescendantRepository.deleteAll();
         transactionRepository.deleteAll();
+        // the cached transactions and sums are valid as long as they are not deleted
+        transactionCache.invalidateAll();
+        sumCache.invalidateAll();
+        transactionIds.reload();
+        typeAggregates.reload();
     }
 
     /**
@@ -135,6 +162,12 @@ public class IT_ApplicationTests {
         putTransaction(graph[0])
                 .then().statusCode(CONFLICT.value())
                 .body("status", is("conflict"));
+        // the created transactions are served from the cache
+        when()
+                .get("transactionservice/caches")
+                .then().statusCode(OK.value())
+                .body("transaction.hits", greaterThanOrEqualTo(graph.length))
+                .body("transaction.size", greaterThanOrEqualTo(graph.length));
         {
             // make sure the sums of every subtree in the forest are correct
             Object[][] tests = new Object[][]{
@@ -153,6 +186,32 @@ public class IT_ApplicationTests {
                         .body("sum", closeTo((float) test[1], 0.001f));
             }
 
+            // a new descendant invalidates only the cached sums of its ancestors
+            putTransaction(transaction(8, 1, "type4", 4L))
+                    .then().statusCode(OK.value());
+            for (Object[] test : tests) {
+                int id = (int) test[0];
+                float expected = (float) test[1] + (id == 1 || id == 2 || id == 4 ? 1 : 0);
+                when()
+                        .get("transactionservice/sum/{id}", id)
+                        .then()
+                        .statusCode(OK.value())
+                        .body("sum", closeTo(expected, 0.001f));
+            }
+            when()
+                    .get("transactionservice/caches")
+                    .then().statusCode(OK.value())
+                    .body("sum.hits", greaterThanOrEqualTo(3));
+            // the sums were recorded by every layer
+            when()
+                    .get("transactionservice/metrics")
+                    .then().statusCode(OK.value())
+                    .body("endpoints.'GET /transactionservice/sum/{transactionId}'.count", greaterThanOrEqualTo(12))
+                    .body("services.sumTransactions.count", greaterThanOrEqualTo(12))
+                    .body("counters.sql_statements_per_request.max", greaterThanOrEqualTo(2))
+                    .body("counters.closure_rows_per_insert.max", greaterThanOrEqualTo(3))
+                    .body("counters.sum_rows_scanned.max", greaterThanOrEqualTo(4));
+
             // verify proper error when summing non existing transaction
             when()
                     .get("transactionservice/sum/{id}", 1234)
@@ -174,9 +233,179 @@ public class IT_ApplicationTests {
                         .then().statusCode(OK.value())
                         .extract().response().as(Long[].class);
                 assertThat(newHashSet(ids), equalTo(test[1]));
+
+                when()
+                        .get("transactionservice/types/{type}/count", test[0])
+                        .then().statusCode(OK.value())
+                        .body("count", is(((Set) test[1]).size()));
             }
 
+            // keyset pagination - the next page starts after the last id of the previous one
+            given().param("limit", 2)
+                    .when().get("transactionservice/types/{type}", "type2")
+                    .then().statusCode(OK.value())
+                    .body("", contains(3, 5));
+            given().param("after", 5).param("limit", 2)
+                    .when().get("transactionservice/types/{type}", "type2")
+                    .then().statusCode(OK.value())
+                    .body("", contains(99));
+            given().param("limit", 0)
+                    .when().get("transactionservice/types/{type}", "type2")
+                    .then().statusCode(BAD_REQUEST.value())
+                    .body("status", is("invalid limit"));
+
+            // the aggregates of a type
+            when()
+                    .get("transactionservice/types/{type}/stats", "type1")
+                    .then().statusCode(OK.value())
+                    .body("count", is(3))
+                    .body("sum", closeTo(1.1f + 5.1f + 11.1f, 0.001f))
+                    .body("min", closeTo(1.1f, 0.001f))
+                    .body("max", closeTo(11.1f, 0.001f))
+                    .body("mean", closeTo((1.1f + 5.1f + 11.1f) / 3, 0.001f));
+            when()
+                    .get("transactionservice/types/{type}/stats", "type3")
+                    .then().statusCode(OK.value())
+                    .body("count", is(0))
+                    .body("min", is(nullValue()))
+                    .body("mean", is(nullValue()));
+        }
+    }
+
+    /**
+     * This test saves a forest as a single batch, with children preceding their parents,
+     * and verifies the sums. Then it verifies a conflicting batch is rolled back entirely.
+     */
+    @Test
+    public void saveBatchFlow() {
+        putTransaction(transaction(1, 1, "batch"))
+                .then().statusCode(OK.value());
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(
+                batchTransaction(4, 4, "batch", 3L),
+                batchTransaction(3, 3, "batch", 2L),
+                batchTransaction(2, 2, "batch", 1L),
+                batchTransaction(5, 5, "batch", 1L),
+                batchTransaction(6, 6, "other", null)));
+        given().body(batch)
+                .put("transactionservice/transactions")
+                .then().statusCode(OK.value())
+                .body("status", is("ok"));
+
+        Object[][] tests = new Object[][]{
+                new Object[]{1, 15f},
+                new Object[]{2, 9f},
+                new Object[]{3, 7f},
+                new Object[]{4, 4f},
+                new Object[]{6, 6f}
+        };
+        for (Object[] test : tests) {
+            when()
+                    .get("transactionservice/sum/{id}", test[0])
+                    .then()
+                    .statusCode(OK.value())
+                    .body("sum", closeTo((float) test[1], 0.001f));
         }
+
+        // one transaction already exists - nothing should be saved
+        batch.setTransactions(Arrays.asList(
+                batchTransaction(7, 7, "batch", 4L),
+                batchTransaction(4, 4, "batch", 3L)));
+        given().body(batch)
+                .put("transactionservice/transactions")
+                .then().statusCode(CONFLICT.value())
+                .body("status", is("conflict"));
+        assertThat(transactionRepository.findOne(7L), is(nullValue()));
+        assertThat(transactionRepository.count(), is(6L));
+        assertThat(transactionDescendantRepository.count(), is(1L + 2 + 3 + 1));
+        // the rolled back batch is not aggregated
+        when()
+                .get("transactionservice/types/{type}/stats", "batch")
+                .then().statusCode(OK.value())
+                .body("count", is(5))
+                .body("sum", closeTo(15f, 0.001f))
+                .body("min", closeTo(1f, 0.001f))
+                .body("max", closeTo(5f, 0.001f));
+    }
+
+    /**
+     * This test saves a tree, using single transactions and a batch, and verifies its subtrees are listed
+     * with their depths - streamed, and page by page
+     */
+    @Test
+    public void descendantsFlow() {
+        putTransaction(transaction(1, 1, "tree")).then().statusCode(OK.value());
+        putTransaction(transaction(3, 3, "tree", 1L)).then().statusCode(OK.value());
+        putTransaction(transaction(5, 5.5, "leaf", 3L)).then().statusCode(OK.value());
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(
+                batchTransaction(4, 4, "tree", 2L),
+                batchTransaction(2, 2, "tree", 1L),
+                batchTransaction(6, 6, "leaf", 5L)));
+        given().body(batch).put("transactionservice/transactions").then().statusCode(OK.value());
+
+        when().get("transactionservice/transaction/{id}/descendants", 1)
+                .then().statusCode(OK.value())
+                .body("collect { it[0] }", contains(2, 3, 4, 5, 6))
+                .body("collect { it[3] }", contains(1, 1, 2, 3, 5))
+                .body("[3][1]", closeTo(5.5f, 0.001f))
+                .body("[3][2]", is("leaf"));
+        when().get("transactionservice/transaction/{id}/descendants?depth=2", 1)
+                .then().statusCode(OK.value())
+                .body("collect { it[0] }", contains(2, 3, 4, 5));
+        when().get("transactionservice/transaction/{id}/descendants?depth=1", 3)
+                .then().statusCode(OK.value())
+                .body("collect { it[0] }", contains(5));
+        when().get("transactionservice/transaction/{id}/descendants?after=3&limit=2", 1)
+                .then().statusCode(OK.value())
+                .body("collect { it[0] }", contains(4, 5));
+        when().get("transactionservice/transaction/{id}/descendants", 6)
+                .then().statusCode(OK.value())
+                .body("size()", is(0));
+        when().get("transactionservice/transaction/{id}/descendants", 7)
+                .then().statusCode(NOT_FOUND.value())
+                .body("status", is("not found"));
+        when().get("transactionservice/transaction/{id}/descendants?depth=0", 1)
+                .then().statusCode(BAD_REQUEST.value())
+                .body("status", is("invalid depth"));
+    }
+
+    /**
+     * This test saves transactions with and without timestamps, and verifies the timestamps are stored, and that
+     * only the transactions of the last 60 seconds are counted by the statistics
+     */
+    @Test
+    public void timestampAndStatisticsFlow() {
+        // other tests may have created transactions within the window
+        Statistics before = when().get("transactionservice/statistics").as(Statistics.class);
+        long now = System.currentTimeMillis();
+
+        TransactionWrapper timed = transaction(1, 1000, "timed");
+        timed.transaction.setTimestamp(now);
+        putTransaction(timed).then().statusCode(OK.value());
+        putTransaction(transaction(2, 3, "timed")).then().statusCode(OK.value());
+        TransactionWrapper old = transaction(3, 5000, "timed");
+        old.transaction.setTimestamp(now - 120_000);
+        putTransaction(old).then().statusCode(OK.value());
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(batchTransaction(4, 7, "timed", 1L), batchTransaction(5, 9, "timed", 1L)));
+        batch.getTransactions().get(0).setTimestamp(now - 10_000);
+        given().body(batch).put("transactionservice/transactions").then().statusCode(OK.value());
+
+        when().get("transactionservice/transaction/{id}", 1)
+                .then().statusCode(OK.value()).body("timestamp", is(now));
+        when().get("transactionservice/transaction/{id}", 2)
+                .then().statusCode(OK.value()).body("timestamp", is(nullValue()));
+        // the batch is inserted with JDBC, and read back from the DB
+        transactionCache.invalidateAll();
+        when().get("transactionservice/transaction/{id}", 4)
+                .then().statusCode(OK.value()).body("timestamp", is(now - 10_000));
+
+        Statistics after = when().get("transactionservice/statistics").as(Statistics.class);
+        assertThat(after.getCount() - before.getCount(), is(4L));
+        assertThat(after.getSum() - before.getSum(), closeTo(1019, 0.001));
+        assertThat(after.getMax(), greaterThanOrEqualTo(1000.0));
+        assertThat(after.getAvg(), closeTo(after.getSum() / after.getCount(), 0.001));
     }
 
     /**
@@ -218,7 +447,7 @@ public class IT_ApplicationTests {
             // Make sure the entity exists in the DB
             assertThat(transactionRepository.findOne((long) i), is(notNullValue()));
             // Make sure descendants of the failed creations were rolled back
-            assertThat(transactionDescendantRepository.amountsByParent(parentEntity), hasSize(i + 1));
+            assertThat(transactionDescendantRepository.sumUnitsByParent(parentEntity).get(0)[0], is((Object) (long) (i + 1)));
 
         }
     }
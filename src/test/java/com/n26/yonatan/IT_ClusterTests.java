@@ -0,0 +1,152 @@
+package com.n26.yonatan;
+
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.builder.RequestSpecBuilder;
+import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.parsing.Parser;
+import com.jayway.restassured.specification.RequestSpecification;
+import com.n26.yonatan.dto.TransactionBatch;
+import com.n26.yonatan.memory.TransactionGraph;
+import com.n26.yonatan.testutils.SlowTest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.SocketUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.jayway.restassured.RestAssured.given;
+import static com.n26.yonatan.testutils.IsCloseTo.closeTo;
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Integration tests for the cluster mode - three nodes, each running on its own port, as they would on
+ * different machines
+ */
+@Category(SlowTest.class)
+public class IT_ClusterTests {
+    static final int NODES = 3;
+
+    static List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    static int[] ports = new int[NODES];
+
+    @BeforeClass
+    public static void startCluster() {
+        for (int i = 0; i < NODES; i++) {
+            ports[i] = SocketUtils.findAvailableTcpPort();
+        }
+        String nodes = Arrays.stream(ports).mapToObj(port -> "http://localhost:" + port)
+                .collect(Collectors.joining(","));
+        for (int i = 0; i < NODES; i++) {
+            contexts.add(new SpringApplicationBuilder(Main.class).properties(
+                    "server.port:" + ports[i],
+                    "spring.datasource.url:jdbc:h2:mem:cluster-node-" + i,
+                    "spring.jmx.enabled:false",
+                    "transactionservice.storage:memory",
+                    "transactionservice.cluster.nodes:" + nodes,
+                    "transactionservice.cluster.node-index:" + i).run());
+        }
+        RestAssured.defaultParser = Parser.JSON;
+    }
+
+    @AfterClass
+    public static void stopCluster() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    private static RequestSpecification node(int i) {
+        return given().spec(new RequestSpecBuilder().setContentType(ContentType.JSON).setPort(ports[i % NODES])
+                .build());
+    }
+
+    /**
+     * Save a deep chain and a wide star through all the nodes, and verify every node serves the same results
+     */
+    @Test
+    public void clusterFlow() {
+        for (long id = 1; id <= 30; id++) {
+            node((int) id).body(id == 1 ? transaction(1, "chain") : transaction(1, "chain", id - 1))
+                    .put("transactionservice/transaction/{id}", id)
+                    .then().statusCode(OK.value()).body("status", is("ok"));
+        }
+        for (long id = 100; id < 150; id++) {
+            node((int) id).body(transaction(2, "star", 15L)).put("transactionservice/transaction/{id}", id)
+                    .then().statusCode(OK.value());
+        }
+
+        for (int i = 0; i < NODES; i++) {
+            node(i).get("transactionservice/sum/{id}", 1)
+                    .then().statusCode(OK.value()).body("sum", closeTo(130f, 0.001f));
+            node(i).get("transactionservice/sum/{id}", 15)
+                    .then().statusCode(OK.value()).body("sum", closeTo(116f, 0.001f));
+            node(i).get("transactionservice/sum/{id}", 30)
+                    .then().statusCode(OK.value()).body("sum", closeTo(1f, 0.001f));
+            node(i).get("transactionservice/transaction/{id}", 120)
+                    .then().statusCode(OK.value()).body("type", is("star")).body("parent_id", is(15));
+            node(i).get("transactionservice/transaction/{id}", 999)
+                    .then().statusCode(NOT_FOUND.value()).body("status", is("not found"));
+
+            node(i).body(transaction(1, "chain")).put("transactionservice/transaction/{id}", 5)
+                    .then().statusCode(CONFLICT.value()).body("status", is("conflict"));
+            node(i).body(transaction(1, "chain", 999L)).put("transactionservice/transaction/{id}", 200 + i)
+                    .then().statusCode(BAD_REQUEST.value()).body("status", is("parent not found"));
+
+            Long[] ids = node(i).get("transactionservice/types/{type}", "chain")
+                    .then().statusCode(OK.value())
+                    .extract().response().as(Long[].class);
+            assertThat(Arrays.asList(ids), is(idRange(1, 31)));
+            Long[] page = node(i).get("transactionservice/types/{type}?after=110&limit=5", "star")
+                    .then().statusCode(OK.value())
+                    .extract().response().as(Long[].class);
+            assertThat(Arrays.asList(page), is(idRange(111, 116)));
+            node(i).get("transactionservice/types/{type}/count", "star")
+                    .then().statusCode(OK.value()).body("count", is(50));
+            node(i).get("transactionservice/types/{type}/stats", "chain")
+                    .then().statusCode(OK.value()).body("count", is(30)).body("sum", closeTo(30f, 0.001f))
+                    .body("min", closeTo(1f, 0.001f)).body("max", closeTo(1f, 0.001f))
+                    .body("mean", closeTo(1f, 0.001f));
+            // all the transactions were created within the last minute
+            node(i).get("transactionservice/statistics")
+                    .then().statusCode(OK.value()).body("count", is(80)).body("sum", closeTo(130f, 0.001f))
+                    .body("max", closeTo(2f, 0.001f)).body("min", closeTo(1f, 0.001f));
+        }
+
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(batchTransaction(300, 1, "batch", null)));
+        node(0).body(batch).put("transactionservice/transactions")
+                .then().statusCode(BAD_REQUEST.value());
+        node(0).get("transactionservice/transaction/{id}/descendants", 1)
+                .then().statusCode(BAD_REQUEST.value());
+
+        // the transactions are partitioned
+        int total = 0;
+        for (ConfigurableApplicationContext context : contexts) {
+            int size = context.getBean(TransactionGraph.class).size();
+            assertThat(size, greaterThan(10));
+            total += size;
+        }
+        assertThat(total, is(80));
+    }
+
+    private static List<Long> idRange(long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,148 @@
+package com.n26.yonatan;
+
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.builder.RequestSpecBuilder;
+import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.parsing.Parser;
+import com.n26.yonatan.cache.SumCache;
+import com.n26.yonatan.cache.TransactionCache;
+import com.n26.yonatan.cache.TransactionIds;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.repository.TransactionDescendantRepository;
+import com.n26.yonatan.repository.TransactionRepository;
+import com.n26.yonatan.service.GroupCommitWriter;
+import com.n26.yonatan.testutils.SlowTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
+import static com.n26.yonatan.testutils.IsCloseTo.closeTo;
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Integration tests for the app, when single transactions are written by the group commit writer
+ */
+@Category(SlowTest.class)
+@RunWith(SpringJUnit4ClassRunner.class)
+@IntegrationTest({"server.port:0", "transactionservice.write.mode:group"})
+@TestPropertySource("classpath:test-application.properties")
+@SpringApplicationConfiguration(classes = Main.class)
+@WebAppConfiguration
+public class IT_GroupCommitTests {
+
+    @Autowired
+    TransactionDescendantRepository transactionDescendantRepository;
+
+    @Autowired
+    TransactionRepository transactionRepository;
+
+    @Autowired
+    TransactionCache transactionCache;
+
+    @Autowired
+    TransactionIds transactionIds;
+
+    @Autowired
+    SumCache sumCache;
+
+    // the single transactions are written through it
+    @Autowired
+    GroupCommitWriter groupCommitWriter;
+
+    @Value("${local.server.port}")
+    private int serverPort;
+
+    @Before
+    public void setup() {
+        RestAssured.port = serverPort;
+        RestAssured.defaultParser = Parser.JSON;
+        RestAssured.requestSpecification = new RequestSpecBuilder().setContentType(ContentType.JSON).build();
+
+        transactionDescendantRepository.deleteAll();
+        transactionRepository.deleteAll();
+        transactionCache.invalidateAll();
+        sumCache.invalidateAll();
+        // the known ids are trusted to exist
+        transactionIds.reload();
+    }
+
+    /**
+     * Save transactions concurrently, including duplicates and missing parents, and verify each request gets
+     * the same response as when written directly
+     */
+    @Test
+    public void concurrentSaveFlow() throws Exception {
+        long now = System.currentTimeMillis();
+        Transaction timed = transaction(1, "group");
+        timed.setTimestamp(now);
+        given().body(timed).put("transactionservice/transaction/{id}", 1)
+                .then().statusCode(OK.value()).body("status", is("ok"));
+        given().body(transaction(1, "group", 1L)).put("transactionservice/transaction/{id}", 2)
+                .then().statusCode(OK.value()).body("status", is("ok"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> children = new ArrayList<>();
+            List<Future<Integer>> duplicates = new ArrayList<>();
+            List<Future<Integer>> orphans = new ArrayList<>();
+            for (long id = 100; id < 300; id++) {
+                long transactionId = id;
+                children.add(executor.submit(() -> given().body(transaction(1, "group", 2L))
+                        .put("transactionservice/transaction/{id}", transactionId).statusCode()));
+                duplicates.add(executor.submit(() -> given().body(transaction(1, "group", 2L))
+                        .put("transactionservice/transaction/{id}", 1).statusCode()));
+                orphans.add(executor.submit(() -> given().body(transaction(1, "group", 9999L))
+                        .put("transactionservice/transaction/{id}", transactionId + 1000).statusCode()));
+            }
+            for (Future<Integer> status : children) {
+                assertThat(status.get(), is(OK.value()));
+            }
+            for (Future<Integer> status : duplicates) {
+                assertThat(status.get(), is(CONFLICT.value()));
+            }
+            for (Future<Integer> status : orphans) {
+                assertThat(status.get(), is(BAD_REQUEST.value()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        given().body(transaction(1, "group", 9999L)).put("transactionservice/transaction/{id}", 3)
+                .then().statusCode(BAD_REQUEST.value()).body("status", is("parent not found"));
+        given().body(transaction(1, "group")).put("transactionservice/transaction/{id}", 2)
+                .then().statusCode(CONFLICT.value()).body("status", is("conflict"));
+
+        when().get("transactionservice/sum/{id}", 1)
+                .then().statusCode(OK.value()).body("sum", closeTo(202f, 0.001f));
+        when().get("transactionservice/transaction/{id}", 150)
+                .then().statusCode(OK.value()).body("parent_id", is(2));
+        // the group is inserted with JDBC, so read the timestamp back from the DB
+        transactionCache.invalidateAll();
+        when().get("transactionservice/transaction/{id}", 1)
+                .then().statusCode(OK.value()).body("timestamp", is(now));
+        assertThat(transactionRepository.count(), is(202L));
+        // 1 above 2, and 1 and 2 above each of the 200 children
+        assertThat(transactionDescendantRepository.count(), is(401L));
+    }
+}
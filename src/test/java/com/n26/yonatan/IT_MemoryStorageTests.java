@@ -0,0 +1,120 @@
+package com.n26.yonatan;
+
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.builder.RequestSpecBuilder;
+import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.parsing.Parser;
+import com.n26.yonatan.memory.TransactionGraph;
+import com.n26.yonatan.memory.TransactionLog;
+import com.n26.yonatan.repository.TransactionRepository;
+import com.n26.yonatan.testutils.SlowTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
+import static com.n26.yonatan.testutils.IsCloseTo.closeTo;
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Integration tests for the app, when using the in-memory storage
+ */
+@Category(SlowTest.class)
+@RunWith(SpringJUnit4ClassRunner.class)
+@IntegrationTest({"server.port:0", "transactionservice.storage:memory",
+        "transactionservice.storage.memory.log.dir:" + IT_MemoryStorageTests.LOG_DIR})
+@TestPropertySource("classpath:test-application.properties")
+@SpringApplicationConfiguration(classes = Main.class)
+@WebAppConfiguration
+public class IT_MemoryStorageTests {
+    static final String LOG_DIR = "build/it-transaction-log";
+
+    @Autowired
+    TransactionGraph transactionGraph;
+
+    @Autowired
+    TransactionRepository transactionRepository;
+
+    // the writes go through the transaction log
+    @Autowired
+    TransactionLog transactionLog;
+
+    @Value("${local.server.port}")
+    private int serverPort;
+
+    @BeforeClass
+    public static void clearTransactionLog() {
+        // the graph is restored from the log when the context starts
+        FileSystemUtils.deleteRecursively(new File(LOG_DIR));
+    }
+
+    @Before
+    public void setup() {
+        RestAssured.port = serverPort;
+        RestAssured.defaultParser = Parser.JSON;
+        RestAssured.requestSpecification = new RequestSpecBuilder().setContentType(ContentType.JSON).build();
+    }
+
+    /**
+     * Save a small tree, and verify it is served by the graph without touching the DB
+     */
+    @Test
+    public void saveSumAndQueryFlow() {
+        given().body(transaction(1.5, "memory")).put("transactionservice/transaction/{id}", 1001)
+                .then().statusCode(OK.value()).body("status", is("ok"));
+        given().body(transaction(2.5, "memory", 1001L)).put("transactionservice/transaction/{id}", 1002)
+                .then().statusCode(OK.value()).body("status", is("ok"));
+
+        given().body(transaction(2.5, "memory")).put("transactionservice/transaction/{id}", 1002)
+                .then().statusCode(CONFLICT.value()).body("status", is("conflict"));
+        given().body(transaction(2.5, "memory", 999L)).put("transactionservice/transaction/{id}", 1003)
+                .then().statusCode(BAD_REQUEST.value()).body("status", is("parent not found"));
+
+        when().get("transactionservice/transaction/{id}", 1002)
+                .then().statusCode(OK.value())
+                .body("type", is("memory"))
+                .body("amount", equalTo(2.5f))
+                .body("parent_id", is(1001));
+        when().get("transactionservice/transaction/{id}", 1003)
+                .then().statusCode(NOT_FOUND.value());
+
+        when().get("transactionservice/sum/{id}", 1001)
+                .then().statusCode(OK.value())
+                .body("sum", closeTo(4f, 0.001f));
+
+        Long[] ids = when().get("transactionservice/types/{type}", "memory")
+                .then().statusCode(OK.value())
+                .extract().response().as(Long[].class);
+        assertThat(newHashSet(ids), equalTo(newHashSet(1001L, 1002L)));
+        when().get("transactionservice/types/{type}/count", "memory")
+                .then().statusCode(OK.value())
+                .body("count", is(2));
+        when().get("transactionservice/transaction/{id}/descendants", 1001)
+                .then().statusCode(OK.value())
+                .body("[0][0]", is(1002))
+                .body("[0][3]", is(1001));
+
+        assertThat(transactionRepository.count(), is(0L));
+    }
+}
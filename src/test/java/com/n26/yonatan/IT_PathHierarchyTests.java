@@ -0,0 +1,139 @@
+package com.n26.yonatan;
+
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.builder.RequestSpecBuilder;
+import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.parsing.Parser;
+import com.n26.yonatan.cache.SumCache;
+import com.n26.yonatan.cache.TransactionCache;
+import com.n26.yonatan.cache.TransactionIds;
+import com.n26.yonatan.dto.TransactionBatch;
+import com.n26.yonatan.repository.TransactionDescendantRepository;
+import com.n26.yonatan.repository.TransactionRepository;
+import com.n26.yonatan.testutils.SlowTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.Arrays;
+
+import static com.jayway.restassured.RestAssured.given;
+import static com.jayway.restassured.RestAssured.when;
+import static com.n26.yonatan.testutils.IsCloseTo.closeTo;
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Integration tests for the app, when using the materialized path hierarchy
+ */
+@Category(SlowTest.class)
+@RunWith(SpringJUnit4ClassRunner.class)
+@IntegrationTest({"server.port:0", "transactionservice.hierarchy:path"})
+@TestPropertySource("classpath:test-application.properties")
+@SpringApplicationConfiguration(classes = Main.class)
+@WebAppConfiguration
+public class IT_PathHierarchyTests {
+
+    @Autowired
+    TransactionDescendantRepository transactionDescendantRepository;
+
+    @Autowired
+    TransactionRepository transactionRepository;
+
+    @Autowired
+    TransactionCache transactionCache;
+
+    @Autowired
+    TransactionIds transactionIds;
+
+    @Autowired
+    SumCache sumCache;
+
+    @Value("${local.server.port}")
+    private int serverPort;
+
+    @Before
+    public void setup() {
+        RestAssured.port = serverPort;
+        RestAssured.defaultParser = Parser.JSON;
+        RestAssured.requestSpecification = new RequestSpecBuilder().setContentType(ContentType.JSON).build();
+
+        transactionDescendantRepository.deleteAll();
+        transactionRepository.deleteAll();
+        // the cached transactions and sums are valid as long as they are not deleted
+        transactionCache.invalidateAll();
+        sumCache.invalidateAll();
+        // the known ids are trusted to exist
+        transactionIds.reload();
+    }
+
+    /**
+     * Save a forest using single transactions and a batch, and verify the sums of every subtree
+     */
+    @Test
+    public void saveAndSumFlow() {
+        given().body(transaction(1.1, "path")).put("transactionservice/transaction/{id}", 1)
+                .then().statusCode(OK.value());
+        given().body(transaction(5.1, "path", 1L)).put("transactionservice/transaction/{id}", 2)
+                .then().statusCode(OK.value());
+        // the path of 1 is a prefix of the path of 11 - but 11 is not its descendant
+        given().body(transaction(100, "path")).put("transactionservice/transaction/{id}", 11)
+                .then().statusCode(OK.value());
+        // cache the sum of 1 before its descendants are added
+        when().get("transactionservice/sum/{id}", 1)
+                .then().statusCode(OK.value()).body("sum", closeTo(6.2f, 0.001f));
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(
+                batchTransaction(4, 11.1, "path", 2L),
+                batchTransaction(5, 13, "path", 2L),
+                batchTransaction(3, 7.1, "path", 1L)));
+        given().body(batch).put("transactionservice/transactions")
+                .then().statusCode(OK.value());
+
+        Object[][] tests = new Object[][]{
+                new Object[]{5, 13f},
+                new Object[]{4, 11.1f},
+                new Object[]{3, 7.1f},
+                new Object[]{2, 5.1f + (11.1f + 13f)},
+                new Object[]{1, (5.1f + (11.1f + 13f)) + (7.1f) + 1.1f},
+                new Object[]{11, 100f}
+        };
+        for (Object[] test : tests) {
+            when()
+                    .get("transactionservice/sum/{id}", test[0])
+                    .then()
+                    .statusCode(OK.value())
+                    .body("sum", closeTo((float) test[1], 0.001f));
+        }
+        // a new descendant invalidates only the sums of its ancestors
+        given().body(transaction(1, "path", 4L)).put("transactionservice/transaction/{id}", 6)
+                .then().statusCode(OK.value());
+        when().get("transactionservice/sum/{id}", 1)
+                .then().statusCode(OK.value()).body("sum", closeTo(1 + (5.1f + (11.1f + 13f)) + (7.1f) + 1.1f, 0.001f));
+        when().get("transactionservice/sum/{id}", 4)
+                .then().statusCode(OK.value()).body("sum", closeTo(12.1f, 0.001f));
+        when().get("transactionservice/sum/{id}", 3)
+                .then().statusCode(OK.value()).body("sum", closeTo(7.1f, 0.001f));
+
+        // 11 is not listed either
+        when().get("transactionservice/transaction/{id}/descendants", 1)
+                .then().statusCode(OK.value()).body("collect { it[0] }", contains(2, 3, 4, 5, 6));
+        when().get("transactionservice/transaction/{id}/descendants?depth=1&limit=1&after=2", 1)
+                .then().statusCode(OK.value()).body("collect { it[0] }", contains(3));
+
+        assertThat(transactionRepository.findOne(4L).getPath(), is("/1/2/4/"));
+        assertThat(transactionDescendantRepository.count(), is(0L));
+    }
+}
@@ -0,0 +1,112 @@
+package com.n26.yonatan.aggregate;
+
+import com.n26.yonatan.dto.Statistics;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionStatisticsTest {
+
+    AtomicLong now = new AtomicLong(1_445_000_000_500L);
+    TransactionStatistics statistics = new TransactionStatistics(60, now::get);
+
+    @Test
+    public void statistics_shouldAggregateTransactionsWithinWindow() {
+        assertThat(statistics.record(10, null), is(true));
+        assertThat(statistics.record(2, now.get() - 30_000), is(true));
+        assertThat(statistics.record(-4, now.get() - 59_000), is(true));
+
+        Statistics stats = statistics.statistics();
+        assertThat(stats.getCount(), is(3L));
+        assertThat(stats.getSum(), closeTo(8, 0.001));
+        assertThat(stats.getAvg(), closeTo(8.0 / 3, 0.001));
+        assertThat(stats.getMax(), closeTo(10, 0.001));
+        assertThat(stats.getMin(), closeTo(-4, 0.001));
+    }
+
+    @Test
+    public void record_shouldRejectTransactionsOutsideOfWindow() {
+        assertThat(statistics.record(1, now.get() - 61_000), is(false));
+        assertThat(statistics.record(1, now.get() + 1_000), is(false));
+
+        Statistics stats = statistics.statistics();
+        assertThat(stats.getCount(), is(0L));
+        assertThat(stats.getSum(), closeTo(0, 0.001));
+        assertThat(stats.getAvg(), is(nullValue()));
+        assertThat(stats.getMax(), is(nullValue()));
+        assertThat(stats.getMin(), is(nullValue()));
+    }
+
+    @Test
+    public void statistics_shouldSlideWithTime() {
+        statistics.record(1, now.get() - 50_000);
+        statistics.record(2, now.get() - 10_000);
+        now.addAndGet(20_000);
+        assertThat(statistics.statistics().getCount(), is(1L));
+        assertThat(statistics.statistics().getMax(), closeTo(2, 0.001));
+
+        // the bucket of the expired second is reset by the new one
+        statistics.record(5, null);
+        now.addAndGet(55_000);
+        assertThat(statistics.statistics().getCount(), is(1L));
+        assertThat(statistics.statistics().getSum(), closeTo(5, 0.001));
+        // a late transaction cannot be written to a bucket which was reset by a later second
+        assertThat(statistics.record(7, now.get() - 59_000), is(true));
+        assertThat(statistics.record(7, now.get() - 119_000), is(false));
+        assertThat(statistics.statistics().getCount(), is(2L));
+    }
+
+    @Test
+    public void record_shouldNotLoseConcurrentUpdates() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        statistics.record(offset, now.get() - (i % 60) * 1000);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Statistics stats = statistics.statistics();
+        assertThat(stats.getCount(), is(80000L));
+        assertThat(stats.getSum(), closeTo(10000 * (0 + 1 + 2 + 3 + 4 + 5 + 6 + 7), 0.001));
+        assertThat(stats.getMin(), closeTo(0, 0.001));
+        assertThat(stats.getMax(), closeTo(7, 0.001));
+    }
+
+    @Test
+    public void merge_shouldCombineDisjointStatistics() {
+        Statistics merged = TransactionStatistics.merge(new Statistics(4, 2.0, 3.0, 1.0, 2),
+                new Statistics(20, 10.0, 15.0, 5.0, 2));
+        assertThat(merged.getCount(), is(4L));
+        assertThat(merged.getSum(), closeTo(24, 0.001));
+        assertThat(merged.getAvg(), closeTo(6, 0.001));
+        assertThat(merged.getMax(), closeTo(15, 0.001));
+        assertThat(merged.getMin(), closeTo(1, 0.001));
+
+        Statistics empty = new Statistics(0, null, null, null, 0);
+        assertThat(TransactionStatistics.merge(empty, merged), is(merged));
+    }
+}
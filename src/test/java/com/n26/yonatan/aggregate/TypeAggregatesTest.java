@@ -0,0 +1,127 @@
+package com.n26.yonatan.aggregate;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TypeAggregatesTest {
+
+    // units of 1, so the units are the amounts
+    TypeAggregates aggregates = new TypeAggregates(new AmountScale(0));
+
+    @Test(expected = ServerErrorException.class)
+    public void stats_shouldFailWhenSumOverflows() {
+        aggregates.add("a", Long.MAX_VALUE);
+        aggregates.add("a", 1);
+
+        aggregates.stats("a");
+    }
+
+    @Test
+    public void count_shouldCountEvenWhenSumOverflows() {
+        aggregates.add("a", Long.MAX_VALUE);
+        aggregates.add("a", 1);
+
+        assertThat(aggregates.count("a"), is(2L));
+        assertThat(aggregates.count("b"), is(0L));
+    }
+
+    @Test
+    public void stats_shouldAggregateAmountsByType() {
+        aggregates.add("a", 3);
+        aggregates.add("a", -1);
+        aggregates.add("b", 10);
+        aggregates.add("a", 4, 20, -2, 8);
+
+        TypeStats stats = aggregates.stats("a");
+        assertThat(stats.getCount(), is(6L));
+        assertThat(stats.getSum(), closeTo(22, 0.001));
+        assertThat(stats.getMin(), closeTo(-2, 0.001));
+        assertThat(stats.getMax(), closeTo(8, 0.001));
+        assertThat(stats.getMean(), closeTo(22.0 / 6, 0.001));
+        assertThat(aggregates.stats("b").getMean(), closeTo(10, 0.001));
+    }
+
+    @Test
+    public void stats_shouldConvertUnitsToAmounts() {
+        AmountScale scale = new AmountScale(4);
+        TypeAggregates scaled = new TypeAggregates(scale);
+        for (int i = 0; i < 10; i++) {
+            scaled.add("a", scale.toUnits(0.1));
+        }
+        scaled.add("a", scale.toUnits(-2.5));
+
+        TypeStats stats = scaled.stats("a");
+        // exact - summing the doubles would give 0.9999999999999999 for the first ten
+        assertThat(stats.getSum(), is(-1.5));
+        assertThat(stats.getMin(), is(-2.5));
+        assertThat(stats.getMax(), is(0.1));
+    }
+
+    @Test
+    public void stats_shouldReturnEmptyStatsForUnknownType() {
+        TypeStats stats = aggregates.stats("a");
+        assertThat(stats.getCount(), is(0L));
+        assertThat(stats.getSum(), closeTo(0, 0.001));
+        assertThat(stats.getMin(), is(nullValue()));
+        assertThat(stats.getMax(), is(nullValue()));
+        assertThat(stats.getMean(), is(nullValue()));
+    }
+
+    @Test
+    public void add_shouldNotLoseConcurrentUpdates() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int offset = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        aggregates.add("a", offset);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        TypeStats stats = aggregates.stats("a");
+        assertThat(stats.getCount(), is(80000L));
+        assertThat(stats.getSum(), closeTo(10000 * (0 + 1 + 2 + 3 + 4 + 5 + 6 + 7), 0.001));
+        assertThat(stats.getMin(), closeTo(0, 0.001));
+        assertThat(stats.getMax(), closeTo(7, 0.001));
+    }
+
+    @Test
+    public void merge_shouldCombineDisjointStats() {
+        TypeStats merged = TypeAggregates.merge(new TypeStats(2, 4, 1.0, 3.0, 2.0),
+                new TypeStats(2, 20, 5.0, 15.0, 10.0));
+        assertThat(merged.getCount(), is(4L));
+        assertThat(merged.getSum(), closeTo(24, 0.001));
+        assertThat(merged.getMin(), closeTo(1, 0.001));
+        assertThat(merged.getMax(), closeTo(15, 0.001));
+        assertThat(merged.getMean(), closeTo(6, 0.001));
+
+        TypeStats empty = new TypeStats(0, 0, null, null, null);
+        assertThat(TypeAggregates.merge(empty, merged), is(merged));
+        assertThat(TypeAggregates.merge(merged, empty), is(merged));
+    }
+}
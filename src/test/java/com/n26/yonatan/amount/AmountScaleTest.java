@@ -0,0 +1,57 @@
+package com.n26.yonatan.amount;
+
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Category(FastTest.class)
+public class AmountScaleTest {
+
+    @Test
+    public void toUnits_shouldAcceptTheRangeAtEveryScale() {
+        for (int scale = 0; scale <= AmountScale.MAX_SCALE; scale++) {
+            AmountScale amountScale = new AmountScale(scale);
+            assertThat(amountScale.toAmount(amountScale.toUnits(AmountScale.MAX_AMOUNT_RANGE)),
+                    is(AmountScale.MAX_AMOUNT_RANGE));
+            assertThat(amountScale.toAmount(amountScale.toUnits(-AmountScale.MAX_AMOUNT_RANGE)),
+                    is(-AmountScale.MAX_AMOUNT_RANGE));
+        }
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void toUnits_shouldRejectAmountsBeyondLong() {
+        new AmountScale(4).toUnits(1e15);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_shouldRejectScaleBeyondTheRange() {
+        new AmountScale(AmountScale.MAX_SCALE + 1);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void toLongExact_shouldRejectDecimalsBeyondLong() {
+        AmountScale.toLongExact(BigDecimal.valueOf(Long.MAX_VALUE).add(BigDecimal.ONE));
+    }
+
+    @Test
+    public void exactAdder_shouldDetectOverflow() {
+        ExactAdder adder = new ExactAdder();
+        adder.add(Long.MAX_VALUE);
+        adder.add(-1);
+        assertThat(adder.sum(), is(Long.MAX_VALUE - 1));
+        adder.add(2);
+        try {
+            adder.sum();
+            fail();
+        } catch (ArithmeticException e) {
+            // expected
+        }
+    }
+}
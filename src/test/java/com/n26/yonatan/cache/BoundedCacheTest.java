@@ -0,0 +1,82 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.dto.CacheStats;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class BoundedCacheTest {
+
+    @Test
+    public void cache_shouldCountHitsMissesAndEvictions() {
+        for (String policy : new String[]{BoundedCache.LRU, BoundedCache.TINY_LFU}) {
+            BoundedCache<Long, String> cache = BoundedCache.create(policy, 10);
+            for (long i = 0; i < 15; i++) {
+                cache.put(i, "v" + i);
+            }
+            cache.getIfPresent(14L);
+            cache.getIfPresent(100L);
+
+            CacheStats stats = cache.stats();
+            assertThat(policy, stats.getHits(), is(1L));
+            assertThat(policy, stats.getMisses(), is(1L));
+            assertThat(policy, stats.getEvictions(), is(5L));
+            assertThat(policy, stats.getSize(), is(10L));
+            assertThat(policy, stats.getHitRate(), is(0.5));
+        }
+    }
+
+    @Test
+    public void cache_shouldInvalidate() {
+        for (String policy : new String[]{BoundedCache.LRU, BoundedCache.TINY_LFU}) {
+            BoundedCache<Long, String> cache = BoundedCache.create(policy, 10);
+            cache.put(1L, "v1");
+            cache.put(2L, "v2");
+
+            cache.invalidate(1L);
+            assertThat(policy, cache.getIfPresent(1L), is(nullValue()));
+            assertThat(policy, cache.getIfPresent(2L), is("v2"));
+
+            cache.invalidateAll();
+            assertThat(policy, cache.getIfPresent(2L), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void tinyLfu_shouldKeepHotKeysDuringScan() {
+        CacheStats lru = hotKeysWithScan(BoundedCache.LRU);
+        CacheStats tinyLfu = hotKeysWithScan(BoundedCache.TINY_LFU);
+
+        assertThat(lru.getHits(), lessThan(tinyLfu.getHits()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_shouldRejectUnknownPolicy() {
+        BoundedCache.create("fifo", 10);
+    }
+
+    /**
+     * 20 hot keys, read repeatedly, while a scan of cold keys runs through a cache of 100 entries
+     */
+    private CacheStats hotKeysWithScan(String policy) {
+        BoundedCache<Long, String> cache = BoundedCache.create(policy, 100);
+        long cold = 1000;
+        for (int round = 0; round < 50; round++) {
+            for (long hot = 0; hot < 20; hot++) {
+                if (cache.getIfPresent(hot) == null) {
+                    cache.put(hot, "hot");
+                }
+            }
+            for (int i = 0; i < 200; i++, cold++) {
+                cache.put(cold, "cold");
+            }
+        }
+        return cache.stats();
+    }
+}
@@ -0,0 +1,72 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class SumCacheTest {
+
+    SumCache cache = new SumCache(BoundedCache.TINY_LFU, 100, 0);
+
+    @Test
+    public void put_shouldCacheSum() {
+        cache.put(1, 5.5, cache.stamp(1));
+
+        assertThat(cache.get(1), is(5.5));
+        assertThat(cache.get(2), is(nullValue()));
+        assertThat(cache.stats().getHits(), is(1L));
+        assertThat(cache.stats().getMisses(), is(1L));
+    }
+
+    @Test
+    public void invalidate_shouldInvalidateOnlyAncestors() {
+        for (long id = 1; id <= 4; id++) {
+            cache.put(id, id, cache.stamp(id));
+        }
+
+        cache.invalidate(asList(1L, 2L));
+
+        assertThat(cache.get(1), is(nullValue()));
+        assertThat(cache.get(2), is(nullValue()));
+        assertThat(cache.get(3), is(3.0));
+        assertThat(cache.get(4), is(4.0));
+    }
+
+    @Test
+    public void put_shouldDiscardSumComputedBeforeInvalidation() {
+        long stamp = cache.stamp(1);
+        // a descendant of 1 was committed while its sum was computed
+        cache.invalidate(asList(1L));
+
+        cache.put(1, 5.5, stamp);
+
+        assertThat(cache.get(1), is(nullValue()));
+    }
+
+    @Test
+    public void put_shouldCacheSumComputedDuringInvalidationOfOtherIds() {
+        long stamp = cache.stamp(1);
+        // a transaction was committed under another subtree while the sum of 1 was computed
+        cache.invalidate(asList(2L, 3L));
+
+        cache.put(1, 5.5, stamp);
+
+        assertThat(cache.get(1), is(5.5));
+    }
+
+    @Test
+    public void put_shouldDiscardSumComputedBeforeInvalidateAll() {
+        long stamp = cache.stamp(1);
+        cache.invalidateAll();
+
+        cache.put(1, 5.5, stamp);
+
+        assertThat(cache.get(1), is(nullValue()));
+    }
+}
@@ -0,0 +1,59 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionCacheTest {
+
+    TransactionCache cache = new TransactionCache(BoundedCache.TINY_LFU, 100);
+
+    @Test
+    public void get_shouldReturnCachedTransactions() {
+        Transaction root = transaction(1.1, "type");
+        Transaction child = transaction(2.2, "type", 1L);
+        Transaction timed = transaction(3.3, "type", 1L);
+        timed.setTimestamp(1445000000000L);
+        cache.put(1, root);
+        cache.put(2, child);
+        cache.put(4, timed);
+
+        assertThat(cache.get(1), equalTo(root));
+        assertThat(cache.get(2), equalTo(child));
+        assertThat(cache.get(4), equalTo(timed));
+        assertThat(cache.get(3), is(nullValue()));
+        assertThat(cache.stats().getHits(), is(3L));
+        assertThat(cache.stats().getMisses(), is(1L));
+    }
+
+    @Test
+    public void get_shouldReturnCopies() {
+        Transaction t = transaction(1.1, "type");
+        cache.put(1, t);
+
+        Transaction cached = cache.get(1);
+        assertThat(cached, not(sameInstance(t)));
+        cached.setAmount(5);
+        assertThat(cache.get(1).getAmount(), is(1.1));
+    }
+
+    @Test
+    public void invalidateAll_shouldClearCache() {
+        cache.put(1, transaction(1.1, "type"));
+
+        cache.invalidateAll();
+
+        assertThat(cache.get(1), is(nullValue()));
+        assertThat(cache.stats().getSize(), is(0L));
+    }
+}
@@ -0,0 +1,66 @@
+package com.n26.yonatan.cache;
+
+import com.n26.yonatan.repository.TransactionRepository;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Category(FastTest.class)
+public class TransactionIdsTest {
+
+    TransactionRepository transactionRepository = mock(TransactionRepository.class);
+
+    @Test
+    public void reload_shouldLoadAllPages() {
+        List<Long> firstPage = new ArrayList<>();
+        for (long id = 1; id <= 10000; id++) {
+            firstPage.add(id);
+        }
+        when(transactionRepository.getIdsAfter(eq(Long.MIN_VALUE), any(Pageable.class))).thenReturn(firstPage);
+        when(transactionRepository.getIdsAfter(eq(10000L), any(Pageable.class))).thenReturn(asList(20000L));
+        when(transactionRepository.getIdsAfter(eq(20000L), any(Pageable.class))).thenReturn(emptyList());
+        TransactionIds ids = new TransactionIds(transactionRepository, 100000);
+
+        ids.reload();
+
+        assertThat(ids.size(), is(10001L));
+        assertThat(ids.contains(1), is(true));
+        assertThat(ids.contains(20000), is(true));
+        assertThat(ids.contains(10001), is(false));
+    }
+
+    @Test
+    public void reload_shouldDropDeletedIds() {
+        when(transactionRepository.getIdsAfter(eq(Long.MIN_VALUE), any(Pageable.class))).thenReturn(emptyList());
+        TransactionIds ids = new TransactionIds(transactionRepository, 10);
+        ids.addAll(asList(1L, 2L));
+
+        ids.reload();
+
+        assertThat(ids.contains(1), is(false));
+        assertThat(ids.size(), is(0L));
+    }
+
+    @Test
+    public void addAll_shouldStopAtMaxSize() {
+        TransactionIds ids = new TransactionIds(transactionRepository, 2);
+
+        ids.addAll(asList(1L, 2L, 3L));
+
+        assertThat(ids.size(), is(2L));
+        assertThat(ids.contains(3), is(false));
+    }
+}
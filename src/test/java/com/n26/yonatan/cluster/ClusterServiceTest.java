@@ -0,0 +1,189 @@
+package com.n26.yonatan.cluster;
+
+import com.n26.yonatan.aggregate.TransactionStatistics;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.memory.TransactionGraph;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Category(FastTest.class)
+public class ClusterServiceTest {
+    static final String REMOTE = "http://remote";
+
+    TransactionGraph graph = new TransactionGraph(16);
+    ClusterClient client = mock(ClusterClient.class);
+    // node 0 is local, node 1 is remote
+    ClusterService clusterService = new ClusterService(Arrays.asList("http://local", REMOTE), 0, graph, client, 2,
+            new TransactionStatistics(60));
+
+    @After
+    public void close() {
+        clusterService.close();
+    }
+
+    @Test
+    public void owner_shouldSpreadIdsEvenly() {
+        int[] owned = new int[4];
+        LongStream.range(0, 40_000).forEach(id -> owned[ClusterService.owner(id, 4)]++);
+        for (int count : owned) {
+            assertThat(count, greaterThan(9_000));
+            assertThat(count, lessThan(11_000));
+        }
+    }
+
+    @Test
+    public void owner_shouldMoveOnlyIdsOfNewNode() {
+        for (long id = 0; id < 10_000; id++) {
+            int owner = ClusterService.owner(id, 4);
+            if (owner != 4) {
+                assertThat(ClusterService.owner(id, 5) == owner || ClusterService.owner(id, 5) == 4, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void createTransaction_shouldForwardToOwner() {
+        long remote = ownedBy(1, 0);
+        Transaction t = transaction(1, "type");
+
+        clusterService.createTransaction(remote, t);
+
+        verify(client).createTransaction(REMOTE, remote, t);
+        assertThat(graph.size(), is(0));
+    }
+
+    @Test
+    public void createTransaction_shouldWalkAncestorsAcrossNodes() {
+        long root = ownedBy(1, 0);
+        long child = ownedBy(0, 0);
+        long grandchild = ownedBy(0, child + 1);
+        when(client.findTransaction(REMOTE, root)).thenReturn(transaction(1, "type"));
+        // the root has no parent
+        when(client.addToSubtreeTotals(anyString(), anyLong(), anyDouble())).thenReturn(null);
+
+        clusterService.createTransaction(child, transaction(2, "type", root));
+        clusterService.createTransaction(grandchild, transaction(4, "type", child));
+
+        assertThat(clusterService.sumTransactions(child).getSum(), closeTo(6, 0.001));
+        assertThat(clusterService.sumTransactions(grandchild).getSum(), closeTo(4, 0.001));
+        // the walk continues on the owner of the root
+        verify(client).addToSubtreeTotals(REMOTE, root, 2);
+        verify(client).addToSubtreeTotals(REMOTE, root, 4);
+    }
+
+    @Test
+    public void createTransaction_shouldRejectMissingParent() {
+        long root = ownedBy(1, 0);
+        long child = ownedBy(0, 0);
+        when(client.findTransaction(REMOTE, root)).thenThrow(new NotFoundException("not found"));
+
+        try {
+            clusterService.createTransaction(child, transaction(2, "type", root));
+            fail();
+        } catch (BadRequestException e) {
+            assertThat(e.getMessage(), is("parent not found"));
+        }
+        assertThat(graph.size(), is(0));
+    }
+
+    @Test
+    public void createTransaction_shouldNotUpdateTotalsOfDuplicates() {
+        long root = ownedBy(1, 0);
+        long child = ownedBy(0, 0);
+        graph.addPartitioned(child, null, 1, "type", null);
+
+        try {
+            clusterService.createTransaction(child, transaction(2, "type", root));
+            fail();
+        } catch (ConflictException e) {
+            verify(client, never()).addToSubtreeTotals(anyString(), anyLong(), anyDouble());
+        }
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void createLocalTransaction_shouldRejectMisroutedTransactions() {
+        clusterService.createLocalTransaction(ownedBy(1, 0), transaction(2, "type"));
+    }
+
+    @Test
+    public void getTransactionIdsByType_shouldMergePagesOfAllNodes() {
+        long[] local = {ownedBy(0, 0), ownedBy(0, 100), ownedBy(0, 200)};
+        for (long id : local) {
+            graph.addPartitioned(id, null, 1, "type", null);
+        }
+        when(client.getTransactionIdsByType(REMOTE, "type", null, 3)).thenReturn(Arrays.asList(-5L, local[1] + 1));
+
+        List<Long> ids = clusterService.getTransactionIdsByType("type", null, 3);
+
+        assertThat(ids, contains(-5L, local[0], local[1]));
+    }
+
+    @Test
+    public void countTransactionsByType_shouldSumCountsOfAllNodes() {
+        graph.addPartitioned(ownedBy(0, 0), null, 1, "type", null);
+        when(client.countTransactionsByType(REMOTE, "type")).thenReturn(new Count(5));
+
+        assertThat(clusterService.countTransactionsByType("type").getCount(), is(6L));
+    }
+
+    @Test
+    public void countTransactionsByType_shouldCallRemoteNodesInParallelWhenPoolIsBusy() {
+        // a single scatter thread for two remote nodes - the second call runs on the calling thread
+        ClusterService threeNodes = new ClusterService(Arrays.asList("http://local", REMOTE, "http://other"), 0,
+                graph, client, 1, new TransactionStatistics(60));
+        CountDownLatch inFlight = new CountDownLatch(2);
+        Answer<Count> count = invocation -> {
+            inFlight.countDown();
+            // returns only once both remote calls are in flight
+            return new Count(inFlight.await(5, TimeUnit.SECONDS) ? 5 : 0);
+        };
+        when(client.countTransactionsByType(REMOTE, "type")).thenAnswer(count);
+        when(client.countTransactionsByType("http://other", "type")).thenAnswer(count);
+        try {
+            assertThat(threeNodes.countTransactionsByType("type").getCount(), is(10L));
+        } finally {
+            threeNodes.close();
+        }
+    }
+
+    /**
+     * Returns the first id from the given one which is owned by the node
+     */
+    private long ownedBy(int node, long from) {
+        long id = from;
+        while (ClusterService.owner(id, 2) != node) {
+            id++;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,72 @@
+package com.n26.yonatan.controller;
+
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.testutils.FastTest;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionValidatorTest {
+
+    TransactionValidator validator = new TransactionValidator();
+    Validator beanValidator;
+    Locale locale;
+
+    @Before
+    public void setup() {
+        // the messages of the bean validation are localized
+        locale = Locale.getDefault();
+        Locale.setDefault(Locale.ENGLISH);
+        beanValidator = Validation.buildDefaultValidatorFactory().getValidator();
+    }
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(locale);
+    }
+
+    /**
+     * The errors are the same as the errors of the bean validation annotations
+     */
+    @Test
+    public void validate_shouldReportSameErrorsAsBeanValidation() {
+        String[] types = new String[]{null, "", "type", "abc_ABC_3", "bad format", "type.it", "type/it", "tüpe",
+                StringUtils.repeat('a', 45), StringUtils.repeat('a', 46), StringUtils.repeat('.', 46)};
+        for (String type : types) {
+            Transaction t = transaction(1, type);
+            Set<String> expected = beanValidator.validate(t).stream()
+                    .map(v -> "[" + v.getPropertyPath() + "] " + v.getMessage())
+                    .collect(Collectors.toSet());
+            assertThat(type, errors(t), is(expected));
+        }
+    }
+
+    @Test
+    public void validate_shouldAcceptValidType() {
+        assertThat(errors(transaction(1, "abc_ABC_3")), is(empty()));
+    }
+
+    private Set<String> errors(Transaction t) {
+        Errors errors = new BeanPropertyBindingResult(t, "transaction");
+        validator.validate(t, errors);
+        return errors.getFieldErrors().stream()
+                .map(e -> "[" + e.getField() + "] " + e.getDefaultMessage())
+                .collect(Collectors.toSet());
+    }
+}
@@ -1,9 +1,21 @@
 package com.n26.yonatan.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.CacheStats;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.Statistics;
 import com.n26.yonatan.dto.Sum;
 import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionBatch;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
 import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import com.n26.yonatan.service.GroupCommitWriter;
+import com.n26.yonatan.service.RequestExecutors;
 import com.n26.yonatan.service.TransactionService;
 import com.n26.yonatan.testutils.FastTest;
 import org.apache.commons.lang3.StringUtils;
@@ -17,24 +29,37 @@ import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
 import static com.n26.yonatan.testutils.Utils.transaction;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -53,17 +78,98 @@ public class TransactionsControllerTest {
     @Spy
     ObjectMapper objectMapper;
 
+    @Spy
+    TransactionMetrics metrics = new TransactionMetrics();
+
+    @Spy
+    AmountScale amountScale = new AmountScale();
+
     @Before
     public void setupMock() {
         mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
     }
 
+    /**
+     * Performs the request, and the async dispatch of its result if it was handled asynchronously
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        ResultActions actions = mockMvc.perform(request);
+        MvcResult result = actions.andReturn();
+        if (!result.getRequest().isAsyncStarted()) {
+            return actions;
+        }
+        // waits for the result
+        result.getAsyncResult();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
+    private RequestExecutors useRequestExecutors(int threads, int queueSize) {
+        RequestExecutors executors = new RequestExecutors(threads, queueSize, threads, queueSize, threads,
+                queueSize, 7, metrics);
+        ReflectionTestUtils.setField(controller, "requestExecutors", executors);
+        return executors;
+    }
+
+    @Test
+    public void getTransaction_shouldHandleExceptionOfExecutor() throws Exception {
+        RequestExecutors executors = useRequestExecutors(1, 1);
+        try {
+            when(transactionService.findTransaction(1)).thenThrow(new NotFoundException("missing transaction"));
+            perform(get("/transactionservice/transaction/1"))
+                    .andExpect(status().isNotFound())
+                    .andExpect(jsonPath("$.status", is("missing transaction")));
+        } finally {
+            executors.close();
+        }
+    }
+
+    @Test
+    public void getTransaction_shouldCompleteWhenExecutorTaskFailsWithError() throws Exception {
+        RequestExecutors executors = useRequestExecutors(1, 1);
+        try {
+            when(transactionService.findTransaction(1)).thenThrow(new OutOfMemoryError("heap"));
+            MvcResult result = mockMvc.perform(get("/transactionservice/transaction/1")).andReturn();
+
+            assertThat(result.getAsyncResult(), instanceOf(OutOfMemoryError.class));
+        } finally {
+            executors.close();
+        }
+    }
+
+    @Test
+    public void sumTransactions_shouldRejectWhenExecutorIsSaturated() throws Exception {
+        RequestExecutors executors = useRequestExecutors(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            when(transactionService.sumTransactions(1)).then(invocation -> {
+                release.await();
+                return new Sum(1);
+            });
+            when(transactionService.findTransaction(1)).thenReturn(transaction(1.1, "type"));
+            // one sum runs, and one is queued
+            mockMvc.perform(get("/transactionservice/sum/1"));
+            mockMvc.perform(get("/transactionservice/sum/1"));
+
+            perform(get("/transactionservice/sum/1"))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string("Retry-After", "7"))
+                    .andExpect(jsonPath("$.status", is("service unavailable")));
+            // the reads have their own executor
+            perform(get("/transactionservice/transaction/1"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.amount", is(1.1)));
+        } finally {
+            release.countDown();
+            executors.close();
+        }
+    }
+
     @Test
     public void getTransaction_shouldFindTransaction() throws Exception {
         Transaction t = transaction(1.1, "type", 8L);
         when(transactionService.findTransaction(1)).thenReturn(t);
 
-        mockMvc.perform(get("/transactionservice/transaction/1"))
+        perform(get("/transactionservice/transaction/1"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$.amount", is(1.1)))
@@ -74,7 +180,7 @@ public class TransactionsControllerTest {
     @Test
     public void getTransaction_shouldHandleNotFoundException() throws Exception {
         when(transactionService.findTransaction(1)).thenThrow(new NotFoundException("missing transaction"));
-        mockMvc.perform(get("/transactionservice/transaction/1"))
+        perform(get("/transactionservice/transaction/1"))
                 .andExpect(status().isNotFound())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$.status", is("missing transaction")));
@@ -84,16 +190,84 @@ public class TransactionsControllerTest {
     public void createTransaction_shouldCreateTransaction() throws Exception {
         Transaction t = transaction(1, "type");
 
-        mockMvc.perform(put("/transactionservice/transaction/1")
+        perform(put("/transactionservice/transaction/1")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(t)))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("status", is("ok")));
 
+        verify(transactionService).checkNotExists(1);
         verify(transactionService).createTransaction(1, t);
         verifyNoMoreInteractions(transactionService);
     }
 
+    @Test
+    public void createTransaction_shouldRejectKnownTransactionBeforeCreatingIt() throws Exception {
+        doThrow(new ConflictException("conflict")).when(transactionService).checkNotExists(1);
+
+        perform(put("/transactionservice/transaction/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(transaction(1, "type"))))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("status", is("conflict")));
+
+        verify(transactionService).checkNotExists(1);
+        verifyNoMoreInteractions(transactionService);
+    }
+
+    @Test
+    public void createTransaction_shouldCreateTransactionUsingGroupCommitWriter() throws Exception {
+        GroupCommitWriter writer = mock(GroupCommitWriter.class);
+        ReflectionTestUtils.setField(controller, "groupCommitWriter", writer);
+        Transaction t = transaction(1, "type");
+        when(writer.submit(1, t)).thenReturn(CompletableFuture.completedFuture(null));
+
+        perform(put("/transactionservice/transaction/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(t)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("status", is("ok")));
+
+        verify(writer).submit(1, t);
+        verify(transactionService).checkNotExists(1);
+        verifyNoMoreInteractions(transactionService);
+    }
+
+    @Test
+    public void createTransaction_shouldNotHoldExecutorWhileGroupIsCommitted() throws Exception {
+        RequestExecutors executors = useRequestExecutors(1, 1);
+        GroupCommitWriter writer = mock(GroupCommitWriter.class);
+        ReflectionTestUtils.setField(controller, "groupCommitWriter", writer);
+        Transaction t = transaction(1, "type");
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        when(writer.submit(1, t)).thenReturn(committed);
+        when(transactionService.findTransaction(2)).thenReturn(transaction(2, "type"));
+        try {
+            MvcResult write = mockMvc.perform(put("/transactionservice/transaction/1")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(t)))
+                    .andReturn();
+
+            // the only writes thread is free for the next requests while the group is committed
+            for (long id = 2; id <= 3; id++) {
+                Transaction next = transaction(id, "type");
+                when(writer.submit(id, next)).thenReturn(CompletableFuture.completedFuture(null));
+                perform(put("/transactionservice/transaction/" + id)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(next)))
+                        .andExpect(status().isOk());
+            }
+            committed.completeExceptionally(new ConflictException("conflict"));
+
+            write.getAsyncResult();
+            mockMvc.perform(asyncDispatch(write))
+                    .andExpect(status().isConflict())
+                    .andExpect(jsonPath("status", is("conflict")));
+        } finally {
+            executors.close();
+        }
+    }
+
     @Test
     public void createTransaction_shouldRejectFailedValidation_conflict() throws Exception {
         Transaction t = transaction(1, "type");
@@ -101,7 +275,7 @@ public class TransactionsControllerTest {
         doThrow(DataIntegrityViolationException.class)
                 .when(transactionService).createTransaction(1, t);
 
-        mockMvc.perform(put("/transactionservice/transaction/1")
+        perform(put("/transactionservice/transaction/1")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(t)))
                 .andExpect(status().isConflict())
@@ -120,7 +294,7 @@ public class TransactionsControllerTest {
         for (Object[] test : tests) {
             Transaction t = transaction((double) test[0], (String) test[1]);
 
-            mockMvc.perform(put("/transactionservice/transaction/1")
+            perform(put("/transactionservice/transaction/1")
                     .contentType(MediaType.APPLICATION_JSON)
                     .content(objectMapper.writeValueAsString(t)))
                     .andExpect(status().isBadRequest())
@@ -130,11 +304,56 @@ public class TransactionsControllerTest {
         }
     }
 
+    @Test
+    public void createTransaction_shouldReportValidationErrors() throws Exception {
+        perform(put("/transactionservice/transaction/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(transaction(1, StringUtils.repeat('.', 46)))))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("status", is("Invalid request: [type] can only contain letters, numbers or " +
+                        "underscore only, [type] length must be between 0 and 45")));
+        verifyZeroInteractions(transactionService);
+    }
+
+    @Test
+    public void createTransactions_shouldCreateTransactions() throws Exception {
+        TransactionBatch batch = new TransactionBatch();
+        batch.setTransactions(Arrays.asList(batchTransaction(1, 1.1, "type", null), batchTransaction(2, 1, "type", 1L)));
+
+        perform(put("/transactionservice/transactions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(batch)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("status", is("ok")));
+
+        verify(transactionService).createTransactions(batch.getTransactions());
+        verifyNoMoreInteractions(transactionService);
+    }
+
+    @Test
+    public void createTransactions_shouldRejectFailedValidation() throws Exception {
+        Object[] tests = new Object[]{
+                Arrays.asList(batchTransaction(1, 1.1, "bad format", null)), //when a type has bad format
+                Arrays.asList(batchTransaction(1, 1.1, "type", null), batchTransaction(2, 1, null, 1L)), //missing type
+                Collections.emptyList() //when the batch is empty
+        };
+        for (Object test : tests) {
+            TransactionBatch batch = new TransactionBatch();
+            batch.setTransactions((List) test);
+
+            perform(put("/transactionservice/transactions")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(batch)))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("status", not(is("ok"))));
+            verifyZeroInteractions(transactionService);
+        }
+    }
 
     @Test
     public void sumTransactions_shouldReturnSum() throws Exception {
         when(transactionService.sumTransactions(1)).thenReturn(new Sum(5.5));
-        mockMvc.perform(get("/transactionservice/sum/1"))
+        perform(get("/transactionservice/sum/1"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("sum", is(5.5)));
@@ -144,17 +363,80 @@ public class TransactionsControllerTest {
     @Test
     public void sumTransactions_shouldHandleException() throws Exception {
         when(transactionService.sumTransactions(1)).thenThrow(new NotFoundException("not found"));
-        mockMvc.perform(get("/transactionservice/sum/1"))
+        perform(get("/transactionservice/sum/1"))
                 .andExpect(status().isNotFound())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("status", is("not found")));
     }
 
+    @Test
+    public void countTransactionsByType_shouldReturnCount() throws Exception {
+        when(transactionService.countTransactionsByType("cars")).thenReturn(new Count(3));
+        perform(get("/transactionservice/types/cars/count"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("count", is(3)));
+    }
+
+    @Test
+    public void getTypeStats_shouldReturnStats() throws Exception {
+        when(transactionService.getTypeStats("cars")).thenReturn(new TypeStats(2, 5, 1.5, 3.5, 2.5));
+        perform(get("/transactionservice/types/cars/stats"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("count", is(2)))
+                .andExpect(jsonPath("sum", is(5.0)))
+                .andExpect(jsonPath("min", is(1.5)))
+                .andExpect(jsonPath("max", is(3.5)))
+                .andExpect(jsonPath("mean", is(2.5)));
+    }
+
+    @Test
+    public void getStatistics_shouldReturnStatistics() throws Exception {
+        when(transactionService.getStatistics()).thenReturn(new Statistics(5, 2.5, 3.5, 1.5, 2));
+        perform(get("/transactionservice/statistics"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("sum", is(5.0)))
+                .andExpect(jsonPath("avg", is(2.5)))
+                .andExpect(jsonPath("max", is(3.5)))
+                .andExpect(jsonPath("min", is(1.5)))
+                .andExpect(jsonPath("count", is(2)));
+    }
+
+    @Test
+    public void getCacheStats_shouldReturnStatsByCache() throws Exception {
+        when(transactionService.getCacheStats())
+                .thenReturn(Collections.singletonMap("transaction", new CacheStats(3, 1, 0, 2)));
+        perform(get("/transactionservice/caches"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("transaction.hits", is(3)))
+                .andExpect(jsonPath("transaction.misses", is(1)))
+                .andExpect(jsonPath("transaction.evictions", is(0)))
+                .andExpect(jsonPath("transaction.size", is(2)))
+                .andExpect(jsonPath("transaction.hit_rate", is(0.75)));
+    }
+
+    @Test
+    public void getMetrics_shouldReturnHistogramsByGroup() throws Exception {
+        metrics.recordCount(TransactionMetrics.SUM_ROWS_SCANNED, 10);
+        metrics.recordCount(TransactionMetrics.SUM_ROWS_SCANNED, 20);
+        perform(get("/transactionservice/metrics"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("endpoints").exists())
+                .andExpect(jsonPath("counters.sum_rows_scanned.count", is(2)))
+                .andExpect(jsonPath("counters.sum_rows_scanned.min", is(10)))
+                .andExpect(jsonPath("counters.sum_rows_scanned.max", is(20)))
+                .andExpect(jsonPath("counters.sum_rows_scanned.mean", is(15.0)))
+                .andExpect(jsonPath("counters.sum_rows_scanned.p50", is(10)))
+                .andExpect(jsonPath("counters.sum_rows_scanned.p999", is(20)));
+    }
+
     @Test
     public void getTransactionsByType_shouldReturnTransactionIds() throws Exception {
         List<Long> ids = Arrays.asList(1L, 5L);
-        when(transactionService.getTransactionIdsByType("cars")).thenReturn(ids);
-        mockMvc.perform(get("/transactionservice/types/cars"))
+        when(transactionService.getTransactionIdsByType("cars", null, 1000)).thenReturn(ids);
+        perform(get("/transactionservice/types/cars"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
                 .andExpect(jsonPath("$", hasSize(2)))
@@ -162,4 +444,84 @@ public class TransactionsControllerTest {
                 .andExpect(jsonPath("$[1]", is(5)));
     }
 
+    @Test
+    public void getTransactionsByType_shouldStreamIdsInChunks() throws Exception {
+        ReflectionTestUtils.setField(controller, "streamChunkSize", 2);
+        when(transactionService.getTransactionIdsByType("cars", null, 2)).thenReturn(Arrays.asList(1L, 5L));
+        when(transactionService.getTransactionIdsByType("cars", 5L, 2)).thenReturn(Arrays.asList(7L, 8L));
+        when(transactionService.getTransactionIdsByType("cars", 8L, 2)).thenReturn(Collections.singletonList(9L));
+
+        perform(get("/transactionservice/types/cars"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[1,5,7,8,9]"));
+    }
+
+    @Test
+    public void getTransactionsByType_shouldStreamEmptyList() throws Exception {
+        when(transactionService.getTransactionIdsByType("cars", 3L, 1000)).thenReturn(Collections.emptyList());
+
+        perform(get("/transactionservice/types/cars?after=3"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[]"));
+    }
+
+    @Test
+    public void getDescendants_shouldStreamTuplesInChunks() throws Exception {
+        ReflectionTestUtils.setField(controller, "streamChunkSize", 2);
+        when(transactionService.getDescendants(1, null, 2, 3)).thenReturn(Arrays.asList(
+                new TransactionNode(2, 1.5, "cars", 1L), new TransactionNode(3, 2, "cars", 2L)));
+        when(transactionService.getDescendants(1, 3L, 2, 3)).thenReturn(Collections.singletonList(
+                new TransactionNode(7, 0.25, "bikes", 1L)));
+
+        perform(get("/transactionservice/transaction/1/descendants?depth=3"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("[[2,1.5,\"cars\",1],[3,2.0,\"cars\",2],[7,0.25,\"bikes\",1]]"));
+    }
+
+    @Test
+    public void getDescendants_shouldReturnNotFound() throws Exception {
+        when(transactionService.getDescendants(1, null, 1000, null)).thenThrow(new NotFoundException("not found"));
+
+        perform(get("/transactionservice/transaction/1/descendants"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("status", is("not found")));
+    }
+
+    @Test
+    public void getDescendants_shouldReturnPage() throws Exception {
+        when(transactionService.getDescendants(1, 5L, 2, null)).thenReturn(Collections.singletonList(
+                new TransactionNode(7, 0.25, "bikes", 1L)));
+
+        perform(get("/transactionservice/transaction/1/descendants?after=5&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0][0]", is(7)))
+                .andExpect(jsonPath("$[0][1]", is(0.25)))
+                .andExpect(jsonPath("$[0][2]", is("bikes")))
+                .andExpect(jsonPath("$[0][3]", is(1)));
+    }
+
+    @Test
+    public void getTransactionsByType_shouldReturnPage() throws Exception {
+        when(transactionService.getTransactionIdsByType("cars", 5L, 2)).thenReturn(Arrays.asList(7L, 8L));
+
+        perform(get("/transactionservice/types/cars?after=5&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0]", is(7)))
+                .andExpect(jsonPath("$[1]", is(8)));
+    }
+
+    @Test
+    public void getTransactionsByType_shouldRejectInvalidLimit() throws Exception {
+        when(transactionService.getTransactionIdsByType("cars", null, 0))
+                .thenThrow(new BadRequestException("invalid limit"));
+
+        perform(get("/transactionservice/types/cars?limit=0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("status", is("invalid limit")));
+    }
+
 }
\ No newline at end of file
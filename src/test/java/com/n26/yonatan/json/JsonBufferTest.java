@@ -0,0 +1,75 @@
+package com.n26.yonatan.json;
+
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class JsonBufferTest {
+
+    JsonBuffer buffer = new JsonBuffer();
+
+    @Test
+    public void writeLong_shouldWriteDigits() {
+        for (long value : new long[]{0, 7, -7, 10, 1445000000000L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            buffer.reset();
+            buffer.writeLong(value);
+            assertThat(written(), is(Long.toString(value)));
+        }
+    }
+
+    @Test
+    public void writeDecimal_shouldWriteFractionWithoutTrailingZeros() {
+        assertThat(decimal(20000, 4), is("2.0"));
+        assertThat(decimal(15000, 4), is("1.5"));
+        assertThat(decimal(2500, 4), is("0.25"));
+        assertThat(decimal(5, 4), is("0.0005"));
+        assertThat(decimal(-5, 4), is("-0.0005"));
+        assertThat(decimal(-123456789, 4), is("-12345.6789"));
+        assertThat(decimal(0, 4), is("0.0"));
+        assertThat(decimal(42, 0), is("42.0"));
+    }
+
+    @Test
+    public void writeString_shouldEscapeAndEncode() {
+        buffer.writeString("a\"b\\c\ndé€😀");
+        assertThat(written(), is("\"a\\\"b\\\\c\\u000adé€😀\""));
+    }
+
+    @Test
+    public void buffer_shouldGrowAndBeReplacedWhenOversized() {
+        for (int i = 0; i < JsonBuffer.RETAINED_CAPACITY; i++) {
+            buffer.writeAscii("12");
+        }
+        assertThat(buffer.size(), is(JsonBuffer.RETAINED_CAPACITY * 2));
+        buffer.reset();
+        assertThat(buffer.size(), is(0));
+        buffer.writeAscii("ok");
+        assertThat(written(), is("ok"));
+    }
+
+    @Test
+    public void forThread_shouldReuseBufferOfThread() {
+        JsonBuffer first = JsonBuffer.forThread();
+        first.writeAscii("x");
+        JsonBuffer second = JsonBuffer.forThread();
+        assertThat(second, sameInstance(first));
+        assertThat(second.size(), is(0));
+    }
+
+    private String decimal(long unscaled, int scale) {
+        buffer.reset();
+        buffer.writeDecimal(unscaled, scale);
+        return written();
+    }
+
+    private String written() {
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
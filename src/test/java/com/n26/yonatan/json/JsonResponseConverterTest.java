@@ -0,0 +1,92 @@
+package com.n26.yonatan.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.Count;
+import com.n26.yonatan.dto.Status;
+import com.n26.yonatan.dto.Sum;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class JsonResponseConverterTest {
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    JsonResponseConverter converter = new JsonResponseConverter(new AmountScale(), objectMapper);
+
+    /**
+     * The responses are the same JSON Jackson writes
+     */
+    @Test
+    public void write_shouldWriteSameJsonAsJackson() throws IOException {
+        Transaction full = transaction(1234.5678, "cars", 5L);
+        full.setTimestamp(1445000000000L);
+        Status error = new Status("Invalid request: [type] \"may not\" be null");
+        error.setPath("/transactionservice/transaction/1");
+        for (Object value : Arrays.asList(
+                transaction(-0.25, "cars"),
+                full,
+                new Sum(98765.4321),
+                new Sum(0),
+                new Status("ok"),
+                error,
+                new TransactionNode(2, 1.5, "cars", null),
+                Arrays.asList(1L, -5L, Long.MAX_VALUE),
+                Collections.emptyList(),
+                Arrays.asList(new TransactionNode(2, 1.5, "cars", 1L), new TransactionNode(3, 0.0001, "bikes", 2L)),
+                Collections.singletonList(new Count(3)))) {
+            assertThat(value.toString(), tree(write(value)), is(objectMapper.readTree(
+                    objectMapper.writeValueAsBytes(value))));
+        }
+    }
+
+    @Test
+    public void write_shouldWriteAmountsAsPlainDecimals() throws IOException {
+        assertThat(write(new Sum(2)), is("{\"sum\":2.0}"));
+        assertThat(write(new Sum(0.0001)), is("{\"sum\":0.0001}"));
+        assertThat(write(new Sum(12345678.9)), is("{\"sum\":12345678.9}"));
+        // not a whole number of units
+        assertThat(write(new Sum(0.00001)), is("{\"sum\":1.0E-5}"));
+        assertThat(write(new Status("ok")), is("{\"status\":\"ok\"}"));
+    }
+
+    @Test
+    public void converter_shouldWriteSupportedTypesOnly() throws IOException {
+        assertThat(converter.canWrite(Transaction.class, MediaType.APPLICATION_JSON), is(true));
+        assertThat(converter.canWrite(Arrays.asList(1L).getClass(), MediaType.APPLICATION_JSON), is(true));
+        assertThat(converter.canWrite(Count.class, MediaType.APPLICATION_JSON), is(false));
+        assertThat(converter.canWrite(Sum.class, MediaType.APPLICATION_XML), is(false));
+        assertThat(converter.canRead(Transaction.class, MediaType.APPLICATION_JSON), is(false));
+
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        converter.write(new Sum(1.5), null, message);
+        assertThat(message.getBodyAsString(StandardCharsets.UTF_8), is("{\"sum\":1.5}"));
+        assertThat(message.getHeaders().getContentType().getCharSet(), is(StandardCharsets.UTF_8));
+    }
+
+    private String write(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converter.write(value, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private JsonNode tree(String json) throws IOException {
+        return objectMapper.readTree(json);
+    }
+}
@@ -0,0 +1,82 @@
+package com.n26.yonatan.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Category(FastTest.class)
+public class TransactionRequestConverterTest {
+
+    TransactionRequestConverter converter = new TransactionRequestConverter();
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * The bodies are read the same as the data binding reads them
+     */
+    @Test
+    public void read_shouldReadSameTransactionsAsJackson() throws IOException {
+        String[] bodies = new String[]{
+                "{\"type\":\"cars\",\"amount\":1.5}",
+                "{\"amount\":-2,\"parent_id\":10,\"type\":\"cars\",\"timestamp\":1445000000000}",
+                "{\"type\":null,\"amount\":null,\"parent_id\":null,\"timestamp\":null}",
+                "{\"type\":\"\",\"amount\":\"3.25\",\"parent_id\":\"7\"}",
+                "{\"type\":\"bad format\\n\",\"amount\":1e3}",
+                "{\"type\":15,\"amount\":1}",
+                "{}"
+        };
+        for (String body : bodies) {
+            assertThat(body, read(body), is(objectMapper.readValue(body, Transaction.class)));
+        }
+    }
+
+    @Test
+    public void read_shouldSkipUnknownFields() throws IOException {
+        Transaction expected = transaction(1.5, "cars", 3L);
+        assertThat(read("{\"id\":1,\"type\":\"cars\",\"extra\":{\"a\":[1,{\"b\":2}]},\"amount\":1.5,\"parent_id\":3}"),
+                is(expected));
+    }
+
+    @Test
+    public void read_shouldRejectInvalidBodies() throws IOException {
+        String[] bodies = new String[]{"", "[]", "5", "{\"type\":\"cars\"", "{\"type\":\"cars\",}",
+                "{\"type\":[\"cars\"]}", "{\"amount\":\"abc\"}", "{\"amount\":true}", "{\"parent_id\":\"x\"}",
+                "{\"timestamp\":{}}"};
+        for (String body : bodies) {
+            try {
+                converter.read(Transaction.class, new MockHttpInputMessage(body.getBytes(StandardCharsets.UTF_8)));
+                fail(body);
+            } catch (HttpMessageNotReadableException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void converter_shouldReadTransactionsOnly() {
+        assertThat(converter.canRead(Transaction.class, MediaType.APPLICATION_JSON), is(true));
+        assertThat(converter.canRead(Object.class, MediaType.APPLICATION_JSON), is(false));
+        assertThat(converter.canRead(Transaction.class, Object.class, MediaType.APPLICATION_JSON), is(true));
+        assertThat(converter.canRead(BatchTransaction.class, Object.class, MediaType.APPLICATION_JSON), is(false));
+        assertThat(converter.canWrite(Transaction.class, MediaType.APPLICATION_JSON), is(false));
+        assertThat(converter.canWrite(Object.class, MediaType.APPLICATION_JSON), is(false));
+    }
+
+    private Transaction read(String body) throws IOException {
+        return converter.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+}
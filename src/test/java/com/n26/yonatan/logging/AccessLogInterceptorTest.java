@@ -0,0 +1,93 @@
+package com.n26.yonatan.logging;
+
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Arrays;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@Category(FastTest.class)
+public class AccessLogInterceptorTest {
+
+    AccessLog accessLog = mock(AccessLog.class);
+    AccessLogInterceptor interceptor = new AccessLogInterceptor(accessLog);
+
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/transactionservice/sum/1");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Test
+    public void afterCompletion_shouldLogStatusOfResponse() {
+        response.setStatus(404);
+
+        complete(null);
+
+        verify(accessLog).log(eq("GET"), eq("/transactionservice/sum/{transactionId}"),
+                eq("/transactionservice/sum/1"), eq(404), anyLong());
+    }
+
+    @Test
+    public void afterCompletion_shouldLogUnhandledExceptionAsServerError() {
+        complete(new IllegalStateException("unhandled"));
+
+        verify(accessLog).log(eq("GET"), eq("/transactionservice/sum/{transactionId}"),
+                eq("/transactionservice/sum/1"), eq(500), anyLong());
+    }
+
+    @Test
+    public void afterCompletion_shouldAuditWrittenTransaction() {
+        Transaction transaction = new Transaction();
+        transaction.setType("cars");
+        transaction.setAmount(1.5);
+        transaction.setParentId(10L);
+        AccessLog.auditWrite(request, 11, transaction);
+        response.setStatus(409);
+
+        complete(null);
+
+        verify(accessLog).audit(11, 10L, "cars", 1.5, 409);
+    }
+
+    @Test
+    public void afterCompletion_shouldAuditEachTransactionOfBatch() {
+        AccessLog.auditWrites(request, Arrays.asList(batchTransaction(1, "cars"), batchTransaction(2, "bikes")));
+
+        complete(null);
+
+        verify(accessLog).audit(1, null, "cars", 0, 200);
+        verify(accessLog).audit(2, null, "bikes", 0, 200);
+    }
+
+    @Test
+    public void afterCompletion_shouldNotAuditReads() {
+        complete(null);
+
+        verify(accessLog, never()).audit(anyLong(), anyLong(), anyString(), anyDouble(), anyInt());
+    }
+
+    private BatchTransaction batchTransaction(long id, String type) {
+        BatchTransaction transaction = new BatchTransaction();
+        transaction.setId(id);
+        transaction.setType(type);
+        return transaction;
+    }
+
+    private void complete(Exception ex) {
+        interceptor.preHandle(request, response, null);
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/transactionservice/sum/{transactionId}");
+        interceptor.afterCompletion(request, response, null, ex);
+    }
+}
@@ -0,0 +1,168 @@
+package com.n26.yonatan.logging;
+
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Category(FastTest.class)
+public class AccessLogRingTest {
+
+    @Test
+    public void capacity_shouldRoundUpToPowerOfTwo() {
+        assertThat(new AccessLogRing(1).capacity(), is(2));
+        assertThat(new AccessLogRing(8).capacity(), is(8));
+        assertThat(new AccessLogRing(1000).capacity(), is(1024));
+    }
+
+    @Test
+    public void drain_shouldReturnEntriesInOrder() {
+        AccessLogRing ring = new AccessLogRing(8);
+        ring.offer(1, "GET", "/sum/{id}", "/sum/1", 200, 10);
+        ring.offer(2, "PUT", "/transaction/{id}", "/transaction/2", 400, 20);
+
+        List<String> entries = new ArrayList<>();
+        int drained = ring.drain((time, method, endpoint, path, status, micros) ->
+                entries.add(time + " " + method + " " + endpoint + " " + path + " " + status + " " + micros));
+
+        assertThat(drained, is(2));
+        assertThat(entries, contains("1 GET /sum/{id} /sum/1 200 10",
+                "2 PUT /transaction/{id} /transaction/2 400 20"));
+        assertThat(ring.drain((time, method, endpoint, path, status, micros) -> entries.add("again")), is(0));
+    }
+
+    @Test
+    public void drain_shouldPassAuditEntriesInOrder() {
+        AccessLogRing ring = new AccessLogRing(8);
+        ring.offerAudit(1, 10, null, "cars", 1.5, 200);
+        ring.offer(2, "PUT", "/transaction/{id}", "/transaction/11", 409, 20);
+        ring.offerAudit(3, 11, 10L, "cars", 2, 409);
+
+        List<String> entries = new ArrayList<>();
+        int drained = ring.drain(new AccessLogRing.Visitor() {
+            @Override
+            public void entry(long time, String method, String endpoint, String path, int status, long micros) {
+                entries.add(time + " " + method + " " + path + " " + status);
+            }
+
+            @Override
+            public void audit(long time, long id, Long parentId, String type, double amount, int status) {
+                entries.add(time + " " + id + " " + parentId + " " + type + " " + amount + " " + status);
+            }
+        });
+
+        assertThat(drained, is(3));
+        assertThat(entries, contains("1 10 null cars 1.5 200", "2 PUT /transaction/11 409", "3 11 10 cars 2.0 409"));
+    }
+
+    @Test
+    public void drain_shouldFreeEntryVisitorFailedOn() {
+        AccessLogRing ring = new AccessLogRing(2);
+        ring.offer(1, "GET", "/e", "/p", 200, 1);
+        ring.offer(2, "GET", "/e", "/p", 200, 2);
+
+        try {
+            ring.drain((time, method, endpoint, path, status, micros) -> {
+                throw new IllegalStateException("appender failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        List<Long> times = new ArrayList<>();
+        assertThat(ring.offer(3, "GET", "/e", "/p", 200, 3), is(true));
+        assertThat(ring.drain((time, method, endpoint, path, status, micros) -> times.add(time)), is(2));
+        assertThat(times, contains(2L, 3L));
+    }
+
+    @Test
+    public void offer_shouldDropWhenFull() {
+        AccessLogRing ring = new AccessLogRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.offer(i, "GET", "/e", "/p", 200, i), is(true));
+        }
+        assertThat(ring.offer(4, "GET", "/e", "/p", 200, 4), is(false));
+
+        List<Long> times = new ArrayList<>();
+        ring.drain((time, method, endpoint, path, status, micros) -> times.add(time));
+        assertThat(times, contains(0L, 1L, 2L, 3L));
+        assertThat(ring.offer(5, "GET", "/e", "/p", 200, 5), is(true));
+    }
+
+    @Test
+    public void offer_shouldReuseSlotsAfterWrapAround() {
+        AccessLogRing ring = new AccessLogRing(4);
+        List<Long> times = new ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            assertThat(ring.offer(i, "GET", "/e", "/p", 200, i), is(true));
+            if (i % 3 == 2) {
+                ring.drain((time, method, endpoint, path, status, micros) -> times.add(time));
+            }
+        }
+        ring.drain((time, method, endpoint, path, status, micros) -> times.add(time));
+        assertThat(times.size(), is(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(times.get(i), is((long) i));
+        }
+    }
+
+    @Test
+    public void offer_shouldNotLoseEntriesOfConcurrentProducers() throws Exception {
+        int producers = 4;
+        int perProducer = 20000;
+        AccessLogRing ring = new AccessLogRing(256);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] accepted = new long[producers];
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    if (ring.offer(producer, "GET", "/e", "/p", 200, i)) {
+                        accepted[producer]++;
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] drained = new long[producers];
+        long[] lastMicros = {-1, -1, -1, -1};
+        boolean[] ordered = {true};
+        AccessLogRing.Visitor visitor = (time, method, endpoint, path, status, micros) -> {
+            int producer = (int) time;
+            drained[producer]++;
+            // the entries of each producer are drained in the order they were offered
+            ordered[0] &= micros > lastMicros[producer];
+            lastMicros[producer] = micros;
+        };
+        start.countDown();
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            ring.drain(visitor);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ring.drain(visitor);
+
+        assertThat(ordered[0], is(true));
+        for (int p = 0; p < producers; p++) {
+            assertThat(drained[p], is(accepted[p]));
+        }
+    }
+}
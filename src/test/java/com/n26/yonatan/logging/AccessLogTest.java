@@ -0,0 +1,41 @@
+package com.n26.yonatan.logging;
+
+import com.n26.yonatan.metrics.TransactionMetrics;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class AccessLogTest {
+
+    AccessLog accessLog = new AccessLog(16, 0.5,
+            "GET /transactionservice/sum/{transactionId}=0.01, /transactionservice/types/{type}=0.1",
+            new TransactionMetrics());
+
+    @After
+    public void close() throws InterruptedException {
+        accessLog.close();
+    }
+
+    @Test
+    public void sampleRate_shouldMatchMethodAndPattern() {
+        assertThat(accessLog.sampleRate("GET", "/transactionservice/sum/{transactionId}"), is(0.01));
+        assertThat(accessLog.sampleRate("GET", "/transactionservice/types/{type}"), is(0.1));
+        assertThat(accessLog.sampleRate("HEAD", "/transactionservice/types/{type}"), is(0.1));
+    }
+
+    @Test
+    public void sampleRate_shouldDefaultToSampleRate() {
+        assertThat(accessLog.sampleRate("PUT", "/transactionservice/sum/{transactionId}"), is(0.5));
+        assertThat(accessLog.sampleRate("GET", "/transactionservice/transaction/{transactionId}"), is(0.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_shouldRejectInvalidRates() {
+        new AccessLog(16, 1, "/transactionservice/sum/{transactionId}", new TransactionMetrics());
+    }
+}
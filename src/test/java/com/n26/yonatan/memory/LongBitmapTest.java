@@ -0,0 +1,104 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class LongBitmapTest {
+
+    LongBitmap bitmap = new LongBitmap();
+
+    @Test
+    public void add_shouldKeepValuesSortedAndUnique() {
+        for (long value : Arrays.asList(5L, -1L, 70000L, 3L, 5L, Long.MIN_VALUE, Long.MAX_VALUE, 0L)) {
+            bitmap.add(value);
+        }
+
+        assertThat(values(), contains(Long.MIN_VALUE, -1L, 0L, 3L, 5L, 70000L, Long.MAX_VALUE));
+        assertThat(bitmap.cardinality(), is(7L));
+        assertThat(bitmap.contains(70000L), is(true));
+        assertThat(bitmap.contains(70001L), is(false));
+    }
+
+    @Test
+    public void add_shouldReportNewValues() {
+        assertThat(bitmap.add(1), is(true));
+        assertThat(bitmap.add(1), is(false));
+        assertThat(bitmap.cardinality(), is(1L));
+    }
+
+    @Test
+    public void add_shouldHandleDenseAndSparseRanges() {
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            // dense ranges, converted to bitmaps, mixed with sparse ones
+            long value = i % 2 == 0 ? random.nextInt(20000) : random.nextLong();
+            expected.add(value);
+            bitmap.add(value);
+        }
+
+        assertThat(values(), equalTo(new ArrayList<>(expected)));
+        assertThat(bitmap.cardinality(), is((long) expected.size()));
+        for (long value : expected) {
+            assertThat(bitmap.contains(value), is(true));
+        }
+    }
+
+    @Test
+    public void forEachFrom_shouldPageThroughValues() {
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            long value = i % 2 == 0 ? random.nextInt(10000) - 5000 : random.nextInt(1 << 20);
+            expected.add(value);
+            bitmap.add(value);
+        }
+
+        List<Long> paged = new ArrayList<>();
+        List<Long> page = page(Long.MIN_VALUE, 1000);
+        while (!page.isEmpty()) {
+            paged.addAll(page);
+            page = page(page.get(page.size() - 1) + 1, 1000);
+        }
+
+        assertThat(paged, equalTo(new ArrayList<>(expected)));
+    }
+
+    @Test
+    public void forEachFrom_shouldStartFromValue() {
+        for (long value : Arrays.asList(1L, 3L, 65536L, 65537L, 200000L)) {
+            bitmap.add(value);
+        }
+
+        assertThat(page(2, 10), contains(3L, 65536L, 65537L, 200000L));
+        assertThat(page(3, 2), contains(3L, 65536L));
+        assertThat(page(65537, 10), contains(65537L, 200000L));
+        assertThat(page(200001, 10), is(empty()));
+    }
+
+    private List<Long> page(long from, int limit) {
+        List<Long> values = new ArrayList<>();
+        bitmap.forEachFrom(from, limit, values::add);
+        return values;
+    }
+
+    private List<Long> values() {
+        List<Long> values = new ArrayList<>();
+        bitmap.forEach(values::add);
+        return values;
+    }
+}
@@ -0,0 +1,50 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class LongIntHashMapTest {
+
+    @Test
+    public void get_shouldReturnMissingForUnmappedKeys() {
+        LongIntHashMap map = new LongIntHashMap(4);
+
+        assertThat(map.get(1), is(LongIntHashMap.MISSING));
+        assertThat(map.get(0), is(LongIntHashMap.MISSING));
+        assertThat(map.containsKey(1), is(false));
+    }
+
+    @Test
+    public void putIfAbsent_shouldMapKeysAndKeepExistingValues() {
+        LongIntHashMap map = new LongIntHashMap(4);
+
+        assertThat(map.putIfAbsent(7, 1), is(LongIntHashMap.MISSING));
+        assertThat(map.putIfAbsent(7, 2), is(1));
+        assertThat(map.putIfAbsent(0, 3), is(LongIntHashMap.MISSING));
+        assertThat(map.putIfAbsent(-5, 4), is(LongIntHashMap.MISSING));
+
+        assertThat(map.get(7), is(1));
+        assertThat(map.get(0), is(3));
+        assertThat(map.get(-5), is(4));
+        assertThat(map.size(), is(3));
+    }
+
+    @Test
+    public void putIfAbsent_shouldGrowBeyondExpectedSize() {
+        LongIntHashMap map = new LongIntHashMap(2);
+        for (int i = 0; i < 10000; i++) {
+            map.putIfAbsent(i * 31L, i);
+        }
+
+        assertThat(map.size(), is(10000));
+        for (int i = 0; i < 10000; i++) {
+            assertThat(map.get(i * 31L), is(i));
+        }
+        assertThat(map.get(1), is(LongIntHashMap.MISSING));
+    }
+}
@@ -0,0 +1,406 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
+import com.n26.yonatan.dto.TypeStats;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.NotFoundException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.metrics.TransactionMetrics;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@Category(FastTest.class)
+public class TransactionGraphTest {
+
+    TransactionGraph graph = new TransactionGraph(2);
+
+    @Test
+    public void find_shouldReturnAddedTransactions() {
+        graph.add(1, null, 1.1, "type");
+        graph.add(2, 1L, 2.2, "other", 1445000000000L);
+
+        Transaction t1 = graph.find(1);
+        assertThat(t1.getAmount(), is(1.1));
+        assertThat(t1.getType(), is("type"));
+        assertThat(t1.getParentId(), is(nullValue()));
+        assertThat(t1.getTimestamp(), is(nullValue()));
+
+        Transaction t2 = graph.find(2);
+        assertThat(t2.getAmount(), is(2.2));
+        assertThat(t2.getType(), is("other"));
+        assertThat(t2.getParentId(), is(1L));
+        assertThat(t2.getTimestamp(), is(1445000000000L));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void find_shouldRejectMissingTransaction() {
+        graph.find(1);
+    }
+
+    @Test(expected = ConflictException.class)
+    public void add_shouldRejectDuplicateTransaction() {
+        graph.add(1, null, 1.1, "type");
+        graph.add(1, null, 1.1, "type");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void add_shouldRejectMissingParent() {
+        graph.add(1, 2L, 1.1, "type");
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void add_shouldRejectInvalidAmount() {
+        graph.add(1, null, Double.NaN, "type");
+    }
+
+    @Test
+    public void sum_shouldBeExact() {
+        graph.add(1, null, 0.1, "type");
+        for (long id = 2; id <= 10; id++) {
+            graph.add(id, id - 1, 0.1, "type");
+        }
+        // summing the doubles would give 0.9999999999999999
+        assertThat(graph.sum(1), is(1.0));
+        assertThat(graph.statsByType("type").getSum(), is(1.0));
+    }
+
+    @Test
+    public void addAll_shouldAddBatchAtomically() {
+        graph.add(1, null, 1, "type");
+        graph.addAll(Arrays.asList(batchTransaction(2, 2, "type", 1L), batchTransaction(3, 3, "type", 2L)));
+
+        assertThat(graph.sum(1), closeTo(6, 0.001));
+        try {
+            graph.addAll(Arrays.asList(batchTransaction(4, 4, "type", 3L), batchTransaction(2, 2, "type", 1L)));
+            fail();
+        } catch (ConflictException e) {
+            assertThat(graph.size(), is(3));
+            assertThat(graph.sum(1), closeTo(6, 0.001));
+        }
+    }
+
+    @Test
+    public void idsByType_shouldReturnMatchingIds() {
+        graph.add(1, null, 1, "type1");
+        graph.add(2, null, 1, "type2");
+        graph.add(3, 1L, 1, "type1");
+
+        assertThat(graph.idsByType("type1"), containsInAnyOrder(1L, 3L));
+        assertThat(graph.idsByType("type2"), containsInAnyOrder(2L));
+        assertThat(graph.idsByType("type3"), is(empty()));
+    }
+
+    @Test
+    public void idsByType_shouldReturnPagesInOrder() {
+        graph.add(5, null, 1, "type1");
+        graph.add(1, null, 1, "type1");
+        graph.add(3, null, 1, "type1");
+        graph.add(2, null, 1, "type2");
+
+        assertThat(graph.idsByType("type1", null, 2), contains(1L, 3L));
+        assertThat(graph.idsByType("type1", 3L, 2), contains(5L));
+        assertThat(graph.idsByType("type1", 5L, 2), is(empty()));
+        assertThat(graph.idsByType("type1", Long.MAX_VALUE, 2), is(empty()));
+        assertThat(graph.idsByType("type3", null, 2), is(empty()));
+    }
+
+    @Test
+    public void descendants_shouldReturnPagesInOrder() {
+        graph.add(1, null, 1, "type1");
+        graph.add(5, 1L, 1.5, "type2");
+        graph.add(3, 1L, 1, "type1");
+        graph.add(4, 3L, 1, "type1");
+        graph.add(2, 4L, 2.5, "type3");
+        graph.add(6, null, 1, "type1");
+
+        // depth first, the children in the order of their ids
+        assertThat(graph.descendants(1, null, 10, Integer.MAX_VALUE), contains(
+                new TransactionNode(3, 1, "type1", 1L), new TransactionNode(4, 1, "type1", 3L),
+                new TransactionNode(2, 2.5, "type3", 4L), new TransactionNode(5, 1.5, "type2", 1L)));
+        assertThat(ids(graph.descendants(1, null, 2, Integer.MAX_VALUE)), contains(3L, 4L));
+        assertThat(ids(graph.descendants(1, 4L, 2, Integer.MAX_VALUE)), contains(2L, 5L));
+        assertThat(ids(graph.descendants(1, 5L, 2, Integer.MAX_VALUE)), is(empty()));
+        assertThat(ids(graph.descendants(1, 3L, 10, 1)), contains(5L));
+        assertThat(ids(graph.descendants(1, null, 10, 1)), contains(3L, 5L));
+        assertThat(ids(graph.descendants(1, null, 10, 2)), contains(3L, 4L, 5L));
+        assertThat(ids(graph.descendants(6, null, 10, Integer.MAX_VALUE)), is(empty()));
+    }
+
+    @Test
+    public void descendants_shouldPageThroughLargeSubtree() {
+        graph.add(0, null, 1, "type");
+        // children added out of the order of their ids, under a few levels
+        for (long id = 1; id <= 1000; id++) {
+            long parent = id <= 10 ? 0 : (id * 7) % (id - 1) + 1;
+            graph.add(2000 - id, parent == 0 ? 0L : 2000 - parent, 1, "type");
+        }
+        List<Long> all = ids(graph.descendants(0, null, 2000, Integer.MAX_VALUE));
+        List<Long> paged = new ArrayList<>();
+        Long after = null;
+        while (true) {
+            List<Long> page = ids(graph.descendants(0, after, 7, Integer.MAX_VALUE));
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+
+        assertThat(all.size(), is(1000));
+        assertThat(paged, is(all));
+        assertThat(new HashSet<>(all).size(), is(1000));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void descendants_shouldRejectAfterOutsideOfSubtree() {
+        graph.add(1, null, 1, "type");
+        graph.add(2, 1L, 1, "type");
+        graph.add(3, null, 1, "type");
+
+        graph.descendants(1, 3L, 10, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void descendants_shouldRejectMissingTransaction() {
+        graph.descendants(1, null, 10, Integer.MAX_VALUE);
+    }
+
+    private static List<Long> ids(List<TransactionNode> nodes) {
+        List<Long> ids = new ArrayList<>();
+        nodes.forEach(node -> ids.add(node.getId()));
+        return ids;
+    }
+
+    @Test
+    public void sum_shouldFailWhenTotalOverflows() {
+        graph.add(1, null, 9e14, "type");
+        graph.add(2, 1L, 9e14, "type");
+        graph.add(3, 2L, -9e14, "type");
+
+        assertThat(graph.sum(2), is(0.0));
+        try {
+            graph.add(4, 1L, 9e14, "type");
+            graph.sum(1);
+            fail();
+        } catch (ServerErrorException e) {
+            assertThat(e.getMessage(), is("sum overflow"));
+        }
+        assertThat(graph.sum(4), is(9e14));
+    }
+
+    @Test
+    public void graph_shouldBeRestoredFromTransactionLog() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        try {
+            TransactionGraph logged = new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.empty(), new TransactionMetrics());
+            logged.add(1, null, 1, "type1");
+            logged.add(2, 1L, 2, "type2");
+            logged.addAll(Arrays.asList(batchTransaction(3, 3, "type3", 2L), batchTransaction(4, 4, "type1", 3L)));
+
+            TransactionGraph restored = new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.empty(), new TransactionMetrics());
+
+            assertThat(restored.size(), is(4));
+            assertThat(restored.sum(1), closeTo(10, 0.001));
+            assertThat(restored.sum(3), closeTo(7, 0.001));
+            assertThat(restored.find(4).getType(), is("type1"));
+            assertThat(restored.find(4).getParentId(), is(3L));
+            assertThat(restored.idsByType("type1"), contains(1L, 4L));
+            // appending continues after the restored transactions
+            restored.add(5, 4L, 5, "type4");
+            assertThat(new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.empty(), new TransactionMetrics()).sum(1), closeTo(15, 0.001));
+        } finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void graph_shouldBeRestoredFromSnapshotAndTransactionLog() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        try {
+            TransactionGraph logged = new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.of(snapshotStore(folder)), new TransactionMetrics());
+            // enough transactions to roll a few segments of 1k
+            for (long id = 1; id <= 100; id++) {
+                logged.add(id, id == 1 ? null : id - 1, 1, "type" + (id % 3));
+            }
+            logged.snapshot();
+            logged.add(101, 50L, 10, "type4", 1445000000000L);
+            logged.addAll(Arrays.asList(batchTransaction(102, 5, "type5", 101L), batchTransaction(103, 5, "type5", 1L)));
+
+            // the segments covered by the snapshot are deleted
+            assertThat(new File(folder.getRoot(), "wal-00000000.log").exists(), is(false));
+
+            TransactionGraph restored = new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.of(snapshotStore(folder)), new TransactionMetrics());
+
+            assertThat(restored.size(), is(103));
+            assertThat(restored.sum(1), closeTo(120, 0.001));
+            assertThat(restored.sum(50), closeTo(66, 0.001));
+            assertThat(restored.sum(100), closeTo(1, 0.001));
+            assertThat(restored.find(102).getParentId(), is(101L));
+            assertThat(restored.find(101).getTimestamp(), is(1445000000000L));
+            assertThat(restored.find(100).getTimestamp(), is(nullValue()));
+            assertThat(restored.find(99).getType(), is("type0"));
+            assertThat(restored.countByType("type1"), is(34L));
+            assertThat(restored.idsByType("type5"), contains(102L, 103L));
+            assertThat(restored.statsByType("type5").getSum(), closeTo(10, 0.001));
+            assertThat(restored.statsByType("type1").getCount(), is(34L));
+            assertThat(ids(restored.descendants(50, 99L, 10, Integer.MAX_VALUE)), contains(100L, 101L, 102L));
+            assertThat(ids(restored.descendants(50, null, 10, 1)), contains(51L, 101L));
+            // a snapshot of the restored graph is restored as well
+            restored.add(104, null, 1, "type4");
+            restored.snapshot();
+            TransactionGraph again = new TransactionGraph(2, new AmountScale(), Optional.of(transactionLog(folder)),
+                    Optional.of(snapshotStore(folder)), new TransactionMetrics());
+            assertThat(again.size(), is(104));
+            assertThat(again.idsByType("type4"), contains(101L, 104L));
+            assertThat(again.find(101).getTimestamp(), is(1445000000000L));
+        } finally {
+            folder.delete();
+        }
+    }
+
+    private static TransactionSnapshotStore snapshotStore(TemporaryFolder folder) {
+        return new TransactionSnapshotStore(folder.getRoot().getPath(), true);
+    }
+
+    private static TransactionLog transactionLog(TemporaryFolder folder) {
+        return new TransactionLog(folder.getRoot().getPath(), 1024, 0);
+    }
+
+    @Test
+    public void addPartitioned_shouldStopAncestorWalkAtMissingAncestor() {
+        graph.addPartitioned(1, 100L, 1, "type", null);
+        graph.addPartitioned(2, 1L, 2, "type", null);
+        graph.addPartitioned(3, null, 4, "type", null);
+
+        assertThat(graph.addToSubtreeTotals(1, 2), is(100L));
+        assertThat(graph.addToSubtreeTotals(3, 1), is(TransactionGraph.NO_PARENT));
+        assertThat(graph.sum(1), closeTo(3, 0.001));
+        assertThat(graph.sum(2), closeTo(2, 0.001));
+        assertThat(graph.sum(3), closeTo(5, 0.001));
+        assertThat(graph.find(1).getParentId(), is(100L));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void addToSubtreeTotals_shouldThrowWhenNotFound() {
+        graph.addToSubtreeTotals(1, 2);
+    }
+
+    @Test
+    public void countByType_shouldCountMatchingIds() {
+        graph.add(1, null, 1, "type1");
+        graph.add(2, null, 1, "type2");
+        graph.add(3, 1L, 1, "type1");
+
+        assertThat(graph.countByType("type1"), is(2L));
+        assertThat(graph.countByType("type2"), is(1L));
+        assertThat(graph.countByType("type3"), is(0L));
+    }
+
+    @Test
+    public void statsByType_shouldAggregateAmounts() {
+        graph.add(1, null, 2, "type1");
+        graph.add(2, null, 7, "type2");
+        graph.add(3, 1L, -1, "type1");
+        graph.addAll(Arrays.asList(batchTransaction(4, 5, "type1", 3L)));
+        try {
+            graph.add(1, null, 100, "type1");
+            fail();
+        } catch (ConflictException e) {
+            // a conflicting transaction is not aggregated
+        }
+
+        TypeStats stats = graph.statsByType("type1");
+        assertThat(stats.getCount(), is(3L));
+        assertThat(stats.getSum(), closeTo(6, 0.001));
+        assertThat(stats.getMin(), closeTo(-1, 0.001));
+        assertThat(stats.getMax(), closeTo(5, 0.001));
+        assertThat(stats.getMean(), closeTo(2, 0.001));
+        assertThat(graph.statsByType("type3").getCount(), is(0L));
+    }
+
+    @Test
+    public void sum_shouldSumSubtrees() {
+        graph.add(1, null, 1.1, "type");
+        graph.add(2, 1L, 5.1, "type");
+        graph.add(3, 1L, 7.1, "type");
+        graph.add(4, 2L, 11.1, "type");
+        graph.add(5, 2L, 13, "type");
+        graph.add(99, null, 999.9, "type");
+
+        assertThat(graph.sum(5), closeTo(13, 0.001));
+        assertThat(graph.sum(2), closeTo(5.1 + 11.1 + 13, 0.001));
+        assertThat(graph.sum(1), closeTo(1.1 + 5.1 + 7.1 + 11.1 + 13, 0.001));
+        assertThat(graph.sum(99), closeTo(999.9, 0.001));
+    }
+
+    @Test(timeout = 5000)
+    public void sum_shouldSumDeepChains() {
+        graph.add(0, null, 1, "type");
+        for (long i = 1; i < 10000; i++) {
+            graph.add(i, i - 1, 1, "type");
+        }
+
+        assertThat(graph.sum(0), closeTo(10000, 0.001));
+        assertThat(graph.size(), is(10000));
+    }
+
+    @Test(timeout = 10000)
+    public void sum_shouldSumConcurrentInserts() throws Exception {
+        graph.add(0, null, 1, "type");
+        graph.add(1, 0L, 1, "type");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long first = 1000 + t * 1000;
+            futures.add(executor.submit(() -> {
+                for (long i = first; i < first + 1000; i++) {
+                    graph.add(i, 1L, 0.5, "type");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(graph.sum(0), closeTo(2 + 4 * 1000 * 0.5, 0.001));
+        assertThat(graph.sum(1), closeTo(1 + 4 * 1000 * 0.5, 0.001));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void sum_shouldRejectMissingTransaction() {
+        graph.sum(1);
+    }
+}
@@ -0,0 +1,219 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    List<TransactionLog> logs = new ArrayList<>();
+
+    AmountScale scale = new AmountScale();
+
+    @After
+    public void close() {
+        logs.forEach(TransactionLog::close);
+    }
+
+    @Test
+    public void replay_shouldReturnAppendedRecords() {
+        TransactionLog log = openEmpty(1024);
+        log.appendType(0, "type");
+        log.appendTransaction(1, TransactionGraph.NO_PARENT, units(1.5), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendTransaction(2, 1, units(-2.5), 0, 1445000000000L);
+        log.flush();
+
+        assertThat(replay(open(1024)), contains("type 0 type", "tx 1 " + TransactionGraph.NO_PARENT + " 1.5 0",
+                "tx 2 1 -2.5 0 @1445000000000"));
+    }
+
+    @Test
+    public void replay_shouldContinueAppendingAfterLastRecord() {
+        TransactionLog log = openEmpty(1024);
+        log.appendType(0, "type");
+        log.flush();
+        TransactionLog reopened = open(1024);
+        replay(reopened);
+        reopened.appendTransaction(1, 5, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.flush();
+
+        assertThat(replay(open(1024)), contains("type 0 type", "tx 1 5 1.0 0"));
+    }
+
+    @Test
+    public void append_shouldRollSegments() {
+        TransactionLog log = openEmpty(100);
+        for (int i = 0; i < 10; i++) {
+            log.appendTransaction(i, i - 1, units(i), 0, TransactionGraph.NO_TIMESTAMP);
+        }
+        log.flush();
+
+        List<String> records = replay(open(100));
+        assertThat(records.size(), is(10));
+        assertThat(records.get(9), is("tx 9 8 9.0 0"));
+        // two records of 45 bytes per segment
+        assertThat(folder.getRoot().listFiles().length, is(5));
+    }
+
+    @Test
+    public void replay_shouldDiscardTornRecord() throws Exception {
+        TransactionLog log = openEmpty(1024);
+        log.appendTransaction(1, 0, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendTransaction(2, 0, units(2), 0, TransactionGraph.NO_TIMESTAMP);
+        log.flush();
+        corrupt(TransactionLog.HEADER_SIZE + TransactionLog.TRANSACTION_PAYLOAD_SIZE + 20);
+
+        TransactionLog reopened = open(1024);
+        assertThat(replay(reopened), contains("tx 1 0 1.0 0"));
+        reopened.appendTransaction(3, 0, units(3), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.flush();
+        assertThat(replay(open(1024)), contains("tx 1 0 1.0 0", "tx 3 0 3.0 0"));
+    }
+
+    @Test
+    public void replay_shouldDiscardPartialBatch() {
+        TransactionLog log = openEmpty(1024);
+        log.appendBatch(2);
+        log.appendTransaction(1, 0, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendTransaction(2, 0, units(2), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendBatch(2);
+        log.appendTransaction(3, 0, units(3), 0, TransactionGraph.NO_TIMESTAMP);
+        log.flush();
+
+        assertThat(replay(open(1024)), contains("tx 1 0 1.0 0", "tx 2 0 2.0 0"));
+    }
+
+    @Test
+    public void replay_shouldAppendOverPartialBatch() {
+        TransactionLog log = openEmpty(1024);
+        log.appendTransaction(1, 0, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendBatch(3);
+        log.appendTransaction(2, 0, units(2), 0, TransactionGraph.NO_TIMESTAMP);
+        log.flush();
+
+        TransactionLog reopened = open(1024);
+        assertThat(replay(reopened), contains("tx 1 0 1.0 0"));
+        reopened.appendType(0, "type");
+        reopened.appendTransaction(3, 0, units(3), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.appendTransaction(4, 0, units(4), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.flush();
+
+        TransactionLog again = open(1024);
+        assertThat(replay(again), contains("tx 1 0 1.0 0", "type 0 type", "tx 3 0 3.0 0", "tx 4 0 4.0 0"));
+        again.appendTransaction(5, 0, units(5), 0, TransactionGraph.NO_TIMESTAMP);
+        again.flush();
+        assertThat(replay(open(1024)), contains("tx 1 0 1.0 0", "type 0 type", "tx 3 0 3.0 0", "tx 4 0 4.0 0",
+                "tx 5 0 5.0 0"));
+    }
+
+    @Test
+    public void replay_shouldAppendOverPartialBatchSpanningSegments() {
+        TransactionLog log = openEmpty(100);
+        log.appendTransaction(1, 0, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendBatch(3);
+        log.appendTransaction(2, 0, units(2), 0, TransactionGraph.NO_TIMESTAMP);
+        log.appendTransaction(3, 0, units(3), 0, TransactionGraph.NO_TIMESTAMP);
+        log.flush();
+
+        TransactionLog reopened = open(100);
+        assertThat(replay(reopened), contains("tx 1 0 1.0 0"));
+        reopened.appendTransaction(4, 0, units(4), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.appendTransaction(5, 0, units(5), 0, TransactionGraph.NO_TIMESTAMP);
+        reopened.flush();
+
+        assertThat(replay(open(100)), contains("tx 1 0 1.0 0", "tx 4 0 4.0 0", "tx 5 0 5.0 0"));
+    }
+
+    @Test
+    public void replay_shouldConvertUnitsOfAnotherScale() {
+        TransactionLog log = new TransactionLog(folder.getRoot().getPath(), 1024, 0, new AmountScale(2));
+        logs.add(log);
+        log.replay(new TransactionLog.Visitor() {
+            @Override
+            public void type(int code, String name) {
+            }
+
+            @Override
+            public void transaction(long id, long parentId, long amount, int typeCode, long timestamp) {
+            }
+        });
+        log.appendTransaction(1, 0, 125, 0, TransactionGraph.NO_TIMESTAMP);
+        log.flush();
+
+        assertThat(replay(open(1024)), contains("tx 1 0 1.25 0"));
+    }
+
+    @Test
+    public void flush_shouldSkipPositionsForcedAlready() {
+        TransactionLog log = openEmpty(1024);
+        log.appendTransaction(1, 0, units(1), 0, TransactionGraph.NO_TIMESTAMP);
+        long first = log.position();
+        log.appendTransaction(2, 0, units(2), 0, TransactionGraph.NO_TIMESTAMP);
+        long second = log.position();
+
+        // the force of the later position covers the earlier one
+        log.flush(second);
+        log.flush(first);
+
+        assertThat(replay(open(1024)), contains("tx 1 0 1.0 0", "tx 2 0 2.0 0"));
+    }
+
+    private long units(double amount) {
+        return scale.toUnits(amount);
+    }
+
+    private TransactionLog open(int segmentSize) {
+        TransactionLog log = new TransactionLog(folder.getRoot().getPath(), segmentSize, 0);
+        logs.add(log);
+        return log;
+    }
+
+    private TransactionLog openEmpty(int segmentSize) {
+        TransactionLog log = open(segmentSize);
+        assertThat(replay(log), is(empty()));
+        return log;
+    }
+
+    private List<String> replay(TransactionLog log) {
+        List<String> records = new ArrayList<>();
+        log.replay(new TransactionLog.Visitor() {
+            @Override
+            public void type(int code, String name) {
+                records.add("type " + code + " " + name);
+            }
+
+            @Override
+            public void transaction(long id, long parentId, long amount, int typeCode, long timestamp) {
+                records.add("tx " + id + " " + parentId + " " + scale.toAmount(amount) + " " + typeCode
+                        + (timestamp == TransactionGraph.NO_TIMESTAMP ? "" : " @" + timestamp));
+            }
+        });
+        return records;
+    }
+
+    private void corrupt(long position) throws Exception {
+        File segment = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(position);
+            file.write(0xff);
+        }
+    }
+}
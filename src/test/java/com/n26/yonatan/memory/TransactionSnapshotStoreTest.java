@@ -0,0 +1,79 @@
+package com.n26.yonatan.memory;
+
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_shouldReturnNullWithoutSnapshot() {
+        assertThat(new TransactionSnapshotStore(folder.getRoot().getPath(), true).read(), is(nullValue()));
+    }
+
+    @Test
+    public void read_shouldReturnWrittenSnapshot_mapped() {
+        roundTrip(true);
+    }
+
+    @Test
+    public void read_shouldReturnWrittenSnapshot_channel() {
+        roundTrip(false);
+    }
+
+    private void roundTrip(boolean mmap) {
+        // larger than a single chunk of each column, and the arrays are longer than the size
+        int size = 300_000;
+        long[] ids = new long[size + 10];
+        long[] parents = new long[size + 10];
+        long[] amounts = new long[size + 10];
+        int[] types = new int[size + 10];
+        long[] timestamps = new long[size + 10];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i * 7L - 1000;
+            parents[i] = i == 0 ? TransactionGraph.NO_PARENT : ids[i - 1];
+            amounts[i] = i * 5000L - 7;
+            types[i] = i % 3;
+            timestamps[i] = i % 2 == 0 ? TransactionGraph.NO_TIMESTAMP : 1445000000000L + i;
+        }
+        TransactionSnapshotStore store = new TransactionSnapshotStore(folder.getRoot().getPath(), mmap);
+        store.write(new TransactionSnapshotStore.Snapshot(12L << 32 | 34, 1, new long[1], new long[1],
+                new long[1], new int[1], new long[1], Arrays.asList("old")));
+        store.write(new TransactionSnapshotStore.Snapshot(56L << 32 | 78, size, ids, parents, amounts, types,
+                timestamps, Arrays.asList("type0", "טיפוס", "type2")));
+
+        TransactionSnapshotStore.Snapshot snapshot = store.read();
+
+        assertThat(snapshot.logPosition, is(56L << 32 | 78));
+        assertThat(snapshot.size, is(size));
+        assertThat(snapshot.typeNames, contains("type0", "טיפוס", "type2"));
+        assertThat(snapshot.ids, is(Arrays.copyOf(ids, size)));
+        assertThat(snapshot.parents, is(Arrays.copyOf(parents, size)));
+        assertThat(snapshot.amounts, is(Arrays.copyOf(amounts, size)));
+        assertThat(snapshot.types, is(Arrays.copyOf(types, size)));
+        assertThat(snapshot.timestamps, is(Arrays.copyOf(timestamps, size)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void read_shouldRejectSnapshotOfAnotherScale() {
+        new TransactionSnapshotStore(folder.getRoot().getPath(), true, new AmountScale(2)).write(
+                new TransactionSnapshotStore.Snapshot(0, 1, new long[1], new long[1], new long[1], new int[1],
+                        new long[1], Arrays.asList("type")));
+
+        new TransactionSnapshotStore(folder.getRoot().getPath(), true, new AmountScale(4)).read();
+    }
+}
@@ -0,0 +1,50 @@
+package com.n26.yonatan.metrics;
+
+import com.n26.yonatan.dto.HistogramStats;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class RecordedHistogramTest {
+
+    RecordedHistogram histogram = new RecordedHistogram();
+
+    @Test
+    public void stats_shouldBeEmptyWithoutValues() {
+        assertThat(histogram.stats(), is(new HistogramStats(0, 0, 0, 0, 0, 0, 0)));
+    }
+
+    @Test
+    public void stats_shouldSummarizeAllRecordedValues() {
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.stats();
+        // recorded after the previous read
+        histogram.record(400_000);
+
+        HistogramStats stats = histogram.stats();
+
+        assertThat(stats.getCount(), is(1001L));
+        assertThat(stats.getMin(), is(1L));
+        // within the 3 significant digits of the histogram, and exact below 2048
+        assertThat(stats.getMax(), both(greaterThanOrEqualTo(400_000L)).and(lessThanOrEqualTo(400_400L)));
+        assertThat(stats.getP50(), is(501L));
+        assertThat(stats.getP99(), is(991L));
+        assertThat(stats.getP999(), is(1000L));
+    }
+
+    @Test
+    public void record_shouldClampNegativeValues() {
+        histogram.record(-5);
+
+        assertThat(histogram.stats().getMax(), is(0L));
+    }
+}
@@ -0,0 +1,54 @@
+package com.n26.yonatan.metrics;
+
+import com.n26.yonatan.dto.HistogramStats;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Category(FastTest.class)
+public class StatementCountingDataSourceTest {
+
+    TransactionMetrics metrics = new TransactionMetrics();
+
+    @Test
+    public void getConnection_shouldCountExecutedStatements() throws Exception {
+        DataSource target = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        Statement statement = mock(Statement.class);
+        when(target.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement("INSERT")).thenReturn(preparedStatement);
+        when(connection.createStatement()).thenReturn(statement);
+        when(preparedStatement.executeBatch()).thenReturn(new int[]{1, 1});
+
+        long[] request = metrics.startRequest();
+        try (Connection c = new StatementCountingDataSource(target, metrics).getConnection()) {
+            PreparedStatement ps = c.prepareStatement("INSERT");
+            ps.setLong(1, 1);
+            ps.addBatch();
+            ps.addBatch();
+            assertThat(ps.executeBatch().length, is(2));
+            ps.executeUpdate();
+            c.createStatement().execute("SELECT 1");
+        }
+        metrics.endRequest("test", System.nanoTime(), request);
+
+        verify(preparedStatement).setLong(1, 1);
+        verify(connection).close();
+        HistogramStats statements = metrics.stats().get(TransactionMetrics.COUNTERS)
+                .get(TransactionMetrics.SQL_STATEMENTS_PER_REQUEST);
+        assertThat(statements.getCount(), is(1L));
+        assertThat(statements.getMax(), is(3L));
+    }
+}
@@ -0,0 +1,54 @@
+package com.n26.yonatan.metrics;
+
+import com.n26.yonatan.dto.HistogramStats;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@Category(FastTest.class)
+public class TransactionMetricsTest {
+
+    TransactionMetrics metrics = new TransactionMetrics();
+
+    @Test
+    public void stats_shouldGroupHistogramsByName() throws Exception {
+        long start = System.nanoTime();
+        Thread.sleep(2);
+        metrics.recordLatency(TransactionMetrics.SERVICES, "sumTransactions", start);
+        metrics.recordLatency(TransactionMetrics.SERVICES, "findTransaction", start);
+        metrics.recordCount(TransactionMetrics.ANCESTOR_WALK_DEPTH, 3);
+
+        Map<String, Map<String, HistogramStats>> stats = metrics.stats();
+
+        assertThat(stats.keySet(), contains(TransactionMetrics.ENDPOINTS, TransactionMetrics.SERVICES,
+                TransactionMetrics.COUNTERS));
+        assertThat(stats.get(TransactionMetrics.SERVICES).keySet(), contains("findTransaction", "sumTransactions"));
+        // in microseconds
+        assertThat(stats.get(TransactionMetrics.SERVICES).get("sumTransactions").getMin(),
+                greaterThanOrEqualTo(2000L));
+        assertThat(stats.get(TransactionMetrics.COUNTERS).get(TransactionMetrics.ANCESTOR_WALK_DEPTH).getMax(),
+                is(3L));
+    }
+
+    @Test
+    public void endRequest_shouldRecordStatementsOfTheRequestOnly() {
+        metrics.countStatement();
+        long[] statements = metrics.startRequest();
+        metrics.countStatement();
+        metrics.countStatement();
+        metrics.endRequest("GET /transactionservice/sum/{transactionId}", System.nanoTime(), statements);
+
+        Map<String, Map<String, HistogramStats>> stats = metrics.stats();
+        assertThat(stats.get(TransactionMetrics.ENDPOINTS).get("GET /transactionservice/sum/{transactionId}")
+                .getCount(), is(1L));
+        assertThat(stats.get(TransactionMetrics.COUNTERS).get(TransactionMetrics.SQL_STATEMENTS_PER_REQUEST)
+                .getMax(), is(2L));
+    }
+}
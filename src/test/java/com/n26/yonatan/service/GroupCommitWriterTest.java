@@ -0,0 +1,200 @@
+package com.n26.yonatan.service;
+
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.HttpException;
+import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.exception.ServiceUnavailableException;
+import com.n26.yonatan.testutils.FastTest;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import static com.n26.yonatan.testutils.Utils.transaction;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Category(FastTest.class)
+public class GroupCommitWriterTest {
+
+    TransactionService transactionService = mock(TransactionService.class);
+
+    GroupCommitWriter writer = new GroupCommitWriter(transactionService, 100, 10, 7);
+
+    @After
+    public void close() throws InterruptedException {
+        writer.close();
+    }
+
+    @Test
+    public void submit_shouldCreateTransaction() throws Exception {
+        List<BatchTransaction> group = new ArrayList<>();
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class))).thenAnswer(invocation -> {
+            group.addAll((List<BatchTransaction>) invocation.getArguments()[0]);
+            return singletonList(null);
+        });
+
+        Transaction transaction = transaction(1.5, "type", 2L);
+        transaction.setTimestamp(1000L);
+        writer.submit(1, transaction).get();
+
+        assertThat(group.size(), is(1));
+        assertThat(group.get(0).getId(), is(1L));
+        assertThat(group.get(0).getAmount(), is(1.5));
+        assertThat(group.get(0).getType(), is("type"));
+        assertThat(group.get(0).getParentId(), is(2L));
+        assertThat(group.get(0).getTimestamp(), is(1000L));
+    }
+
+    @Test
+    public void submit_shouldFailWithTheFailureOfTheTransaction() {
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class)))
+                .thenReturn(singletonList(new BadRequestException("parent not found")));
+
+        assertThat(failureOf(writer.submit(1, transaction(1, "type", 2L))), instanceOf(BadRequestException.class));
+    }
+
+    @Test
+    public void submit_shouldCreateTransactionOnItsOwnWhenGroupFails() {
+        Transaction t = transaction(1, "type");
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate"));
+        doThrow(new DataIntegrityViolationException("duplicate")).when(transactionService).createTransaction(1, t);
+
+        assertThat(failureOf(writer.submit(1, t)), instanceOf(DataIntegrityViolationException.class));
+        verify(transactionService).createTransaction(1, t);
+    }
+
+    @Test
+    public void submit_shouldSurviveErrorsOfTheGroup() throws Exception {
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class)))
+                .thenThrow(new OutOfMemoryError("group"))
+                .thenReturn(singletonList(null));
+
+        assertThat(failureOf(writer.submit(1, transaction(1, "type"))), instanceOf(OutOfMemoryError.class));
+        writer.submit(2, transaction(1, "type")).get();
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void submit_shouldFailOnceClosed() throws InterruptedException {
+        writer.close();
+
+        writer.submit(1, transaction(1, "type"));
+    }
+
+    @Test(timeout = 5000)
+    public void close_shouldStopWriterWhoseInterruptWasSwallowed() throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class))).thenAnswer(invocation -> {
+            committing.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                // swallowed, as a JDBC driver might
+            }
+            return singletonList(null);
+        });
+        CompletableFuture<Void> write = writer.submit(1, transaction(1, "type"));
+        committing.await();
+
+        writer.close();
+
+        write.get();
+        assertThat(((Thread) ReflectionTestUtils.getField(writer, "writer")).isAlive(), is(false));
+    }
+
+    @Test
+    public void submit_shouldRejectWhenQueueIsFull() throws Exception {
+        GroupCommitWriter small = new GroupCommitWriter(transactionService, 1, 10, 7);
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class))).thenAnswer(invocation -> {
+            committing.countDown();
+            release.await();
+            return singletonList(null);
+        });
+        try {
+            CompletableFuture<Void> first = small.submit(1, transaction(1, "type"));
+            committing.await();
+            CompletableFuture<Void> queued = small.submit(2, transaction(1, "type"));
+            try {
+                small.submit(3, transaction(1, "type"));
+                fail();
+            } catch (ServiceUnavailableException e) {
+                assertThat(e.getRetryAfterSeconds(), is(7));
+            }
+            release.countDown();
+            first.get();
+            queued.get();
+        } finally {
+            release.countDown();
+            small.close();
+        }
+    }
+
+    @Test
+    public void submit_shouldGroupQueuedTransactions() throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> groupSizes = new ArrayList<>();
+        when(transactionService.createTransactionGroup(anyListOf(BatchTransaction.class))).thenAnswer(invocation -> {
+            List<BatchTransaction> group = (List<BatchTransaction>) invocation.getArguments()[0];
+            groupSizes.add(group.size());
+            committing.countDown();
+            release.await();
+            List<HttpException> failures = new ArrayList<>();
+            group.forEach(t -> failures.add(t.getId() == 3 ? new ConflictException("conflict") : null));
+            return failures;
+        });
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        writes.add(writer.submit(1, transaction(1, "type")));
+        committing.await();
+        // queued while the first group is being committed
+        for (long id = 2; id <= 5; id++) {
+            writes.add(writer.submit(id, transaction(1, "type")));
+        }
+        release.countDown();
+
+        List<String> outcomes = new ArrayList<>();
+        for (CompletableFuture<Void> write : writes) {
+            Throwable failure = failureOf(write);
+            outcomes.add(failure == null ? "ok" : failure.getClass().getSimpleName());
+        }
+        assertThat(outcomes, contains("ok", "ok", "ConflictException", "ok", "ok"));
+        assertThat(groupSizes, is(Arrays.asList(1, 4)));
+    }
+
+    /**
+     * Waits for the future, and returns the exception it failed with, or null if it succeeded
+     */
+    private static Throwable failureOf(CompletableFuture<Void> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
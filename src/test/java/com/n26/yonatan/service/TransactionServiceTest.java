@@ -1,34 +1,66 @@
 package com.n26.yonatan.service;
 
+import com.n26.yonatan.aggregate.JpaTypeAggregates;
+import com.n26.yonatan.aggregate.TransactionStatistics;
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.cache.BoundedCache;
+import com.n26.yonatan.cache.SumCache;
+import com.n26.yonatan.cache.TransactionCache;
+import com.n26.yonatan.cache.TransactionIds;
+import com.n26.yonatan.dto.BatchTransaction;
+import com.n26.yonatan.dto.Count;
 import com.n26.yonatan.dto.Sum;
 import com.n26.yonatan.dto.Transaction;
+import com.n26.yonatan.dto.TransactionNode;
 import com.n26.yonatan.exception.BadRequestException;
+import com.n26.yonatan.exception.ConflictException;
+import com.n26.yonatan.exception.HttpException;
 import com.n26.yonatan.exception.NotFoundException;
 import com.n26.yonatan.exception.ServerErrorException;
+import com.n26.yonatan.metrics.TransactionMetrics;
 import com.n26.yonatan.model.TransactionEntity;
+import com.n26.yonatan.repository.TransactionBatchRepository;
 import com.n26.yonatan.repository.TransactionDescendantRepository;
 import com.n26.yonatan.repository.TransactionRepository;
 import com.n26.yonatan.testutils.FastTest;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
-import static com.n26.yonatan.testutils.Utils.descendant;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.n26.yonatan.testutils.Utils.batchTransaction;
 import static com.n26.yonatan.testutils.Utils.entity;
 import static com.n26.yonatan.testutils.Utils.transaction;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @Category(FastTest.class)
@@ -44,6 +76,24 @@ public class TransactionServiceTest {
     @Mock
     TransactionDescendantRepository transactionDescendantRepository;
 
+    @Mock
+    TransactionBatchRepository transactionBatchRepository;
+
+    @Spy
+    TransactionMetrics metrics = new TransactionMetrics();
+
+    @Spy
+    TransactionStatistics statistics = new TransactionStatistics(60);
+
+    @Spy
+    AmountScale amountScale = new AmountScale();
+
+    @Captor
+    ArgumentCaptor<List<long[]>> descendantsCaptor;
+
+    @Captor
+    ArgumentCaptor<Map<Long, String>> pathsCaptor;
+
     @Test
     public void findTransaction_shouldReturnParentlessTransaction() {
         TransactionEntity entity = entity(1, 999.1, "type");
@@ -58,9 +108,8 @@ public class TransactionServiceTest {
 
     @Test
     public void findTransaction_shouldReturnTransactionWithParent() {
-        TransactionEntity entity = entity(1, 999.1, "type");
         TransactionEntity parent = entity(2, 88, "type");
-        entity.setParent(parent);
+        TransactionEntity entity = entity(1, 999.1, "type", parent);
         setupFindTransaction(entity);
 
         Transaction transaction = transactionService.findTransaction(1L);
@@ -76,6 +125,72 @@ public class TransactionServiceTest {
         transactionService.findTransaction(1L);
     }
 
+    @Test
+    public void findTransaction_shouldServeCachedTransaction() {
+        TransactionCache cache = new TransactionCache(BoundedCache.TINY_LFU, 10);
+        ReflectionTestUtils.setField(transactionService, "transactionCache", cache);
+        setupFindTransaction(entity(1, 999.1, "type"));
+
+        transactionService.findTransaction(1L);
+        Transaction transaction = transactionService.findTransaction(1L);
+
+        assertThat(transaction.getAmount(), is(999.1));
+        verify(transactionRepository, times(1)).findOne(1L);
+        assertThat(cache.stats().getHits(), is(1L));
+        assertThat(cache.stats().getMisses(), is(1L));
+    }
+
+    @Test
+    public void sumTransactions_shouldServeCachedSum() {
+        SumCache cache = new SumCache(BoundedCache.TINY_LFU, 10, 0);
+        ReflectionTestUtils.setField(transactionService, "sumCache", cache);
+        TransactionEntity te = entity(1, 1.5, "type");
+        when(transactionRepository.findOne(1L)).thenReturn(te);
+        when(transactionDescendantRepository.sumUnitsByParent(te)).thenReturn(countAndSum(2, 5.0));
+
+        transactionService.sumTransactions(1L);
+        Sum sum = transactionService.sumTransactions(1L);
+
+        assertThat(sum.getSum(), closeTo(6.5, 0.001));
+        verify(transactionDescendantRepository, times(1)).sumUnitsByParent(te);
+        assertThat(cache.stats().getHits(), is(1L));
+    }
+
+    @Test
+    public void createTransaction_shouldInvalidateAncestorsSums() {
+        SumCache cache = new SumCache(BoundedCache.TINY_LFU, 10, 0);
+        ReflectionTestUtils.setField(transactionService, "sumCache", cache);
+        for (long id = 1; id <= 3; id++) {
+            cache.put(id, id, cache.stamp(id));
+        }
+        TransactionEntity parent = entity(2, 1, "type");
+        when(transactionRepository.findOne(2L)).thenReturn(parent);
+        when(transactionDescendantRepository.ancestorIds(2L)).thenReturn(singletonList(1L));
+
+        transactionService.createTransaction(5, transaction(1.1, "type", 2L));
+
+        assertThat(cache.get(1), is(nullValue()));
+        assertThat(cache.get(2), is(nullValue()));
+        assertThat(cache.get(3), is(3.0));
+    }
+
+    @Test
+    public void pathIds_shouldReturnAllIdsInPath() {
+        assertThat(TransactionService.pathIds("/1/22/-3/"), contains(1L, 22L, -3L));
+    }
+
+    @Test
+    public void createTransaction_shouldCacheCreatedTransaction() {
+        TransactionCache cache = new TransactionCache(BoundedCache.TINY_LFU, 10);
+        ReflectionTestUtils.setField(transactionService, "transactionCache", cache);
+
+        transactionService.createTransaction(1, transaction(1.1, "type"));
+        Transaction transaction = transactionService.findTransaction(1L);
+
+        assertThat(transaction, is(transaction(1.1, "type")));
+        verify(transactionRepository, never()).findOne(1L);
+    }
+
     @Test
     public void getTransactionIdsByType_shouldGetTransactionIds() {
         List<Long> list = new ArrayList<>();
@@ -86,6 +201,93 @@ public class TransactionServiceTest {
         assertThat(result, is(list));
     }
 
+    @Test
+    public void getTransactionIdsByType_shouldGetFirstPage() {
+        List<Long> list = Arrays.asList(1L, 2L);
+        when(transactionRepository.getTransactionIdsByType("type", new PageRequest(0, 2))).thenReturn(list);
+
+        List<Long> result = transactionService.getTransactionIdsByType("type", null, 2);
+
+        assertThat(result, is(list));
+    }
+
+    @Test
+    public void getTransactionIdsByType_shouldGetPageAfterId() {
+        List<Long> list = Arrays.asList(3L, 4L);
+        when(transactionRepository.getTransactionIdsByTypeAfter("type", 2L, new PageRequest(0, 2))).thenReturn(list);
+
+        List<Long> result = transactionService.getTransactionIdsByType("type", 2L, 2);
+
+        assertThat(result, is(list));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getTransactionIdsByType_shouldRejectTooLargePage() {
+        transactionService.getTransactionIdsByType("type", null, 10001);
+    }
+
+    @Test
+    public void getDescendants_shouldGetPageFromDescendantsTable() {
+        when(transactionRepository.findOne(1L)).thenReturn(entity(1, 1, "type"));
+        when(transactionDescendantRepository.descendants(1L, 2L, 3, new PageRequest(0, 2))).thenReturn(Arrays.asList(
+                new Object[]{3L, 15000L, "type", 1L},
+                new Object[]{4L, 25000L, "other", 3L}));
+
+        List<TransactionNode> result = transactionService.getDescendants(1L, 2L, 2, 3);
+
+        assertThat(result, contains(new TransactionNode(3, 1.5, "type", 1L), new TransactionNode(4, 2.5, "other", 3L)));
+    }
+
+    @Test
+    public void getDescendants_shouldGetPageByPathPrefix() {
+        usePathHierarchy();
+        TransactionEntity root = entity(1, 1, "type");
+        root.setPath("/1/");
+        when(transactionRepository.findOne(1L)).thenReturn(root);
+        // the transaction itself and the descendants deeper than the depth are skipped
+        when(transactionRepository.subtreeByPathPrefix("/1/", Long.MIN_VALUE, new PageRequest(0, 2)))
+                .thenReturn(Arrays.asList(
+                        new Object[]{1L, 10000L, "type", null, "/1/"},
+                        new Object[]{2L, 10000L, "type", 1L, "/1/2/"}));
+        when(transactionRepository.subtreeByPathPrefix("/1/", 2L, new PageRequest(0, 2)))
+                .thenReturn(Arrays.asList(
+                        new Object[]{3L, 10000L, "type", 2L, "/1/2/3/"},
+                        new Object[]{4L, 20000L, "type", 1L, "/1/4/"}));
+
+        List<TransactionNode> result = transactionService.getDescendants(1L, null, 2, 1);
+
+        assertThat(result, contains(new TransactionNode(2, 1, "type", 1L), new TransactionNode(4, 2, "type", 1L)));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void getDescendants_shouldRejectMissingTransaction() {
+        transactionService.getDescendants(1L, null, 10, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getDescendants_shouldRejectInvalidDepth() {
+        transactionService.getDescendants(1L, null, 10, 0);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void getDescendants_shouldRejectTooLargePage() {
+        transactionService.getDescendants(1L, null, 10001, null);
+    }
+
+    @Test
+    public void countTransactionsByType_shouldCountTransactions() {
+        JpaTypeAggregates typeAggregates = new JpaTypeAggregates(transactionRepository, new AmountScale());
+        typeAggregates.add("type", 1);
+        typeAggregates.add("type", 2);
+        typeAggregates.add("type", 3);
+        typeAggregates.add("other", 4);
+        ReflectionTestUtils.setField(transactionService, "typeAggregates", typeAggregates);
+
+        Count result = transactionService.countTransactionsByType("type");
+
+        assertThat(result, is(new Count(3)));
+    }
+
     @Test
     public void createTransaction_shouldSaveParentlessTransaction() {
         Transaction t = transaction(1.1, "type");
@@ -106,11 +308,37 @@ public class TransactionServiceTest {
         transactionService.createTransaction(1, tParent);
 
         verify(transactionRepository).findOne(2L);
-        verify(transactionRepository).save(te1);
-        verify(transactionDescendantRepository).save(descendant(0, te2, te1));
+        verify(transactionRepository).saveAndFlush(te1);
+        verify(transactionDescendantRepository).insertAncestors(2L, 1L);
 
     }
 
+    @Test
+    public void createTransaction_shouldReferenceKnownParentWithoutReadingIt() {
+        TransactionIds ids = new TransactionIds(transactionRepository, 10);
+        ids.addAll(singletonList(2L));
+        ReflectionTestUtils.setField(transactionService, "transactionIds", ids);
+        TransactionEntity te2 = entity(2, 1.1, "type");
+        when(transactionRepository.getOne(2L)).thenReturn(te2);
+
+        transactionService.createTransaction(1, transaction(1.1, "type", 2L));
+
+        verify(transactionRepository, never()).findOne(2L);
+        verify(transactionRepository).saveAndFlush(entity(1, 1.1, "type", te2));
+        verify(transactionDescendantRepository).insertAncestors(2L, 1L);
+        assertThat(ids.contains(1L), is(true));
+    }
+
+    @Test(expected = ConflictException.class)
+    public void checkNotExists_shouldRejectKnownTransaction() {
+        TransactionIds ids = new TransactionIds(transactionRepository, 10);
+        ReflectionTestUtils.setField(transactionService, "transactionIds", ids);
+        transactionService.checkNotExists(1);
+        transactionService.createTransaction(1, transaction(1.1, "type"));
+
+        transactionService.checkNotExists(1);
+    }
+
     @Test(expected = BadRequestException.class)
     public void createTransaction_shouldFailSavingTransactionWithMissingParent() {
         Transaction t = transaction(1.1, "type", 2L);
@@ -130,16 +358,140 @@ public class TransactionServiceTest {
 
         setupFindTransaction(te1);
         setupFindTransaction(te2);
+        when(transactionDescendantRepository.countCyclicAncestors(1L, 3L)).thenReturn(1L);
         Transaction t = transaction(1.1, "type", te1.getId());
 
-        transactionService.createTransaction(3, t);
+        try {
+            transactionService.createTransaction(3, t);
+        } finally {
+            verify(transactionDescendantRepository, never()).insertAncestors(anyLong(), anyLong());
+        }
+    }
+
+    @Test
+    public void topologicalOrder_shouldPlaceParentsBeforeChildren() {
+        List<BatchTransaction> ordered = TransactionService.topologicalOrder(Arrays.asList(
+                batchTransaction(4, 1, "type", 3L),
+                batchTransaction(3, 1, "type", 1L),
+                batchTransaction(1, 1, "type", null),
+                batchTransaction(2, 1, "type", 99L)));
+
+        assertThat(ordered.stream().map(BatchTransaction::getId).collect(Collectors.toList()),
+                contains(1L, 2L, 3L, 4L));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void topologicalOrder_shouldRejectDuplicateIds() {
+        TransactionService.topologicalOrder(Arrays.asList(
+                batchTransaction(1, 1, "type", null),
+                batchTransaction(1, 2, "type", null)));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void topologicalOrder_shouldRejectCycles() {
+        TransactionService.topologicalOrder(Arrays.asList(
+                batchTransaction(1, 1, "type", 2L),
+                batchTransaction(2, 1, "type", 1L)));
+    }
+
+    @Test
+    public void createTransactions_shouldSaveTransactionsAndDescendants() {
+        List<BatchTransaction> batch = Arrays.asList(
+                batchTransaction(4, 1, "type", 3L),
+                batchTransaction(3, 1, "type", 2L),
+                batchTransaction(5, 1, "type", null));
+        when(transactionRepository.getExistingIds(newHashSet(2L))).thenReturn(singletonList(2L));
+        when(transactionDescendantRepository.ancestorsByDescendants(newHashSet(2L)))
+                .thenReturn(singletonList(new Object[]{2L, 1L}));
+
+        transactionService.createTransactions(batch);
+
+        verify(transactionBatchRepository).insertTransactions(Arrays.asList(batch.get(1), batch.get(2), batch.get(0)),
+                null);
+        verify(transactionBatchRepository).insertDescendants(descendantsCaptor.capture());
+        List<String> descendants = descendantsCaptor.getValue().stream()
+                .map(Arrays::toString).collect(Collectors.toList());
+        assertThat(descendants, containsInAnyOrder("[2, 3, 1]", "[1, 3, 2]", "[3, 4, 1]", "[2, 4, 2]", "[1, 4, 3]"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void createTransactions_shouldFailSavingTransactionsWithMissingParent() {
+        when(transactionRepository.getExistingIds(newHashSet(2L))).thenReturn(emptyList());
+
+        try {
+            transactionService.createTransactions(singletonList(batchTransaction(3, 1, "type", 2L)));
+        } finally {
+            verifyZeroInteractions(transactionBatchRepository);
+        }
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void createTransactions_shouldFailOnCircularTransaction() {
+        when(transactionRepository.getExistingIds(newHashSet(2L))).thenReturn(singletonList(2L));
+        when(transactionDescendantRepository.ancestorsByDescendants(newHashSet(2L)))
+                .thenReturn(Arrays.asList(new Object[]{2L, 1L}, new Object[]{2L, 2L}));
+
+        transactionService.createTransactions(singletonList(batchTransaction(3, 1, "type", 2L)));
+    }
+
+    @Test
+    public void createTransactionGroup_shouldFailEachTransactionOnItsOwn() {
+        List<BatchTransaction> group = Arrays.asList(
+                batchTransaction(1, 1, "type", null),
+                batchTransaction(1, 2, "type", null),
+                batchTransaction(2, 1, "type", 1L),
+                batchTransaction(3, 1, "type", 9L),
+                batchTransaction(4, 1, "type", null),
+                batchTransaction(5, 1, "type", 4L));
+        when(transactionRepository.getExistingIds(anyCollectionOf(Long.class))).thenReturn(singletonList(4L));
+
+        List<HttpException> failures = transactionService.createTransactionGroup(group);
+
+        assertThat(failures.get(0), is(nullValue()));
+        assertThat(failures.get(1), instanceOf(ConflictException.class));
+        assertThat(failures.get(2), is(nullValue()));
+        assertThat(failures.get(3), instanceOf(BadRequestException.class));
+        assertThat(failures.get(3).getMessage(), is("parent not found"));
+        assertThat(failures.get(4), instanceOf(ConflictException.class));
+        assertThat(failures.get(5), is(nullValue()));
+        verify(transactionRepository).getExistingIds(newHashSet(1L, 2L, 3L, 4L, 5L, 9L));
+        verify(transactionBatchRepository).insertTransactions(Arrays.asList(group.get(0), group.get(2), group.get(5)),
+                null);
+    }
+
+    @Test
+    public void createTransactionGroup_shouldQueryOnlyUnknownIds() {
+        TransactionIds ids = new TransactionIds(transactionRepository, 10);
+        ids.addAll(Arrays.asList(1L, 4L));
+        ReflectionTestUtils.setField(transactionService, "transactionIds", ids);
+        List<BatchTransaction> group = Arrays.asList(
+                batchTransaction(1, 1, "type", null),
+                batchTransaction(2, 1, "type", 4L));
+
+        List<HttpException> failures = transactionService.createTransactionGroup(group);
+
+        assertThat(failures.get(0), instanceOf(ConflictException.class));
+        assertThat(failures.get(1), is(nullValue()));
+        verify(transactionRepository).getExistingIds(newHashSet(2L));
+        assertThat(ids.contains(2L), is(true));
+    }
+
+    @Test
+    public void createTransactionGroup_shouldNotInsertWhenAllFail() {
+        when(transactionRepository.getExistingIds(anyCollectionOf(Long.class))).thenReturn(singletonList(1L));
+
+        List<HttpException> failures = transactionService.createTransactionGroup(
+                singletonList(batchTransaction(1, 1, "type", null)));
+
+        assertThat(failures.get(0), instanceOf(ConflictException.class));
+        verifyZeroInteractions(transactionBatchRepository);
     }
 
     @Test
     public void sumTransactions_shouldSumChildlessTransaction() {
         TransactionEntity te = entity(1, 1.3, "type");
         setupFindTransaction(te);
-        when(transactionDescendantRepository.amountsByParent(te)).thenReturn(emptyList());
+        when(transactionDescendantRepository.sumUnitsByParent(te)).thenReturn(countAndSum(0, null));
 
         Sum sum = transactionService.sumTransactions(1);
         assertThat(sum.getSum(), is(1.3));
@@ -150,11 +502,91 @@ public class TransactionServiceTest {
         TransactionEntity tParent = entity(1, 1.3, "type");
 
         setupFindTransaction(tParent);
-        when(transactionDescendantRepository.amountsByParent(tParent))
-                .thenReturn(Arrays.asList(1.1, 1.5));
+        when(transactionDescendantRepository.sumUnitsByParent(tParent)).thenReturn(countAndSum(2, 1.1 + 1.5));
+
+        Sum sum = transactionService.sumTransactions(1);
+        assertThat(sum.getSum(), is(3.9));
+    }
+
+    /**
+     * The single {count, sum} row returned by the descendants and path sum queries
+     */
+    private static List<Object[]> countAndSum(long count, Double sum) {
+        Object[] row = {count, sum == null ? null : new AmountScale().toUnits(sum)};
+        return singletonList(row);
+    }
+
+    @Test
+    public void createTransaction_shouldSaveTransactionWithPath() {
+        usePathHierarchy();
+        TransactionEntity parent = entity(2, 1.1, "type");
+        parent.setPath("/1/2/");
+        setupFindTransaction(parent);
+
+        transactionService.createTransaction(3, transaction(1.1, "type", 2L));
+
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+        verify(transactionRepository).save(captor.capture());
+        assertThat(captor.getValue().getPath(), is("/1/2/3/"));
+        verifyZeroInteractions(transactionDescendantRepository);
+    }
+
+    @Test
+    public void createTransaction_shouldSaveRootTransactionWithPath() {
+        usePathHierarchy();
+
+        transactionService.createTransaction(3, transaction(1.1, "type"));
+
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+        verify(transactionRepository).save(captor.capture());
+        assertThat(captor.getValue().getPath(), is("/3/"));
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void createTransaction_shouldFailOnCircularPath() {
+        usePathHierarchy();
+        TransactionEntity parent = entity(2, 1.1, "type");
+        parent.setPath("/3/2/");
+        setupFindTransaction(parent);
+
+        transactionService.createTransaction(3, transaction(1.1, "type", 2L));
+    }
+
+    @Test
+    public void createTransactions_shouldSaveTransactionsWithPaths() {
+        usePathHierarchy();
+        List<BatchTransaction> batch = Arrays.asList(
+                batchTransaction(4, 1, "type", 3L),
+                batchTransaction(3, 1, "type", 2L),
+                batchTransaction(5, 1, "type", null));
+        when(transactionRepository.getPaths(newHashSet(2L))).thenReturn(singletonList(new Object[]{2L, "/1/2/"}));
+
+        transactionService.createTransactions(batch);
+
+        verify(transactionBatchRepository).insertTransactions(
+                eq(Arrays.asList(batch.get(1), batch.get(2), batch.get(0))), pathsCaptor.capture());
+        assertThat(pathsCaptor.getValue().get(3L), is("/1/2/3/"));
+        assertThat(pathsCaptor.getValue().get(4L), is("/1/2/3/4/"));
+        assertThat(pathsCaptor.getValue().get(5L), is("/5/"));
+        verifyZeroInteractions(transactionDescendantRepository);
+    }
+
+    @Test
+    public void sumTransactions_shouldSumByPath() {
+        usePathHierarchy();
+        TransactionEntity te = entity(1, 1.3, "type");
+        te.setPath("/1/");
+        setupFindTransaction(te);
+        when(transactionRepository.sumUnitsByPathPrefix("/1/")).thenReturn(countAndSum(3, 7.5));
 
         Sum sum = transactionService.sumTransactions(1);
-        assertThat(sum.getSum(), closeTo(1.3 + 1.1 + 1.5, 0.001));
+        assertThat(sum.getSum(), is(7.5));
+        verify(metrics).recordCount(TransactionMetrics.SUM_ROWS_SCANNED, 3);
+        verifyZeroInteractions(transactionDescendantRepository);
+    }
+
+    private void usePathHierarchy() {
+        ReflectionTestUtils.setField(transactionService, "hierarchy", TransactionService.PATH_HIERARCHY);
     }
 
     @Test(expected = NotFoundException.class)
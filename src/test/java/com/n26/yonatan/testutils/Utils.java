@@ -1,5 +1,7 @@
 package com.n26.yonatan.testutils;
 
+import com.n26.yonatan.amount.AmountScale;
+import com.n26.yonatan.dto.BatchTransaction;
 import com.n26.yonatan.dto.Transaction;
 import com.n26.yonatan.model.TransactionDescendant;
 import com.n26.yonatan.model.TransactionEntity;
@@ -27,10 +29,11 @@ public class Utils {
 
     public static TransactionEntity entity(long id, double amount, String type, TransactionEntity parent) {
         TransactionEntity te = new TransactionEntity();
-        te.setAmount(amount);
+        te.setAmountUnits(new AmountScale().toUnits(amount));
         te.setType(type);
         te.setId(id);
         te.setParent(parent);
+        te.setParentId(parent == null ? null : parent.getId());
         return te;
     }
 
@@ -46,6 +49,15 @@ public class Utils {
         return t;
     }
 
+    public static BatchTransaction batchTransaction(long id, double amount, String type, Long parentId) {
+        BatchTransaction t = new BatchTransaction();
+        t.setId(id);
+        t.setAmount(amount);
+        t.setParentId(parentId);
+        t.setType(type);
+        return t;
+    }
+
     public static TransactionEntity entity(long id, double amount, String type) {
         return entity(id, amount, type, null);
     }